@@ -0,0 +1,21 @@
+/*
+ * A run of lines [start, end] entered only at start. target and fallthrough
+ * are the leader lines of the successor blocks, or -1 when there is none or
+ * the successor is only known at run time (jr).
+ */
+class BasicBlock {
+	public final int index;
+	public final int start;
+	public int end;
+	public int target = -1;
+	public int fallthrough = -1;
+
+	BasicBlock(int index, int start) {
+		this.index = index;
+		this.start = start;
+	}
+
+	public String toString() {
+		return "block " + index + " [" + (start + 1) + ", " + (end + 1) + "] -> " + (target + 1) + ", " + (fallthrough + 1);
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * A single pre-decoded instruction. Register fields hold indices into the
+ * register file (-1 when unused), target holds the resolved line of a
+ * branch or jump label and labels used as operands are already addresses.
+ */
+class DecodedInstruction {
+	public static final DecodedInstruction NOP = new DecodedInstruction(MipsOpcode.NOP, -1);
+	/* Stands in for a line a lazy MipsLoader hasn't decoded yet. */
+	public static final DecodedInstruction UNDECODED = new DecodedInstruction(MipsOpcode.UNDECODED, -1);
+
+	public int opcode;
+	public int line;
+	public int rd = -1, rs = -1, rt = -1;
+	public int immediate;
+	public int target = -1;
+	public MipsInstruction instruction;
+
+	/* Set on superinstructions only: the fused second instruction and the line after it. */
+	public DecodedInstruction next;
+	public int fallthrough = -1;
+
+	DecodedInstruction(int opcode, int line) {
+		this.opcode = opcode;
+		this.line = line;
+	}
+
+	public String toString() {
+		return MipsOpcode.NAMES[opcode] + " rd=" + rd + " rs=" + rs + " rt=" + rt + " imm=" + immediate + " target=" + target;
+	}
+}
@@ -0,0 +1,427 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Runs many programs in one JVM, each in its own MipsInterpreter with its own
+ * input and output, on a pool of platform or virtual threads. A job is a
+ * program plus an optional input file and an optional expected output file.
+ * Jobs come either from a directory (foo.s with foo.in and foo.expected next
+ * to it) or from a manifest with one "program [input [expected]]" per line.
+ * With a time slice, jobs are instead multiplexed over the threads by a
+ * MipsScheduler, each fed its input and stepped a slice at a time. Each
+ * distinct program is loaded once, by the first job that needs it, and its
+ * jobs take reset interpreters from a shared MipsInterpreterPool.
+ */
+public class MipsBatchRunner {
+
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean virtualThreads = false;
+		File outputDirectory = null;
+		MipsProgramCache programCache = null;
+		MipsInterpreter.Engine engine = MipsInterpreter.Engine.SWITCH;
+		long slice = 0;
+		boolean monitoring = false;
+		long instructionLimit = 0, timeLimit = 0, outputLimit = 0;
+		int dataLimit = 0;
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].startsWith("--threads=")) {
+					threads = Integer.parseInt(args[i].substring("--threads=".length()));
+				} else if (args[i].startsWith("--time-slice=")) {
+					slice = Long.parseLong(args[i].substring("--time-slice=".length()));
+				} else if (args[i].startsWith("--max-instructions=")) {
+					instructionLimit = Long.parseLong(args[i].substring("--max-instructions=".length()));
+				} else if (args[i].startsWith("--timeout=")) {
+					timeLimit = Long.parseLong(args[i].substring("--timeout=".length()));
+				} else if (args[i].startsWith("--max-data=")) {
+					dataLimit = Integer.parseInt(args[i].substring("--max-data=".length()));
+				} else if (args[i].startsWith("--max-output=")) {
+					outputLimit = Long.parseLong(args[i].substring("--max-output=".length()));
+				} else if (args[i].equals("--jmx")) {
+					monitoring = true;
+				} else if (args[i].equals("--virtual-threads")) {
+					virtualThreads = true;
+				} else if (args[i].startsWith("--output-dir=")) {
+					outputDirectory = new File(args[i].substring("--output-dir=".length()));
+					outputDirectory.mkdirs();
+				} else if (args[i].startsWith("--cache-dir=")) {
+					programCache = new MipsProgramCache(new File(args[i].substring("--cache-dir=".length())).toPath());
+				} else if (args[i].startsWith("--engine=")) {
+					engine = MipsInterpreter.Engine.valueOf(args[i].substring("--engine=".length()).toUpperCase());
+				} else {
+					addJobs(new File(args[i]), jobs);
+				}
+			}
+			if (outputDirectory != null) checkOutputNames(jobs);
+		} catch (IOException e) {
+			System.err.println("Couldn't read jobs: " + e.getMessage());
+			return;
+		}
+		if (jobs.isEmpty()) {
+			System.err.println("Usage: java MipsBatchRunner [--threads=N] [--virtual-threads] [--time-slice=N] [--output-dir=DIR] [--cache-dir=DIR] [--engine=NAME] [--jmx] [--max-instructions=N] [--timeout=MS] [--max-data=BYTES] [--max-output=BYTES] directory|manifest...");
+			return;
+		}
+
+		MipsBatchRunner runner = new MipsBatchRunner(engine, outputDirectory);
+		runner.setProgramCache(programCache);
+		runner.setMonitoring(monitoring);
+		runner.setLimits(instructionLimit, timeLimit * 1000000, dataLimit, outputLimit);
+		long start = System.nanoTime();
+		Result[] results;
+		if (slice > 0) {
+			MipsScheduler scheduler = new MipsScheduler(threads, slice);
+			results = runner.runScheduled(jobs, scheduler);
+			scheduler.shutdown();
+		} else {
+			results = runner.runAll(jobs, newExecutor(threads, virtualThreads));
+		}
+		long wallNanos = System.nanoTime() - start;
+		printSummary(results, wallNanos);
+	}
+
+	private MipsInterpreter.Engine engine;
+	private File outputDirectory;
+	private MipsProgramCache programCache;
+	private boolean monitoring;
+	private long instructionLimit = Long.MAX_VALUE;
+	private long timeLimitNanos;
+	private int dataLimit = Integer.MAX_VALUE;
+	private long outputLimit = Long.MAX_VALUE;
+	private final AtomicLong monitorSequence = new AtomicLong();
+	private final ConcurrentHashMap<File, LoadedProgram> programs = new ConcurrentHashMap<File, LoadedProgram>();
+
+	public MipsBatchRunner(MipsInterpreter.Engine engine, File outputDirectory) {
+		this.engine = engine;
+		this.outputDirectory = outputDirectory;
+	}
+
+	public void setProgramCache(MipsProgramCache programCache) {
+		this.programCache = programCache;
+	}
+
+	/* Per-job limits, as in MipsInterpreter; 0 leaves one unlimited. A job that goes over one gets the status "limit". */
+	public void setLimits(long instructions, long timeNanos, int dataBytes, long outputBytes) {
+		instructionLimit = instructions > 0 ? instructions : Long.MAX_VALUE;
+		timeLimitNanos = timeNanos;
+		dataLimit = dataBytes > 0 ? dataBytes : Integer.MAX_VALUE;
+		outputLimit = outputBytes > 0 ? outputBytes : Long.MAX_VALUE;
+	}
+
+	/* Registers each running job's interpreter with MipsMonitor as PROGRAM#N. */
+	public void setMonitoring(boolean monitoring) {
+		this.monitoring = monitoring;
+	}
+
+	public Result[] runAll(ArrayList<Job> jobs, ExecutorService executor) {
+		ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>();
+		for (final Job job : jobs) {
+			futures.add(executor.submit(() -> run(job)));
+		}
+		Result[] results = new Result[jobs.size()];
+		for (int i = 0; i < results.length; i++) {
+			try {
+				results[i] = futures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				results[i] = new Result(jobs.get(i), "interrupted");
+			} catch (ExecutionException e) {
+				results[i] = new Result(jobs.get(i), "crashed");
+				results[i].error = String.valueOf(e.getCause());
+			}
+		}
+		executor.shutdown();
+		return results;
+	}
+
+	/*
+	 * Loads every job, feeds it its whole input and submits it to scheduler.
+	 * A job's time is the time it spent being stepped, plus its program's
+	 * load time for the job that loaded it.
+	 */
+	public Result[] runScheduled(ArrayList<Job> jobs, MipsScheduler scheduler) {
+		Result[] results = new Result[jobs.size()];
+		MipsScheduler.Task[] tasks = new MipsScheduler.Task[jobs.size()];
+		MipsMonitor[] monitors = new MipsMonitor[jobs.size()];
+		ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[jobs.size()];
+		ByteArrayOutputStream[] errors = new ByteArrayOutputStream[jobs.size()];
+		long[] loadNanos = new long[jobs.size()];
+		for (int i = 0; i < results.length; i++) {
+			Job job = jobs.get(i);
+			outputs[i] = new ByteArrayOutputStream();
+			errors[i] = new ByteArrayOutputStream();
+			LoadedProgram program = load(job);
+			loadNanos[i] = program.takeLoadNanos();
+			errors[i].writeBytes(program.errors);
+			try {
+				if (program.pool == null) {
+					results[i] = finish(job, null, loadNanos[i], outputs[i], errors[i]);
+					continue;
+				}
+				MipsInterpreter interpreter = program.pool.acquire();
+				attach(interpreter, outputs[i], errors[i]);
+				interpreter.getConsole().setFedInput();
+				monitors[i] = monitor(job, interpreter);
+				tasks[i] = scheduler.submit(interpreter);
+				if (job.input != null) tasks[i].feed(Files.readAllBytes(job.input.toPath()));
+				tasks[i].closeInput();
+			} catch (IOException e) {
+				if (tasks[i] != null) tasks[i].cancel();
+				if (monitors[i] != null) monitors[i].close();
+				results[i] = new Result(job, "crashed");
+				results[i].error = String.valueOf(e);
+			}
+		}
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null) continue;
+			try {
+				MipsInterpreter interpreter = tasks[i].join();
+				results[i] = finish(jobs.get(i), interpreter, loadNanos[i] + tasks[i].getRunNanos(), outputs[i], errors[i]);
+				load(jobs.get(i)).pool.release(interpreter);
+			} catch (RuntimeException | IOException e) {
+				results[i] = new Result(jobs.get(i), "crashed");
+				results[i].error = String.valueOf(e.getCause() != null ? e.getCause() : e);
+			} finally {
+				if (monitors[i] != null) monitors[i].close();
+			}
+		}
+		return results;
+	}
+
+	public Result run(Job job) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		LoadedProgram program = load(job);
+		long nanos = program.takeLoadNanos();
+		errors.writeBytes(program.errors);
+		if (program.pool == null) return finish(job, null, nanos, output, errors);
+		InputStream input = job.input == null ? new ByteArrayInputStream(new byte[0]) : Files.newInputStream(job.input.toPath());
+		long start = System.nanoTime();
+		MipsInterpreter interpreter = program.pool.acquire();
+		MipsMonitor monitor = monitor(job, interpreter);
+		try {
+			attach(interpreter, output, errors);
+			interpreter.setInput(input);
+			interpreter.run();
+			nanos += System.nanoTime() - start;
+			return finish(job, interpreter, nanos, output, errors);
+		} finally {
+			input.close();
+			if (monitor != null) monitor.close();
+			program.pool.release(interpreter);
+		}
+	}
+
+	/* The job's program, loaded by whichever job asks for it first. */
+	private LoadedProgram load(Job job) {
+		LoadedProgram program = programs.computeIfAbsent(job.program, file -> new LoadedProgram());
+		synchronized (program) {
+			if (program.errors == null) {
+				ByteArrayOutputStream errors = new ByteArrayOutputStream();
+				long start = System.nanoTime();
+				MipsInterpreter interpreter = new MipsInterpreter();
+				interpreter.setProgramCache(programCache);
+				interpreter.setErrorOutput(new PrintStream(errors));
+				if (interpreter.load(job.program.getPath()))
+					program.pool = new MipsInterpreterPool(interpreter.getProgram(), engine, Runtime.getRuntime().availableProcessors());
+				program.loadNanos = System.nanoTime() - start;
+				program.errors = errors.toByteArray();
+			}
+		}
+		return program;
+	}
+
+	private MipsMonitor monitor(Job job, MipsInterpreter interpreter) {
+		return monitoring ? MipsMonitor.register(interpreter, job.program.getName() + "#" + monitorSequence.incrementAndGet()) : null;
+	}
+
+	private void attach(MipsInterpreter interpreter, ByteArrayOutputStream output, ByteArrayOutputStream errors) {
+		interpreter.setOutput(output);
+		interpreter.setErrorOutput(new PrintStream(errors));
+		interpreter.setInstructionLimit(instructionLimit);
+		interpreter.setTimeLimit(timeLimitNanos);
+		interpreter.setDataLimit(dataLimit);
+		interpreter.setOutputLimit(outputLimit);
+	}
+
+	/* interpreter is null when the program didn't load. */
+	private Result finish(Job job, MipsInterpreter interpreter, long nanos,
+			ByteArrayOutputStream output, ByteArrayOutputStream errors) throws IOException {
+		byte[] outputBytes = output.toByteArray();
+		if (outputDirectory != null)
+			Files.write(new File(outputDirectory, job.outputName + ".out").toPath(), outputBytes);
+
+		String status;
+		if (interpreter == null) {
+			status = "invalid";
+		} else if (interpreter.getTermination() != MipsInterpreter.Termination.ERROR && interpreter.getError() != null) {
+			status = "limit";
+		} else if (interpreter.getError() != null) {
+			status = "error";
+		} else if (job.expected != null) {
+			status = Arrays.equals(outputBytes, Files.readAllBytes(job.expected.toPath())) ? "pass" : "fail";
+		} else {
+			status = "ok";
+		}
+		Result result = new Result(job, status);
+		result.nanos = nanos;
+		result.instructions = interpreter == null ? 0 : interpreter.getInstructionsExecuted();
+		result.outputBytes = outputBytes.length;
+		result.error = errors.size() == 0 ? null : errors.toString().trim();
+		return result;
+	}
+
+	private static ExecutorService newExecutor(int threads, boolean virtualThreads) {
+		if (virtualThreads) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.err.println("Virtual threads need Java 21; using " + threads + " platform threads.");
+			}
+		}
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	private static void addJobs(File file, ArrayList<Job> jobs) throws IOException {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			if (files == null) return;
+			Arrays.sort(files);
+			for (File program : files) {
+				if (!program.getName().endsWith(".s")) continue;
+				File input = new File(file, baseName(program) + ".in");
+				File expected = new File(file, baseName(program) + ".expected");
+				jobs.add(new Job(program, input.exists() ? input : null, expected.exists() ? expected : null));
+			}
+			return;
+		}
+		BufferedReader bufferedReader = new BufferedReader(new FileReader(file));
+		try {
+			File directory = file.getAbsoluteFile().getParentFile();
+			String line;
+			while ((line = bufferedReader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) continue;
+				String[] fields = line.split("\\s+");
+				jobs.add(new Job(resolve(directory, fields[0]),
+						fields.length > 1 ? resolve(directory, fields[1]) : null,
+						fields.length > 2 ? resolve(directory, fields[2]) : null));
+			}
+		} finally {
+			bufferedReader.close();
+		}
+	}
+
+	/* Fails if two jobs would write the same output file, which would leave whichever finished last. */
+	private static void checkOutputNames(ArrayList<Job> jobs) throws IOException {
+		HashMap<String, Job> names = new HashMap<String, Job>();
+		for (Job job : jobs) {
+			Job other = names.put(job.outputName, job);
+			if (other != null)
+				throw new IOException("Jobs " + describe(other) + " and " + describe(job) + " would both write " + job.outputName + ".out");
+		}
+	}
+
+	private static String describe(Job job) {
+		return job.input == null ? job.program.getPath() : job.program.getPath() + " < " + job.input.getPath();
+	}
+
+	private static File resolve(File directory, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(directory, path);
+	}
+
+	private static String baseName(File program) {
+		String name = program.getName();
+		return name.endsWith(".s") ? name.substring(0, name.length() - 2) : name;
+	}
+
+	private static String inputName(File input) {
+		String name = input.getName();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	private static void printSummary(Result[] results, long wallNanos) {
+		long instructions = 0, cpuNanos = 0;
+		int[] counts = new int[STATUSES.length];
+		System.out.printf("%-32s %-8s %14s %10s %10s%n", "program", "status", "instructions", "ms", "out bytes");
+		for (Result result : results) {
+			System.out.printf("%-32s %-8s %14d %10.3f %10d%n", result.job.program.getName(), result.status,
+					result.instructions, result.nanos / 1e6, result.outputBytes);
+			if (result.error != null) System.out.println("    " + result.error);
+			instructions += result.instructions;
+			cpuNanos += result.nanos;
+			counts[Arrays.asList(STATUSES).indexOf(result.status)]++;
+		}
+		StringBuilder totals = new StringBuilder();
+		for (int i = 0; i < STATUSES.length; i++)
+			if (counts[i] > 0) totals.append(", ").append(counts[i]).append(' ').append(STATUSES[i]);
+		System.out.printf("%d programs%s%n", results.length, totals);
+		System.out.printf("wall %.1f ms, summed run time %.1f ms, %d instructions (%.2f M/s)%n",
+				wallNanos / 1e6, cpuNanos / 1e6, instructions, instructions * 1e3 / Math.max(wallNanos, 1));
+	}
+
+	private static final String[] STATUSES = {"ok", "pass", "fail", "error", "limit", "invalid", "crashed", "interrupted"};
+
+	/* A job's output is saved as outputName.out: foo for foo.s, or foo-bar for foo.s run on bar.in. */
+	public static class Job {
+		public final File program;
+		public final File input;
+		public final File expected;
+		public final String outputName;
+
+		public Job(File program, File input, File expected) {
+			this.program = program;
+			this.input = input;
+			this.expected = expected;
+			String name = baseName(program);
+			outputName = input == null || inputName(input).equals(name) ? name : name + "-" + inputName(input);
+		}
+	}
+
+	/* A program shared by the jobs that run it; errors is null until it has been loaded. */
+	private static class LoadedProgram {
+		MipsInterpreterPool pool;
+		byte[] errors;
+		long loadNanos;
+
+		/* The load time, for the first caller only. */
+		synchronized long takeLoadNanos() {
+			long nanos = loadNanos;
+			loadNanos = 0;
+			return nanos;
+		}
+	}
+
+	public static class Result {
+		public final Job job;
+		public final String status;
+		public long nanos;
+		public long instructions;
+		public int outputBytes;
+		public String error;
+
+		Result(Job job, String status) {
+			this.job = job;
+			this.status = status;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Runs every program in the benchmark corpus on every engine and reports
+ * load time, run time, instructions per second and bytes allocated per run.
+ * Program output is discarded while measuring. With --optimize every engine
+ * is measured again on text rewritten by MipsOptimizer, shown as engine+o.
+ * With --lazy every engine is measured again with lazy decoding, shown as
+ * engine+l, where load stops after the label scan and lines are decoded as
+ * they first run. With --replay every run reads its input from a MipsSyscallLog recorded
+ * with --record, so interactive programs can be measured without a console.
+ */
+public class MipsBenchmark {
+
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final OutputStream DISCARD = OutputStream.nullOutputStream();
+
+	public static void main(String[] args) {
+		int warmup = 5, iterations = 10;
+		boolean optimize = false;
+		boolean lazy = false;
+		byte[] replay = null;
+		ArrayList<MipsInterpreter.Engine> engines = new ArrayList<MipsInterpreter.Engine>();
+		ArrayList<String> fileNames = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("--warmup=")) {
+				warmup = Integer.parseInt(args[i].substring("--warmup=".length()));
+			} else if (args[i].startsWith("--iterations=")) {
+				iterations = Integer.parseInt(args[i].substring("--iterations=".length()));
+			} else if (args[i].equals("--optimize")) {
+				optimize = true;
+			} else if (args[i].equals("--lazy")) {
+				lazy = true;
+			} else if (args[i].startsWith("--replay=")) {
+				String replayFileName = args[i].substring("--replay=".length());
+				try {
+					replay = Files.readAllBytes(Paths.get(replayFileName));
+					MipsSyscallLog.replaying(replay);
+				} catch (IOException e) {
+					System.err.println("Couldn't read " + replayFileName + ": " + e.getMessage());
+					return;
+				}
+			} else if (args[i].startsWith("--engine=")) {
+				engines.add(MipsInterpreter.Engine.valueOf(args[i].substring("--engine=".length()).toUpperCase()));
+			} else {
+				addPrograms(new File(args[i]), fileNames);
+			}
+		}
+		if (engines.isEmpty()) engines.addAll(Arrays.asList(MipsInterpreter.Engine.values()));
+		if (fileNames.isEmpty()) addPrograms(new File("benchmarks"), fileNames);
+		if (fileNames.isEmpty()) {
+			System.err.println("Usage: java MipsBenchmark [--warmup=N] [--iterations=N] [--engine=NAME]... [--optimize] [--lazy] [--replay=FILE] [program.s|directory]...");
+			return;
+		}
+
+		PrintStream out = System.out;
+		out.printf("%-24s %-8s %10s %10s %12s %14s%n", "program", "engine", "load ms", "run ms", "Minstr/s", "alloc KB/run");
+		for (String fileName : fileNames) {
+			for (MipsInterpreter.Engine engine : engines) {
+				for (int pass = 0; pass < 3; pass++) {
+					if (pass == 1 && !optimize || pass == 2 && !lazy) continue;
+					boolean optimized = pass == 1;
+					boolean lazily = pass == 2;
+					for (int i = 0; i < warmup; i++)
+						runOnce(fileName, engine, optimized, lazily, replay);
+					long[] total = new long[4];
+					for (int i = 0; i < iterations; i++) {
+						long[] sample = runOnce(fileName, engine, optimized, lazily, replay);
+						for (int j = 0; j < total.length; j++)
+							total[j] += sample[j];
+					}
+					out.printf("%-24s %-8s %10.3f %10.3f %12.2f %14.1f%n",
+							new File(fileName).getName(),
+							engine.name().toLowerCase() + (optimized ? "+o" : lazily ? "+l" : ""),
+							total[0] / 1e6 / iterations,
+							total[1] / 1e6 / iterations,
+							total[1] == 0 ? 0.0 : total[2] * 1e3 / total[1],
+							total[3] / 1024.0 / iterations);
+				}
+			}
+		}
+	}
+
+	/* Returns load nanos, run nanos, instructions executed and bytes allocated. */
+	private static long[] runOnce(String fileName, MipsInterpreter.Engine engine, boolean optimized, boolean lazily,
+			byte[] replay) {
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		MipsInterpreter interpreter = new MipsInterpreter();
+		interpreter.setEngine(engine);
+		interpreter.setOptimizing(optimized);
+		interpreter.setLazyDecoding(lazily);
+		interpreter.setOutput(DISCARD);
+		if (replay != null) {
+			try {
+				interpreter.setSyscallLog(MipsSyscallLog.replaying(replay));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		interpreter.load(fileName);
+		long loaded = System.nanoTime();
+		interpreter.run();
+		long finished = System.nanoTime();
+		long allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		return new long[] {loaded - start, finished - loaded, interpreter.getInstructionsExecuted(), allocated};
+	}
+
+	private static void addPrograms(File file, ArrayList<String> fileNames) {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			if (files == null) return;
+			Arrays.sort(files);
+			for (File child : files)
+				if (child.getName().endsWith(".s")) fileNames.add(child.getPath());
+		} else if (file.exists()) {
+			fileNames.add(file.getPath());
+		}
+	}
+}
@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/*
+ * Loads machine code instead of assembly: either a raw image of 32-bit
+ * instruction words placed at TEXT_BASE, or a static MIPS32 ELF executable.
+ * Every word is decoded by its bitfields into the same DecodedInstruction
+ * form the assembler produces, so line i of the returned text is the word at
+ * TEXT_BASE + 4 * i and the text array doubles as the decoded cache by pc.
+ *
+ * Branches have no delay slot here, as in the assembly mode, so code must
+ * have been assembled or compiled with its delay slots filled by nops.
+ * Words that are not in the supported instruction set decode to a halt.
+ */
+public class MipsBinaryLoader {
+
+	private static final int ELF_MAGIC = 0x7f454c46;
+	private static final int EM_MIPS = 8;
+	private static final int PT_LOAD = 1;
+	private static final int PF_X = 1;
+	private static final int SHT_SYMTAB = 2;
+
+	private HashMap<String, Integer> labels;
+	private HashMap<String, Integer> dataAddresses;
+	private MipsMemory memory;
+	private PrintStream err;
+	private int entryLine;
+	private int unsupportedWords;
+
+	public MipsBinaryLoader(HashMap<String, Integer> labels, HashMap<String, Integer> dataAddresses, MipsMemory memory, PrintStream err) {
+		this.labels = labels;
+		this.dataAddresses = dataAddresses;
+		this.memory = memory;
+		this.err = err;
+	}
+
+	public static boolean isElf(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			while (header.hasRemaining() && channel.read(header) >= 0) {}
+			return !header.hasRemaining() && header.getInt(0) == ELF_MAGIC;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* Loads an ELF executable, or a raw image in byteOrder if the file isn't ELF. */
+	public DecodedInstruction[] load(Path path, ByteOrder byteOrder) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (image.limit() >= 4 && image.getInt(0) == ELF_MAGIC) return loadElf(image);
+			return loadRaw(image.order(byteOrder));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* Loads a raw data image at DATA_BASE, as dumped alongside a raw text image. */
+	public void loadData(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int address = memory.allocate(image.limit(), 4);
+			for (int i = 0; i < image.limit(); i++)
+				memory.storeByte(address + i, image.get(i));
+		} finally {
+			channel.close();
+		}
+	}
+
+	public DecodedInstruction[] loadRaw(ByteBuffer image) {
+		DecodedInstruction[] text = new DecodedInstruction[image.remaining() / 4];
+		for (int line = 0; line < text.length; line++)
+			text[line] = decode(image.getInt(image.position() + 4 * line), line, text.length);
+		entryLine = 0;
+		reportUnsupported();
+		return text;
+	}
+
+	public DecodedInstruction[] loadElf(ByteBuffer image) throws IOException {
+		if (image.limit() < 52 || image.get(4) != 1) throw new IOException("Not a 32-bit ELF file");
+		image = image.duplicate().order(image.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		if (image.getShort(18) != EM_MIPS) throw new IOException("Not a MIPS ELF file");
+		int entry = image.getInt(24);
+		int programHeaders = image.getInt(28);
+		int programHeaderSize = image.getShort(42) & 0xffff;
+		int programHeaderCount = image.getShort(44) & 0xffff;
+
+		int textEnd = MipsInterpreter.TEXT_BASE;
+		for (int i = 0; i < programHeaderCount; i++) {
+			int header = programHeaders + i * programHeaderSize;
+			if (image.getInt(header) == PT_LOAD && (image.getInt(header + 24) & PF_X) != 0)
+				textEnd = Math.max(textEnd, image.getInt(header + 8) + image.getInt(header + 20));
+		}
+		DecodedInstruction[] text = new DecodedInstruction[(textEnd - MipsInterpreter.TEXT_BASE) / 4];
+		for (int i = 0; i < programHeaderCount; i++) {
+			int header = programHeaders + i * programHeaderSize;
+			if (image.getInt(header) != PT_LOAD) continue;
+			int offset = image.getInt(header + 4);
+			int address = image.getInt(header + 8);
+			int fileSize = image.getInt(header + 16);
+			int memorySize = image.getInt(header + 20);
+			if ((image.getInt(header + 24) & PF_X) != 0) {
+				if (address < MipsInterpreter.TEXT_BASE || (address & 3) != 0)
+					throw new IOException(String.format("Text segment at 0x%08x is below 0x%08x", address, MipsInterpreter.TEXT_BASE));
+				int firstLine = (address - MipsInterpreter.TEXT_BASE) / 4;
+				for (int j = 0; j < memorySize / 4; j++)
+					text[firstLine + j] = decode(4 * j < fileSize ? image.getInt(offset + 4 * j) : 0, firstLine + j, text.length);
+			} else if (memorySize > 0) {
+				if (image.order() == ByteOrder.BIG_ENDIAN)
+					throw new IOException("Big-endian data segments are not supported; memory is little-endian");
+				if (address < MipsMemory.DATA_BASE)
+					throw new IOException(String.format("Data segment at 0x%08x is below 0x%08x; link with -Tdata=0x%08x",
+							address, MipsMemory.DATA_BASE, MipsMemory.DATA_BASE));
+				int end = address + memorySize - MipsMemory.DATA_BASE;
+				if (end > memory.getDataSize()) memory.allocate(end - memory.getDataSize(), 1);
+				for (int j = 0; j < fileSize; j++)
+					memory.storeByte(address + j, image.get(offset + j));
+			}
+		}
+		for (int line = 0; line < text.length; line++)
+			if (text[line] == null) text[line] = DecodedInstruction.NOP;
+		readSymbols(image, text.length);
+		entryLine = (entry - MipsInterpreter.TEXT_BASE) / 4;
+		reportUnsupported();
+		return text;
+	}
+
+	/* The line execution starts on: 0 for raw images, the ELF entry point otherwise. */
+	public int getEntryLine() {
+		return entryLine;
+	}
+
+	/* Adds the symbol table's text symbols to labels and its data symbols to dataAddresses. */
+	private void readSymbols(ByteBuffer image, int lineCount) {
+		int sectionHeaders = image.getInt(32);
+		int sectionHeaderSize = image.getShort(46) & 0xffff;
+		int sectionHeaderCount = image.getShort(48) & 0xffff;
+		for (int i = 0; i < sectionHeaderCount; i++) {
+			int header = sectionHeaders + i * sectionHeaderSize;
+			if (image.getInt(header + 4) != SHT_SYMTAB) continue;
+			int symbols = image.getInt(header + 16);
+			int symbolCount = image.getInt(header + 20) / 16;
+			int strings = image.getInt(sectionHeaders + image.getInt(header + 24) * sectionHeaderSize + 16);
+			for (int j = 1; j < symbolCount; j++) {
+				int symbol = symbols + j * 16;
+				int type = image.get(symbol + 12) & 0xf;
+				if (type > 2 || image.getShort(symbol + 14) == 0) continue;
+				String name = string(image, strings + image.getInt(symbol));
+				int value = image.getInt(symbol + 4);
+				int line = (value - MipsInterpreter.TEXT_BASE) / 4;
+				if (name.isEmpty()) continue;
+				if (value >= MipsInterpreter.TEXT_BASE && line < lineCount) {
+					labels.put(name, line);
+				} else if (value >= MipsMemory.DATA_BASE) {
+					dataAddresses.put(name, value);
+				}
+			}
+		}
+	}
+
+	private static String string(ByteBuffer image, int offset) {
+		int end = offset;
+		while (image.get(end) != 0)
+			end++;
+		byte[] bytes = new byte[end - offset];
+		image.get(offset, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void reportUnsupported() {
+		if (unsupportedWords > 0)
+			err.println(unsupportedWords + " words in the text segment are not supported instructions and will halt if executed.");
+	}
+
+	private DecodedInstruction decode(int word, int line, int lineCount) {
+		DecodedInstruction d = decodeWord(word, line, lineCount);
+		if (d.opcode == MipsOpcode.HALT) unsupportedWords++;
+		return d;
+	}
+
+	/*
+	 * Decodes one instruction word found on line. Operands follow the
+	 * assembler's conventions: the destination of an ALU op is rd, shifts
+	 * take their source in rs, loads and stores keep the value register in
+	 * rs and the base in rt, and branches compare rd against rs.
+	 */
+	public static DecodedInstruction decodeWord(int word, int line, int lineCount) {
+		int op = word >>> 26;
+		int rs = (word >>> 21) & 31;
+		int rt = (word >>> 16) & 31;
+		int rd = (word >>> 11) & 31;
+		int shift = (word >>> 6) & 31;
+		int signed = (short) word;
+		int unsigned = word & 0xffff;
+		switch (op) {
+		case 0:
+			switch (word & 63) {
+			case 0x00:
+				if (word == 0) return instruction(MipsOpcode.NOOP, line, -1, -1, -1, 0);
+				return instruction(MipsOpcode.SLL, line, rd, rt, -1, shift);
+			case 0x02:
+				return instruction(MipsOpcode.SRL, line, rd, rt, -1, shift);
+			case 0x03:
+				return instruction(MipsOpcode.SRA, line, rd, rt, -1, shift);
+			case 0x04:
+				return instruction(MipsOpcode.SLLV, line, rd, rt, rs, 0);
+			case 0x06:
+				return instruction(MipsOpcode.SRLV, line, rd, rt, rs, 0);
+			case 0x08:
+				return instruction(MipsOpcode.JR, line, -1, rs, -1, 0);
+			case 0x0c:
+				return new DecodedInstruction(MipsOpcode.SYSCALL, line);
+			case 0x0f:
+				return new DecodedInstruction(MipsOpcode.SYNC, line);
+			case 0x10:
+				return instruction(MipsOpcode.MFHI, line, rd, -1, -1, 0);
+			case 0x12:
+				return instruction(MipsOpcode.MFLO, line, rd, -1, -1, 0);
+			case 0x18:
+				return instruction(MipsOpcode.MULT, line, -1, rs, rt, 0);
+			case 0x19:
+				return instruction(MipsOpcode.MULTU, line, -1, rs, rt, 0);
+			case 0x1a:
+				return instruction(MipsOpcode.DIV, line, -1, rs, rt, 0);
+			case 0x1b:
+				return instruction(MipsOpcode.DIVU, line, -1, rs, rt, 0);
+			case 0x20:
+				return instruction(MipsOpcode.ADD, line, rd, rs, rt, 0);
+			case 0x21:
+				return instruction(MipsOpcode.ADDU, line, rd, rs, rt, 0);
+			case 0x22:
+				return instruction(MipsOpcode.SUB, line, rd, rs, rt, 0);
+			case 0x23:
+				return instruction(MipsOpcode.SUBU, line, rd, rs, rt, 0);
+			case 0x24:
+				return instruction(MipsOpcode.AND, line, rd, rs, rt, 0);
+			case 0x25:
+				return instruction(MipsOpcode.OR, line, rd, rs, rt, 0);
+			case 0x26:
+				return instruction(MipsOpcode.XOR, line, rd, rs, rt, 0);
+			case 0x2a:
+				return instruction(MipsOpcode.SLT, line, rd, rs, rt, 0);
+			case 0x2b:
+				return instruction(MipsOpcode.SLTU, line, rd, rs, rt, 0);
+			}
+			break;
+		case 0x01:
+			if (rt == 0) return branch(MipsOpcode.BLTZ, line, rs, -1, line + 1 + signed, lineCount);
+			if (rt == 1) return branch(MipsOpcode.BGEZ, line, rs, -1, line + 1 + signed, lineCount);
+			break;
+		case 0x02:
+		case 0x03: {
+			int address = ((MipsInterpreter.TEXT_BASE + 4 * (line + 1)) & 0xf0000000) | ((word & 0x03ffffff) << 2);
+			int target = (address - MipsInterpreter.TEXT_BASE) / 4;
+			return branch(op == 0x02 ? MipsOpcode.J : MipsOpcode.JAL, line, -1, -1, target, lineCount);
+		}
+		case 0x04:
+			return branch(MipsOpcode.BEQ, line, rs, rt, line + 1 + signed, lineCount);
+		case 0x05:
+			return branch(MipsOpcode.BNE, line, rs, rt, line + 1 + signed, lineCount);
+		case 0x06:
+			if (rt == 0) return branch(MipsOpcode.BLEZ, line, rs, -1, line + 1 + signed, lineCount);
+			break;
+		case 0x07:
+			if (rt == 0) return branch(MipsOpcode.BGTZ, line, rs, -1, line + 1 + signed, lineCount);
+			break;
+		case 0x08:
+			return instruction(MipsOpcode.ADDI, line, rt, rs, -1, signed);
+		case 0x09:
+			return instruction(MipsOpcode.ADDIU, line, rt, rs, -1, signed);
+		case 0x0a:
+			return instruction(MipsOpcode.SLTI, line, rt, rs, -1, signed);
+		case 0x0b:
+			return instruction(MipsOpcode.SLTIU, line, rt, rs, -1, signed);
+		case 0x0c:
+			return instruction(MipsOpcode.ANDI, line, rt, rs, -1, unsigned);
+		case 0x0d:
+			return instruction(MipsOpcode.ORI, line, rt, rs, -1, unsigned);
+		case 0x0e:
+			return instruction(MipsOpcode.XORI, line, rt, rs, -1, unsigned);
+		case 0x0f:
+			return instruction(MipsOpcode.LUI, line, rt, -1, -1, unsigned);
+		case 0x20:
+			return instruction(MipsOpcode.LB, line, -1, rt, rs, signed);
+		case 0x21:
+			return instruction(MipsOpcode.LH, line, -1, rt, rs, signed);
+		case 0x23:
+			return instruction(MipsOpcode.LW, line, -1, rt, rs, signed);
+		case 0x24:
+			return instruction(MipsOpcode.LBU, line, -1, rt, rs, signed);
+		case 0x25:
+			return instruction(MipsOpcode.LHU, line, -1, rt, rs, signed);
+		case 0x28:
+			return instruction(MipsOpcode.SB, line, -1, rt, rs, signed);
+		case 0x29:
+			return instruction(MipsOpcode.SH, line, -1, rt, rs, signed);
+		case 0x2b:
+			return instruction(MipsOpcode.SW, line, -1, rt, rs, signed);
+		case 0x30:
+			return instruction(MipsOpcode.LL, line, -1, rt, rs, signed);
+		case 0x38:
+			return instruction(MipsOpcode.SC, line, -1, rt, rs, signed);
+		}
+		return new DecodedInstruction(MipsOpcode.HALT, line);
+	}
+
+	private static DecodedInstruction instruction(int opcode, int line, int rd, int rs, int rt, int immediate) {
+		DecodedInstruction d = new DecodedInstruction(opcode, line);
+		d.rd = rd;
+		d.rs = rs;
+		d.rt = rt;
+		d.immediate = immediate;
+		d.instruction = MipsInterpreter.MIPS_INSTRUCTIONS.get(MipsOpcode.NAMES[opcode]);
+		return d;
+	}
+
+	private static DecodedInstruction branch(int opcode, int line, int rd, int rs, int target, int lineCount) {
+		if (target < 0 || target >= lineCount) return new DecodedInstruction(MipsOpcode.HALT, line);
+		DecodedInstruction d = instruction(opcode, line, rd, rs, -1, 0);
+		d.target = target;
+		return d;
+	}
+}
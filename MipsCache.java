@@ -0,0 +1,93 @@
+/*
+ * A set-associative, write-back, write-allocate cache with LRU replacement.
+ * Only tags are kept; the data itself stays in MipsMemory.
+ */
+class MipsCache {
+	private final int size;
+	private final int ways;
+	private final int lineSize;
+	private final int offsetBits;
+	private final int setMask;
+	/* Per set and way: the line address plus one, or zero when empty. */
+	private final long[] tags;
+	private final long[] lastUse;
+	private final boolean[] dirty;
+	private long clock;
+	private long reads;
+	private long writes;
+	private long misses;
+	private long writeBacks;
+
+	MipsCache(int size, int ways, int lineSize) {
+		if (Integer.bitCount(size) != 1 || Integer.bitCount(ways) != 1 || Integer.bitCount(lineSize) != 1 || lineSize < 4
+				|| size < ways * lineSize)
+			throw new IllegalArgumentException("Cache size, ways and line size must be powers of two with at least one set");
+		this.size = size;
+		this.ways = ways;
+		this.lineSize = lineSize;
+		offsetBits = Integer.numberOfTrailingZeros(lineSize);
+		setMask = size / (ways * lineSize) - 1;
+		tags = new long[size / lineSize];
+		lastUse = new long[tags.length];
+		dirty = new boolean[tags.length];
+	}
+
+	/* Parses SIZE:WAYS:LINE in bytes, e.g. 8192:2:32, or "none" for no cache. */
+	static MipsCache parse(String spec) {
+		if (spec.equals("none")) return null;
+		String[] fields = spec.split(":");
+		if (fields.length != 3) throw new IllegalArgumentException("Cache must be SIZE:WAYS:LINE: " + spec);
+		return new MipsCache(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+	}
+
+	/* Looks up the line holding address, filling it on a miss, and returns whether it hit. */
+	boolean access(int address, boolean write) {
+		clock++;
+		if (write) {
+			writes++;
+		} else {
+			reads++;
+		}
+		long line = (address & 0xffffffffL) >>> offsetBits;
+		int base = (int) (line & setMask) * ways;
+		int victim = base;
+		for (int i = base; i < base + ways; i++) {
+			if (tags[i] == line + 1) {
+				lastUse[i] = clock;
+				dirty[i] |= write;
+				return true;
+			}
+			if (lastUse[i] < lastUse[victim]) victim = i;
+		}
+		misses++;
+		if (tags[victim] != 0 && dirty[victim]) writeBacks++;
+		tags[victim] = line + 1;
+		lastUse[victim] = clock;
+		dirty[victim] = write;
+		return false;
+	}
+
+	long getAccesses() {
+		return reads + writes;
+	}
+
+	long getReads() {
+		return reads;
+	}
+
+	long getWrites() {
+		return writes;
+	}
+
+	long getMisses() {
+		return misses;
+	}
+
+	long getWriteBacks() {
+		return writeBacks;
+	}
+
+	public String toString() {
+		return String.format("%d bytes, %d-way, %d-byte lines, %d sets", size, ways, lineSize, setMask + 1);
+	}
+}
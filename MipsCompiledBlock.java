@@ -0,0 +1,3 @@
+interface MipsCompiledBlock {
+	int execute(int[] registers, MipsMemory memory);
+}
@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/*
+ * Byte-level console behind the print and read syscalls. Output is collected
+ * in one buffer and written to the underlying stream only when the buffer
+ * fills, before input is read, and on flush() (which the interpreter calls
+ * when a program stops). Integers are formatted straight into the buffer and
+ * strings are copied out of memory byte by byte, so printing allocates
+ * nothing. Input is read in blocks and tokenized in place, replacing Scanner.
+ * Input can instead be fed in by the host with feedInput, in which case a
+ * read that would have to wait is reported by wouldBlock rather than made.
+ * Feeding and closing the input synchronize on the console and wake any
+ * thread waiting on it for more, so another thread may read under the same
+ * lock.
+ */
+public class MipsConsole {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private InputStream in;
+	private OutputStream out;
+	private byte[] outputBuffer;
+	private int outputLength;
+	/* Where the buffer must be flushed: its end, or just past the output limit when that comes first. */
+	private int outputEnd;
+	private long outputWritten;
+	private long outputLimit = Long.MAX_VALUE;
+	private byte[] inputBuffer;
+	private int inputPosition;
+	private int inputLength;
+	private boolean flushOnNewline;
+	private long inputRead;
+	private boolean fed;
+	private boolean inputClosed;
+	private long feeds;
+
+	public MipsConsole(InputStream in, OutputStream out) {
+		this(in, out, DEFAULT_BUFFER_SIZE);
+	}
+
+	public MipsConsole(InputStream in, OutputStream out, int bufferSize) {
+		this.in = in;
+		this.out = out;
+		outputBuffer = new byte[Math.max(bufferSize, 16)];
+		outputEnd = outputBuffer.length;
+		inputBuffer = new byte[Math.max(bufferSize, 16)];
+	}
+
+	public void setInput(InputStream in) {
+		this.in = in;
+		inputPosition = inputLength = 0;
+		inputRead = 0;
+		fed = inputClosed = false;
+	}
+
+	/* Replaces the input stream with bytes passed to feedInput, ending at closeInput. */
+	public void setFedInput() {
+		setInput(null);
+		fed = true;
+	}
+
+	public synchronized void feedInput(byte[] bytes, int offset, int length) {
+		if (!fed) throw new IllegalStateException("Console input is not fed");
+		if (inputBuffer.length - inputLength < length) {
+			int unread = inputLength - inputPosition;
+			byte[] buffer = inputBuffer;
+			if (buffer.length < unread + length) buffer = new byte[Math.max(buffer.length * 2, unread + length)];
+			System.arraycopy(inputBuffer, inputPosition, buffer, 0, unread);
+			inputBuffer = buffer;
+			inputPosition = 0;
+			inputLength = unread;
+		}
+		System.arraycopy(bytes, offset, inputBuffer, inputLength, length);
+		inputLength += length;
+		inputRead += length;
+		feeds++;
+		notifyAll();
+	}
+
+	public synchronized void closeInput() {
+		inputClosed = true;
+		feeds++;
+		notifyAll();
+	}
+
+	/* How many times input has been fed or closed, for waiting on the console until it changes. */
+	public synchronized long getFeeds() {
+		return feeds;
+	}
+
+	/*
+	 * Whether read_int (service 5) or read_string (service 8) would have to
+	 * wait for fed input: read_int needs a whole token and read_string a whole
+	 * line, unless the input has been closed. Stream input never reports this.
+	 */
+	public boolean wouldBlock(int service) {
+		if (!fed || inputClosed) return false;
+		int i = inputPosition;
+		if (service == 8) {
+			while (i < inputLength && inputBuffer[i] != '\n')
+				i++;
+			return i == inputLength;
+		}
+		while (i < inputLength && isSpace(inputBuffer[i]))
+			i++;
+		while (i < inputLength && !isSpace(inputBuffer[i]))
+			i++;
+		return i == inputLength;
+	}
+
+	public void setOutput(OutputStream out) {
+		flush();
+		this.out = out;
+	}
+
+	/*
+	 * Stops output after outputLimit more bytes: the output is cut off there
+	 * and the flush that would pass it throws a MipsLimitException. The
+	 * buffer is simply flushed early near the limit, so printing costs the
+	 * same with or without one.
+	 */
+	public void setOutputLimit(long outputLimit) {
+		this.outputLimit = outputLimit;
+		outputWritten = 0;
+		updateOutputEnd();
+	}
+
+	public long getOutputWritten() {
+		return outputWritten;
+	}
+
+	private void updateOutputEnd() {
+		long remaining = outputLimit - outputWritten;
+		outputEnd = remaining < outputBuffer.length ? (int) remaining + 1 : outputBuffer.length;
+	}
+
+	/* Writes the buffer through after every newline, for interactive use. */
+	public void setFlushOnNewline(boolean flushOnNewline) {
+		this.flushOnNewline = flushOnNewline;
+	}
+
+	public void printInt(int value) {
+		if (outputEnd - outputLength < 11) flush();
+		if (value < 0) {
+			outputBuffer[outputLength++] = '-';
+		} else {
+			value = -value;
+		}
+		/* Digits are produced from the negative value so that MIN_VALUE needs no special case. */
+		int start = outputLength;
+		do {
+			outputBuffer[outputLength++] = (byte) ('0' - value % 10);
+			value /= 10;
+		} while (value != 0);
+		for (int i = start, j = outputLength - 1; i < j; i++, j--) {
+			byte b = outputBuffer[i];
+			outputBuffer[i] = outputBuffer[j];
+			outputBuffer[j] = b;
+		}
+	}
+
+	public void printString(MipsMemory memory, int address) {
+		for (int c = memory.loadByte(address); c != 0; c = memory.loadByte(++address))
+			printByte(c);
+	}
+
+	/* Prints a character code, UTF-8 encoded when it is outside ASCII. */
+	public void printChar(int c) {
+		if (c >= 0 && c < 0x80) {
+			printByte(c);
+		} else if (c >= 0x80 && c < 0x800) {
+			printByte(0xc0 | c >> 6);
+			printByte(0x80 | c & 0x3f);
+		} else if (c >= 0x800 && c < 0x10000) {
+			printByte(0xe0 | c >> 12);
+			printByte(0x80 | c >> 6 & 0x3f);
+			printByte(0x80 | c & 0x3f);
+		} else if (c >= 0x10000 && c <= Character.MAX_CODE_POINT) {
+			printByte(0xf0 | c >> 18);
+			printByte(0x80 | c >> 12 & 0x3f);
+			printByte(0x80 | c >> 6 & 0x3f);
+			printByte(0x80 | c & 0x3f);
+		} else {
+			throw new MipsException("Invalid character: " + c);
+		}
+	}
+
+	private void printByte(int b) {
+		if (outputLength >= outputEnd) flush();
+		outputBuffer[outputLength++] = (byte) b;
+		if (b == '\n' && flushOnNewline) flush();
+	}
+
+	public void flush() {
+		if (outputLength == 0) return;
+		int pending = outputLength;
+		int length = (int) Math.min(pending, outputLimit - outputWritten);
+		try {
+			out.write(outputBuffer, 0, length);
+			out.flush();
+		} catch (IOException e) {
+			throw new MipsException("Couldn't write output: " + e.getMessage());
+		} finally {
+			outputWritten += length;
+			outputLength = 0;
+			updateOutputEnd();
+		}
+		if (length < pending) throw new MipsLimitException(MipsInterpreter.Termination.OUTPUT_LIMIT, "Output limit exceeded: " + outputLimit + " bytes");
+	}
+
+	/* Bytes of input the program has consumed so far. */
+	public long getInputPosition() {
+		return inputRead - (inputLength - inputPosition);
+	}
+
+	/* Discards count bytes of input, to resume a program whose earlier input was consumed elsewhere. */
+	public void skipInput(long count) {
+		for (long i = 0; i < count; i++)
+			if (readByte() < 0) return;
+	}
+
+	/* Skips whitespace and reads an optionally signed decimal integer. */
+	public int readInt() {
+		int c = readByte();
+		while (isSpace(c))
+			c = readByte();
+		if (c < 0) throw new MipsException("End of input");
+		boolean negative = c == '-';
+		if (c == '-' || c == '+') c = readByte();
+		if (c < '0' || c > '9') throw new MipsException("Invalid integer input");
+		long value = 0;
+		for (; c >= '0' && c <= '9'; c = readByte()) {
+			value = value * 10 + (c - '0');
+			if (value > 1L + Integer.MAX_VALUE) throw new MipsException("Integer input out of range");
+		}
+		if (c >= 0 && !isSpace(c))
+			throw new MipsException("Invalid integer input");
+		if (c >= 0) inputPosition--;
+		if (negative) value = -value;
+		if (value > Integer.MAX_VALUE) throw new MipsException("Integer input out of range");
+		return (int) value;
+	}
+
+	/*
+	 * Reads the rest of the current line into memory as a zero-terminated
+	 * string of at most maxLength - 1 bytes. The line terminator is consumed
+	 * but not stored, and characters that don't fit are discarded. Returns
+	 * the number of characters stored.
+	 */
+	public int readLine(MipsMemory memory, int address, int maxLength) {
+		int c = readByte();
+		if (c < 0) throw new MipsException("End of input");
+		int length = 0;
+		for (; c >= 0 && c != '\n'; c = readByte()) {
+			if (c == '\r') continue;
+			if (length < maxLength - 1) memory.storeByte(address + length++, c);
+		}
+		if (maxLength > 0) memory.storeByte(address + length, 0);
+		return length;
+	}
+
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private int readByte() {
+		if (inputPosition == inputLength) {
+			if (fed) return -1;
+			flush();
+			try {
+				inputLength = in.read(inputBuffer, 0, inputBuffer.length);
+			} catch (IOException e) {
+				throw new MipsException("Couldn't read input: " + e.getMessage());
+			}
+			inputPosition = 0;
+			if (inputLength <= 0) {
+				inputLength = 0;
+				return -1;
+			}
+			inputRead += inputLength;
+		}
+		return inputBuffer[inputPosition++] & 0xff;
+	}
+}
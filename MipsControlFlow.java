@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.Collection;
+
+/*
+ * Splits the decoded .text section into basic blocks. A line is a leader if
+ * it is the first line of .text, carries a label, is the target of a branch
+ * or jump, or follows an instruction that can transfer control.
+ */
+public class MipsControlFlow {
+
+	private DecodedInstruction[] text;
+	private boolean[] leaders;
+	private BasicBlock[] blockAtLine;
+	private ArrayList<BasicBlock> blocks;
+
+	public MipsControlFlow(DecodedInstruction[] text, int firstLineOfText, Collection<Integer> labelLines) {
+		this.text = text;
+		leaders = new boolean[text.length + 1];
+		blockAtLine = new BasicBlock[text.length];
+		blocks = new ArrayList<BasicBlock>();
+
+		if (firstLineOfText < text.length) leaders[firstLineOfText] = true;
+		for (Integer line : labelLines)
+			if (line >= firstLineOfText && line < text.length) leaders[line] = true;
+		for (int line = firstLineOfText; line < text.length; line++) {
+			DecodedInstruction d = text[line];
+			if (d.target >= 0) leaders[d.target] = true;
+			if (MipsOpcode.endsBlock(d.opcode)) leaders[line + 1] = true;
+		}
+
+		BasicBlock block = null;
+		for (int line = firstLineOfText; line < text.length; line++) {
+			if (leaders[line] || block == null) {
+				block = new BasicBlock(blocks.size(), line);
+				blocks.add(block);
+			}
+			block.end = line;
+			blockAtLine[line] = block;
+		}
+		for (BasicBlock b : blocks) {
+			DecodedInstruction last = text[b.end];
+			if (last.target >= 0) b.target = last.target;
+			if (MipsOpcode.fallsThrough(last.opcode) && b.end + 1 < text.length) b.fallthrough = b.end + 1;
+		}
+	}
+
+	public boolean isLeader(int line) {
+		return leaders[line];
+	}
+
+	public BasicBlock getBlock(int line) {
+		return blockAtLine[line];
+	}
+
+	public ArrayList<BasicBlock> getBlocks() {
+		return blocks;
+	}
+
+	public DecodedInstruction[] getText() {
+		return text;
+	}
+}
@@ -0,0 +1,177 @@
+import java.util.HashMap;
+
+/*
+ * Turns a line of the .text section into a DecodedInstruction once, at load
+ * time or, with lazy decoding, the first time the line runs, so the run loop
+ * never has to look at the source text again.
+ */
+public class MipsDecoder {
+
+	private HashMap<String, Integer> labels;
+	private HashMap<String, Integer> dataAddresses;
+
+	public MipsDecoder(HashMap<String, Integer> labels, HashMap<String, Integer> dataAddresses) {
+		this.labels = labels;
+		this.dataAddresses = dataAddresses;
+	}
+
+	public DecodedInstruction decode(String mipsString, int lineNumber) {
+		mipsString = mipsString.trim();
+		if (mipsString.length() == 0) return DecodedInstruction.NOP;
+		if (mipsString.startsWith("syscall") || mipsString.startsWith(".syscall"))
+			return new DecodedInstruction(MipsOpcode.SYSCALL, lineNumber);
+		if (mipsString.equals("sync") || mipsString.startsWith("sync ") || mipsString.startsWith("sync\t"))
+			return new DecodedInstruction(MipsOpcode.SYNC, lineNumber);
+
+		int firstSpace = mipsString.indexOf(' ');
+		int firstTab = mipsString.indexOf('\t');
+		if (firstSpace < 0 && firstTab < 0) return halt(lineNumber);
+
+		int firstWhitespace = firstSpace;
+		if (firstSpace < 0 || (firstTab >= 0 && firstTab < firstSpace)) firstWhitespace = firstTab;
+
+		String inst = mipsString.substring(0, firstWhitespace).trim().toLowerCase();
+		String restOfString = mipsString.substring(firstWhitespace + 1, mipsString.length()).trim();
+		String[] tokens = restOfString.split(",");
+		for (int i = 0; i < tokens.length; i++)
+			tokens[i] = tokens[i].trim();
+		if (tokens.length < 1 || tokens.length > 3) return halt(lineNumber);
+
+		MipsInstruction mipsInstruction = MipsInterpreter.MIPS_INSTRUCTIONS.get(inst);
+		int opcode = MipsOpcode.forName(inst);
+		if (mipsInstruction == null || opcode < 0) return halt(lineNumber);
+
+		DecodedInstruction d = new DecodedInstruction(opcode, lineNumber);
+		d.instruction = mipsInstruction;
+
+		try {
+			switch (mipsInstruction.getType()) {
+			case 'R':
+				return decodeR(d, tokens);
+			case 'I':
+				return decodeI(d, tokens);
+			case 'J':
+				if (tokens.length != 1) return halt(lineNumber);
+				d.target = labelTarget(tokens[0]);
+				return d.target < 0 ? halt(lineNumber) : d;
+			}
+		} catch (NumberFormatException e) {
+			// Fall through to halt, the same as an unknown instruction.
+		}
+		return halt(lineNumber);
+	}
+
+	private DecodedInstruction decodeR(DecodedInstruction d, String[] tokens) {
+		switch (tokens.length) {
+		case 1:
+			if (d.opcode == MipsOpcode.JR) {
+				d.rs = register(tokens[0]);
+			} else {
+				d.rd = register(tokens[0]);
+			}
+			return d;
+		case 2:
+			d.rs = register(tokens[0]);
+			if (MipsOpcode.isLoad(d.opcode) || MipsOpcode.isStore(d.opcode)) {
+				String offsetString = tokens[1];
+				int parensIndex = tokens[1].indexOf('(');
+				d.rt = 0;
+				if (parensIndex >= 0) {
+					if (!tokens[1].endsWith(")")) return halt(d.line);
+					offsetString = tokens[1].substring(0, parensIndex).trim();
+					d.rt = register(tokens[1].substring(parensIndex + 1, tokens[1].length() - 1).trim());
+				}
+				if (offsetString.length() != 0)
+					d.immediate = immediateOrAddress(offsetString);
+				return d;
+			}
+			d.rt = register(tokens[1]);
+			return d;
+		case 3:
+			d.rd = register(tokens[0]);
+			if (d.opcode == MipsOpcode.BEQ || d.opcode == MipsOpcode.BNE) {
+				d.target = labelTarget(tokens[2]);
+				if (d.target < 0) return halt(d.line);
+				if (MipsRegister.parse(tokens[1]) >= 0) {
+					d.rs = register(tokens[1]);
+				} else {
+					d.opcode = d.opcode == MipsOpcode.BEQ ? MipsOpcode.BEQ_IMM : MipsOpcode.BNE_IMM;
+					d.immediate = parseImmediate(tokens[1]);
+				}
+				return d;
+			}
+			d.rs = register(tokens[1]);
+			d.rt = register(tokens[2]);
+			return d;
+		}
+		return halt(d.line);
+	}
+
+	private DecodedInstruction decodeI(DecodedInstruction d, String[] tokens) {
+		if (tokens.length != 2 && tokens.length != 3) return halt(d.line);
+		d.rd = register(tokens[0]);
+		if (MipsOpcode.isBranchZero(d.opcode)) {
+			d.target = labelTarget(tokens[1]);
+			return d.target < 0 ? halt(d.line) : d;
+		}
+		int registerIndex = MipsRegister.parse(tokens[1]);
+		if (registerIndex >= 0 && tokens.length == 3) {
+			d.rs = registerIndex;
+			d.immediate = parseImmediate(tokens[2]);
+		} else if (registerIndex == 0 && tokens.length == 2) {
+			d.immediate = 0;
+		} else if (registerIndex < 0 && tokens.length == 2) {
+			d.immediate = immediateOrAddress(tokens[1]);
+		} else {
+			return halt(d.line);
+		}
+		return d;
+	}
+
+	private int register(String registerString) {
+		int registerIndex = MipsRegister.parse(registerString);
+		if (registerIndex < 0) throw new NumberFormatException("Not a register: " + registerString);
+		return registerIndex;
+	}
+
+	private int labelTarget(String labelName) {
+		Integer target = labels.get(labelName);
+		return target == null ? -1 : target;
+	}
+
+	private int immediateOrAddress(String operand) {
+		char first = operand.isEmpty() ? '0' : operand.charAt(0);
+		if (!Character.isDigit(first) && first != '-' && first != '+' && first != '\'') {
+			Integer address = labelAddress(operand);
+			if (address != null) return address;
+		}
+		try {
+			return parseImmediate(operand);
+		} catch (NumberFormatException e) {
+			Integer address = labelAddress(operand);
+			if (address == null) throw e;
+			return address;
+		}
+	}
+
+	public Integer labelAddress(String labelName) {
+		Integer address = dataAddresses.get(labelName);
+		if (address != null) return address;
+		Integer line = labels.get(labelName);
+		return line == null ? null : MipsInterpreter.TEXT_BASE + 4 * line;
+	}
+
+	private DecodedInstruction halt(int lineNumber) {
+		return new DecodedInstruction(MipsOpcode.HALT, lineNumber);
+	}
+
+	public static int parseImmediate(String immediateString) {
+		if (immediateString.startsWith("0x") || immediateString.startsWith("0X"))
+			return (int) Long.parseLong(immediateString.substring(2), 16);
+		if (immediateString.startsWith("-0x") || immediateString.startsWith("-0X"))
+			return -(int) Long.parseLong(immediateString.substring(3), 16);
+		if (immediateString.length() == 3 && immediateString.charAt(0) == '\'' && immediateString.charAt(2) == '\'')
+			return immediateString.charAt(1);
+		return Integer.parseInt(immediateString);
+	}
+}
@@ -0,0 +1,91 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/*
+ * Java Flight Recorder events for interpreter runs, under the "MIPS"
+ * category. Load and Syscall are emitted by every interpreter; Sample is
+ * emitted periodically (every second by default) for each interpreter
+ * registered with MipsMonitor. While no recording enables them, creating and
+ * committing an event costs next to nothing, so they are always left in.
+ */
+public final class MipsEvents {
+
+	private MipsEvents() {}
+
+	@Name("mips.Load")
+	@Label("MIPS Program Load")
+	@Category("MIPS")
+	@Description("Loading a program into an interpreter")
+	@StackTrace(false)
+	static class Load extends Event {
+		@Label("Path")
+		String path;
+
+		@Label("Loaded")
+		boolean loaded;
+
+		@Label("Machine Code")
+		boolean binary;
+
+		@Label("From Cache")
+		boolean cacheHit;
+
+		@Label("Lazy")
+		boolean lazy;
+
+		@Label("Text Lines")
+		int lines;
+
+		@Label("Data Size")
+		@DataAmount
+		int dataSize;
+	}
+
+	@Name("mips.Syscall")
+	@Label("MIPS Syscall")
+	@Category("MIPS")
+	@Description("A syscall instruction, from the service number in $v0 to its return")
+	@StackTrace(false)
+	static class Syscall extends Event {
+		@Label("Service")
+		int service;
+
+		@Label("Blocked")
+		@Description("A read on fed input that found no complete token or line and will be retried")
+		boolean blocked;
+	}
+
+	@Name("mips.Sample")
+	@Label("MIPS Interpreter Sample")
+	@Category("MIPS")
+	@Description("Counters of an interpreter registered with MipsMonitor")
+	@Period("1 s")
+	@StackTrace(false)
+	static class Sample extends Event {
+		@Label("Name")
+		String name;
+
+		@Label("Status")
+		String status;
+
+		@Label("Instructions Executed")
+		long instructions;
+
+		@Label("Syscalls")
+		long syscalls;
+
+		@Label("Data Segment Size")
+		@DataAmount
+		int dataSize;
+
+		@Label("Stack Size")
+		@DataAmount
+		int stackSize;
+	}
+}
@@ -0,0 +1,7 @@
+class MipsException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	MipsException(String message) {
+		super(message);
+	}
+}
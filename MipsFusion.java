@@ -0,0 +1,92 @@
+/*
+ * Rewrites common two-instruction sequences inside a basic block into a
+ * single superinstruction placed on the first line. The second line keeps
+ * its original instruction, so the fused copy is only a shortcut: control
+ * reaching either line still behaves exactly like the unfused program.
+ */
+public class MipsFusion {
+
+	private int fusedCount;
+
+	public DecodedInstruction[] fuse(MipsControlFlow controlFlow) {
+		DecodedInstruction[] text = controlFlow.getText();
+		DecodedInstruction[] fused = text.clone();
+		for (BasicBlock block : controlFlow.getBlocks()) {
+			for (int line = block.start; line <= block.end; line++) {
+				DecodedInstruction first = text[line];
+				int nextLine = nextInstruction(text, line + 1, block.end);
+				if (first.opcode == MipsOpcode.NOP || nextLine < 0) continue;
+				DecodedInstruction superinstruction = fuse(first, text[nextLine]);
+				if (superinstruction == null) continue;
+				superinstruction.next = text[nextLine];
+				superinstruction.fallthrough = nextLine + 1;
+				fused[line] = superinstruction;
+				fusedCount++;
+				line = nextLine;
+			}
+		}
+		return fused;
+	}
+
+	public int getFusedCount() {
+		return fusedCount;
+	}
+
+	private static int nextInstruction(DecodedInstruction[] text, int line, int end) {
+		for (; line <= end; line++)
+			if (text[line].opcode != MipsOpcode.NOP) return line;
+		return -1;
+	}
+
+	private static DecodedInstruction fuse(DecodedInstruction first, DecodedInstruction second) {
+		switch (first.opcode) {
+		case MipsOpcode.SLT:
+			if (first.rd == 0 || !comparesWithZero(second, first.rd)) return null;
+			if (second.opcode == MipsOpcode.BNE) return copy(MipsOpcode.SLT_BNEZ, first, second.target);
+			if (second.opcode == MipsOpcode.BEQ) return copy(MipsOpcode.SLT_BEQZ, first, second.target);
+			return null;
+		case MipsOpcode.ADDI:
+		case MipsOpcode.ADDIU:
+			if (first.rd == 0 || second.opcode != MipsOpcode.BNE) return null;
+			if (second.rd == first.rd) return copy(MipsOpcode.ADDI_BNE, first, second.target, second.rs);
+			if (second.rs == first.rd) return copy(MipsOpcode.ADDI_BNE, first, second.target, second.rd);
+			return null;
+		case MipsOpcode.LUI:
+			if (first.rd == 0 || second.opcode != MipsOpcode.ORI || second.rd != first.rd || second.rs != first.rd) return null;
+			DecodedInstruction d = copy(MipsOpcode.LUI_ORI, first, -1);
+			d.immediate = (first.immediate << 16) | second.immediate;
+			return d;
+		case MipsOpcode.LW:
+			if (first.rs == 0 || !isAdd(second) || (second.rs != first.rs && second.rt != first.rs)) return null;
+			return copy(MipsOpcode.LW_ADD, first, -1);
+		case MipsOpcode.SLL:
+			if (first.rd == 0 || !isAdd(second) || (second.rs != first.rd && second.rt != first.rd)) return null;
+			return copy(MipsOpcode.SLL_ADD, first, -1);
+		}
+		return null;
+	}
+
+	private static boolean comparesWithZero(DecodedInstruction branch, int register) {
+		if (branch.opcode != MipsOpcode.BEQ && branch.opcode != MipsOpcode.BNE) return false;
+		return (branch.rd == register && branch.rs == 0) || (branch.rs == register && branch.rd == 0);
+	}
+
+	private static boolean isAdd(DecodedInstruction d) {
+		return d.opcode == MipsOpcode.ADD || d.opcode == MipsOpcode.ADDU;
+	}
+
+	private static DecodedInstruction copy(int opcode, DecodedInstruction first, int target) {
+		return copy(opcode, first, target, first.rt);
+	}
+
+	private static DecodedInstruction copy(int opcode, DecodedInstruction first, int target, int rt) {
+		DecodedInstruction d = new DecodedInstruction(opcode, first.line);
+		d.rd = first.rd;
+		d.rs = first.rs;
+		d.rt = rt;
+		d.immediate = first.immediate;
+		d.target = target;
+		d.instruction = first.instruction;
+		return d;
+	}
+}
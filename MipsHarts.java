@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * The hardware threads of a program that has used the spawn syscall. Hart 0
+ * is the interpreter the program started on; every spawned hart is another
+ * interpreter with its own registers, pc, stack and JIT, running on its own
+ * Java thread over the same data segment, console and syscall log. Console
+ * syscalls and sbrk hold this object's lock, so output from different harts
+ * never interleaves within a syscall. A spawned hart blocked on fed input
+ * waits on the console until more is fed or the harts stop, and a join on
+ * it meanwhile blocks too, so the host gets to feed the input.
+ *
+ * A spawned hart ends when it returns through its initial $ra, leaving its
+ * result in $v0 for join. exit, a halt or a runtime error in any hart stops
+ * them all, as does the end of hart 0, which then waits for the rest, so a
+ * run that returns leaves no hart behind. Harts notice a stop between slices
+ * of DEADLINE_CHECK_INTERVAL instructions or when a spawn or join returns.
+ */
+class MipsHarts {
+
+	private final MipsInterpreter main;
+	private final MipsConsole console;
+	private final ArrayList<MipsInterpreter> harts = new ArrayList<MipsInterpreter>();
+	private final ArrayList<Thread> threads = new ArrayList<Thread>();
+	/* Guarded by the console: harts waiting for input, with the feed count they saw, and harts whose threads have ended. */
+	private final HashMap<MipsInterpreter, Long> waiting = new HashMap<MipsInterpreter, Long>();
+	private final HashSet<MipsInterpreter> ended = new HashSet<MipsInterpreter>();
+	private volatile boolean stopping;
+	private String error;
+
+	MipsHarts(MipsInterpreter main) {
+		this.main = main;
+		console = main.getConsole();
+		harts.add(main);
+		threads.add(null);
+	}
+
+	/* Starts hart on a thread of its own and returns its id, or -1 once the program is stopping. */
+	int spawn(MipsInterpreter hart) {
+		Thread thread;
+		int id;
+		synchronized (this) {
+			if (stopping) return -1;
+			id = harts.size();
+			thread = new Thread(() -> run(hart), "hart-" + id);
+			thread.setDaemon(true);
+			harts.add(hart);
+			threads.add(thread);
+		}
+		thread.start();
+		return id;
+	}
+
+	/* A runtime error the interpreter didn't catch ends this hart's thread quietly after stopping the rest. */
+	private void run(MipsInterpreter hart) {
+		try {
+			long feeds = console.getFeeds();
+			while (hart.runFor(Long.MAX_VALUE)) {
+				synchronized (console) {
+					waiting.put(hart, feeds);
+					console.notifyAll();
+					while (!stopping && console.getFeeds() == feeds)
+						console.wait();
+					waiting.remove(hart);
+					feeds = console.getFeeds();
+				}
+			}
+		} catch (InterruptedException e) {
+			stop("Hart interrupted");
+		} catch (RuntimeException e) {
+			stop(String.valueOf(e));
+		} finally {
+			synchronized (console) {
+				ended.add(hart);
+				console.notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * Waits for hart id to end and returns true, or returns false as soon as
+	 * it's waiting for input that hasn't been fed yet, which blocks the join.
+	 */
+	boolean awaitEnd(int id) {
+		MipsInterpreter hart;
+		Thread thread;
+		synchronized (this) {
+			if (id <= 0 || id >= harts.size()) throw new MipsException("No such hart: " + id);
+			hart = harts.get(id);
+			thread = threads.get(id);
+		}
+		if (thread == Thread.currentThread()) throw new MipsException("Hart " + id + " can't join itself");
+		synchronized (console) {
+			try {
+				while (!ended.contains(hart)) {
+					Long feeds = waiting.get(hart);
+					if (feeds != null && feeds == console.getFeeds()) return false;
+					console.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MipsException("Interrupted while joining hart " + id);
+			}
+		}
+		return true;
+	}
+
+	/* The $v0 of hart id, once awaitEnd has returned true for it. */
+	synchronized int getResult(int id) {
+		return harts.get(id).getRegister(2);
+	}
+
+	/* Instructions executed by the spawned harts so far, counted for hart 0 only. */
+	long getSpawnedInstructions(MipsInterpreter hart) {
+		if (hart != main) return 0;
+		ArrayList<MipsInterpreter> spawned;
+		synchronized (this) {
+			spawned = new ArrayList<MipsInterpreter>(harts.subList(1, harts.size()));
+		}
+		long total = 0;
+		for (MipsInterpreter spawnedHart : spawned)
+			total += spawnedHart.getInstructionsExecuted();
+		return total;
+	}
+
+	boolean isStopping() {
+		return stopping;
+	}
+
+	/* The runtime error that stopped the harts, or null. */
+	synchronized String getError() {
+		return error;
+	}
+
+	/* Called by each hart once it can't run on; stopAll for an exit, halt or runtime error. */
+	void finished(MipsInterpreter hart, boolean stopAll) {
+		if (stopAll || hart == main) stop(hart.getError());
+		if (hart == main) stopAll();
+	}
+
+	/* Stops every hart and waits until all spawned ones have ended. */
+	void stopAll() {
+		stop(null);
+		ArrayList<Thread> running;
+		synchronized (this) {
+			running = new ArrayList<Thread>(threads);
+		}
+		boolean interrupted = false;
+		for (Thread thread : running) {
+			while (thread != null && thread != Thread.currentThread() && thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	private synchronized void stop(String error) {
+		if (stopping) return;
+		this.error = error;
+		stopping = true;
+		synchronized (console) {
+			console.notifyAll();
+		}
+	}
+}
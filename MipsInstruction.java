@@ -0,0 +1,4 @@
+abstract class MipsInstruction {
+	public abstract char getType();
+	public abstract void call(int[] registers, int rd, int rs, int rt, int immediate);
+}
@@ -1,10 +1,28 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Scanner;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class MipsInterpreter {
 
@@ -17,705 +35,1872 @@ public class MipsInterpreter {
 	public static final int REGISTER_HI = 32;
 	public static final int REGISTER_LO = 33;
 
+	public static final int TEXT_BASE = 0x00400000;
+
 	/* Begin huge list of MIPS instructions... */
 	static {
 		MIPS_INSTRUCTIONS.put("noop", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("move", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				if (rt.label.length() > 0)
-					rs.label = rt.label;
-				else
-					rs.setValue(rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rs] = registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("add", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() + rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] + registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("addu", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() + rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] + registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("sub", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() - rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] - registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("subu", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() - rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] - registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("slt", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() < rt.getValue() ? 1 : 0);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] < registers[rt] ? 1 : 0;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("sltu", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() < rt.getValue() ? 1 : 0);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = Integer.compareUnsigned(registers[rs], registers[rt]) < 0 ? 1 : 0;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("and", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() & rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] & registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("or", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() | rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] | registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("xor", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() ^ rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] ^ registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("sll", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() << immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] << immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("sllv", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() << rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] << registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("srl", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() >>> immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] >>> immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("sra", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() >> immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] >> immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("srlv", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() >>> rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] >>> registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("mfhi", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(hi.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[REGISTER_HI];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("mflo", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(lo.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[REGISTER_LO];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("mult", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				hi.setValue(0);
-				lo.setValue(rs.getValue() * rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				long product = (long) registers[rs] * registers[rt];
+				registers[REGISTER_HI] = (int) (product >>> 32);
+				registers[REGISTER_LO] = (int) product;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("multu", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				hi.setValue(0);
-				lo.setValue(rs.getValue() * rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				long product = (registers[rs] & 0xffffffffL) * (registers[rt] & 0xffffffffL);
+				registers[REGISTER_HI] = (int) (product >>> 32);
+				registers[REGISTER_LO] = (int) product;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("div", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				hi.setValue(rs.getValue() / rt.getValue());
-				lo.setValue(rs.getValue() % rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[REGISTER_HI] = registers[rs] % registers[rt];
+				registers[REGISTER_LO] = registers[rs] / registers[rt];
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("divu", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				hi.setValue(rs.getValue() / rt.getValue());
-				lo.setValue(rs.getValue() % rt.getValue());
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[REGISTER_HI] = Integer.remainderUnsigned(registers[rs], registers[rt]);
+				registers[REGISTER_LO] = Integer.divideUnsigned(registers[rs], registers[rt]);
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("addi", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() + immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] + immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("addiu", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() + immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] + immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("slti", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() < immediate ? 1 : 0);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] < immediate ? 1 : 0;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("sltiu", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() < immediate ? 1 : 0);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = Integer.compareUnsigned(registers[rs], immediate) < 0 ? 1 : 0;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("andi", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() & immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] & immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("ori", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() | immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] | immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("xori", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(rs.getValue() ^ immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = registers[rs] ^ immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("li", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(immediate);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("la", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.label = label;
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = immediate;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("lui", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
-				rd.setValue(immediate << 16);
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				registers[rd] = immediate << 16;
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("j", new MipsInstruction() {
 			public char getType() {return 'J';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("beq", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("bne", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("beqz", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("bgez", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("bgtz", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("blez", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("bltz", new MipsInstruction() {
 			public char getType() {return 'I';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("lw", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("lb", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				// Do nothing.
+			}
+		});
+
+		MIPS_INSTRUCTIONS.put("lh", new MipsInstruction() {
+			public char getType() {return 'R';}
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				// Do nothing.
+			}
+		});
+
+		MIPS_INSTRUCTIONS.put("lhu", new MipsInstruction() {
+			public char getType() {return 'R';}
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				// Do nothing.
+			}
+		});
+
+		MIPS_INSTRUCTIONS.put("lbu", new MipsInstruction() {
+			public char getType() {return 'R';}
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("sw", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("sb", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				// Do nothing.
+			}
+		});
+
+		MIPS_INSTRUCTIONS.put("sh", new MipsInstruction() {
+			public char getType() {return 'R';}
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				// Do nothing.
+			}
+		});
+
+		MIPS_INSTRUCTIONS.put("ll", new MipsInstruction() {
+			public char getType() {return 'R';}
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				// Do nothing.
+			}
+		});
+
+		MIPS_INSTRUCTIONS.put("sc", new MipsInstruction() {
+			public char getType() {return 'R';}
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
+				// Do nothing.
+			}
+		});
+
+		MIPS_INSTRUCTIONS.put("sync", new MipsInstruction() {
+			public char getType() {return 'R';}
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("jal", new MipsInstruction() {
 			public char getType() {return 'J';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 
 		MIPS_INSTRUCTIONS.put("jr", new MipsInstruction() {
 			public char getType() {return 'R';}
-			public void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label) {
+			public void call(int[] registers, int rd, int rs, int rt, int immediate) {
 				// Do nothing.
 			}
 		});
 	}
 	/* End huge list of MIPS instructions... */
 
+	public enum Engine {
+		LEGACY, SWITCH, FUSED, JIT
+	}
+
+	/* Why step returned: its quota ran out, a read syscall is waiting for fed input, or the program stopped. */
+	public enum Status {
+		RUNNING, BLOCKED, TERMINATED
+	}
+
+	/* Why a program stopped: it halted or ran off the end of .text, raised a runtime error, or went over a limit. */
+	public enum Termination {
+		EXITED, ERROR, INSTRUCTION_LIMIT, TIME_LIMIT, DATA_LIMIT, OUTPUT_LIMIT
+	}
+
 	public static void main(String[] args) {
-		new MipsInterpreter().readFile(args[0]);
+		MipsInterpreter interpreter = new MipsInterpreter();
+		String fileName = null;
+		boolean loadStatistics = false;
+		String profileFileName = null;
+		String timingFileName = null;
+		String instructionCacheSpec = MipsTimingModel.DEFAULT_CACHE;
+		String dataCacheSpec = MipsTimingModel.DEFAULT_CACHE;
+		int missPenalty = MipsTimingModel.DEFAULT_MISS_PENALTY;
+		String traceFileName = null;
+		int traceCapacity = MipsTracer.DEFAULT_CAPACITY;
+		boolean traceLast = false;
+		String recordFileName = null;
+		String monitorName = null;
+		long instructionLimit = 0;
+		long timeLimit = 0;
+		int dataLimit = 0;
+		long outputLimit = 0;
+		String replayFileName = null;
+		ByteOrder binaryByteOrder = null;
+		String binaryDataFileName = null;
+		String checkpointFileName = null;
+		long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+		String restoreFileName = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("--engine=")) {
+				interpreter.setEngine(Engine.valueOf(args[i].substring("--engine=".length()).toUpperCase()));
+			} else if (args[i].startsWith("--jit-threshold=")) {
+				interpreter.setJitThreshold(Integer.parseInt(args[i].substring("--jit-threshold=".length())));
+			} else if (args[i].startsWith("--cache-dir=")) {
+				interpreter.setProgramCache(new MipsProgramCache(Paths.get(args[i].substring("--cache-dir=".length()))));
+			} else if (args[i].equals("--profile") || args[i].startsWith("--profile=")) {
+				interpreter.setProfiling(true);
+				profileFileName = args[i].startsWith("--profile=") ? args[i].substring("--profile=".length()) : "";
+			} else if (args[i].equals("--timing") || args[i].startsWith("--timing=")) {
+				timingFileName = args[i].startsWith("--timing=") ? args[i].substring("--timing=".length()) : "";
+			} else if (args[i].startsWith("--icache=")) {
+				instructionCacheSpec = args[i].substring("--icache=".length());
+			} else if (args[i].startsWith("--dcache=")) {
+				dataCacheSpec = args[i].substring("--dcache=".length());
+			} else if (args[i].startsWith("--miss-penalty=")) {
+				missPenalty = Integer.parseInt(args[i].substring("--miss-penalty=".length()));
+			} else if (args[i].startsWith("--trace=")) {
+				traceFileName = args[i].substring("--trace=".length());
+			} else if (args[i].startsWith("--trace-buffer=")) {
+				traceCapacity = Integer.parseInt(args[i].substring("--trace-buffer=".length()));
+			} else if (args[i].equals("--trace-last")) {
+				traceLast = true;
+			} else if (args[i].startsWith("--max-instructions=")) {
+				instructionLimit = Long.parseLong(args[i].substring("--max-instructions=".length()));
+			} else if (args[i].startsWith("--timeout=")) {
+				timeLimit = Long.parseLong(args[i].substring("--timeout=".length()));
+			} else if (args[i].startsWith("--max-data=")) {
+				dataLimit = Integer.parseInt(args[i].substring("--max-data=".length()));
+			} else if (args[i].startsWith("--max-output=")) {
+				outputLimit = Long.parseLong(args[i].substring("--max-output=".length()));
+			} else if (args[i].equals("--jmx") || args[i].startsWith("--jmx=")) {
+				monitorName = args[i].startsWith("--jmx=") ? args[i].substring("--jmx=".length()) : "";
+			} else if (args[i].startsWith("--record=")) {
+				recordFileName = args[i].substring("--record=".length());
+			} else if (args[i].startsWith("--replay=")) {
+				replayFileName = args[i].substring("--replay=".length());
+			} else if (args[i].equals("--binary") || args[i].startsWith("--binary=")) {
+				binaryByteOrder = args[i].equals("--binary=big") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+			} else if (args[i].startsWith("--data=")) {
+				binaryDataFileName = args[i].substring("--data=".length());
+			} else if (args[i].equals("--optimize")) {
+				interpreter.setOptimizing(true);
+			} else if (args[i].equals("--lazy")) {
+				interpreter.setLazyDecoding(true);
+			} else if (args[i].equals("--load-stats")) {
+				loadStatistics = true;
+			} else if (args[i].startsWith("--checkpoint=")) {
+				checkpointFileName = args[i].substring("--checkpoint=".length());
+			} else if (args[i].startsWith("--checkpoint-every=")) {
+				checkpointInterval = Long.parseLong(args[i].substring("--checkpoint-every=".length()));
+			} else if (args[i].startsWith("--restore=")) {
+				restoreFileName = args[i].substring("--restore=".length());
+			} else {
+				fileName = args[i];
+			}
+		}
+		if (fileName == null && restoreFileName == null) {
+			System.err.println("Usage: java MipsInterpreter [--engine=legacy|switch|fused|jit] [--jit-threshold=N] [--cache-dir=DIR] [--optimize] [--lazy] [--load-stats] [--jmx[=NAME]] [--max-instructions=N] [--timeout=MS] [--max-data=BYTES] [--max-output=BYTES] [--profile[=FILE]] [--timing[=FILE] [--icache=SIZE:WAYS:LINE|none] [--dcache=SIZE:WAYS:LINE|none] [--miss-penalty=N]] [--trace=FILE [--trace-buffer=N] [--trace-last]] [--record=FILE|--replay=FILE] [--binary[=little|big] [--data=FILE]] [--checkpoint=FILE [--checkpoint-every=N]] file | --restore=FILE");
+			return;
+		}
+		if (System.console() != null) interpreter.getConsole().setFlushOnNewline(true);
+		if (binaryByteOrder != null) interpreter.setBinary(binaryByteOrder, binaryDataFileName);
+		MipsSyscallLog syscallLog = null;
+		if (replayFileName != null) {
+			try {
+				syscallLog = MipsSyscallLog.replaying(Paths.get(replayFileName));
+			} catch (IOException e) {
+				System.err.println("Couldn't read " + replayFileName + ": " + e.getMessage());
+				return;
+			}
+		} else if (recordFileName != null) {
+			syscallLog = MipsSyscallLog.recording();
+		}
+		interpreter.setSyscallLog(syscallLog);
+		if (restoreFileName != null) {
+			try {
+				interpreter.restoreCheckpoint(Paths.get(restoreFileName));
+			} catch (IOException e) {
+				System.err.println("Couldn't restore " + restoreFileName + ": " + e.getMessage());
+				return;
+			}
+		} else if (!interpreter.load(fileName)) {
+			return;
+		}
+		if (checkpointFileName != null) interpreter.setCheckpointing(Paths.get(checkpointFileName), checkpointInterval);
+		if (loadStatistics && interpreter.getLoader() != null) {
+			MipsLoader loader = interpreter.getLoader();
+			System.err.printf("Loaded %d bytes, %d lines in %.3f ms%s, process peak heap about %.1f MB%n", loader.getSourceBytes(),
+					loader.getLineCount(), loader.getLoadNanos() / 1e6, loader.isCacheHit() ? " from cache" : "",
+					peakHeapBytes() / 1048576.0);
+		}
+		if (loadStatistics && interpreter.getOptimizer() != null) interpreter.getOptimizer().report(System.err);
+		MipsTimingModel timing = null;
+		if (timingFileName != null) {
+			timing = new MipsTimingModel(MipsCache.parse(instructionCacheSpec), MipsCache.parse(dataCacheSpec));
+			timing.setMissPenalty(missPenalty);
+			interpreter.addObserver(timing);
+		}
+		MipsTracer tracer = null;
+		if (traceFileName != null) {
+			try {
+				tracer = new MipsTracer(interpreter, Paths.get(traceFileName), traceCapacity, traceLast);
+			} catch (IOException e) {
+				System.err.println("Couldn't write trace: " + e.getMessage());
+				return;
+			}
+			interpreter.addObserver(tracer);
+		}
+		if (instructionLimit > 0) interpreter.setInstructionLimit(instructionLimit);
+		if (timeLimit > 0) interpreter.setTimeLimit(timeLimit * 1000000);
+		if (dataLimit > 0) interpreter.setDataLimit(dataLimit);
+		if (outputLimit > 0) interpreter.setOutputLimit(outputLimit);
+		MipsMonitor monitor = null;
+		if (monitorName != null) {
+			if (monitorName.isEmpty()) monitorName = fileName != null ? Paths.get(fileName).getFileName().toString() : restoreFileName;
+			monitor = MipsMonitor.register(interpreter, monitorName);
+		}
+		interpreter.run();
+		if (monitor != null) monitor.close();
+		if (recordFileName != null && replayFileName == null) {
+			try {
+				syscallLog.save(Paths.get(recordFileName));
+			} catch (IOException e) {
+				System.err.println("Couldn't write " + recordFileName + ": " + e.getMessage());
+			}
+		}
+		if (tracer != null) {
+			try {
+				tracer.close();
+			} catch (IOException e) {
+				System.err.println("Couldn't write trace: " + e.getMessage());
+			}
+		}
+		if (profileFileName != null) {
+			List<String> sourceLines = null;
+			try {
+				if (interpreter.getLoader() != null) sourceLines = Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				/* The report falls back to decoded instructions. */
+			}
+			MipsProfiler profiler = interpreter.getProfiler();
+			final List<String> lines = sourceLines;
+			writeReport(profileFileName, "profile", out -> profiler.report(out, lines, 20));
+		}
+		if (timing != null) writeReport(timingFileName, "timing report", timing::report);
+	}
+
+	/*
+	 * The JVM's heap peak so far, summed over its pools. Just after a load
+	 * from the command line that is mostly the loader's, but the pools peak
+	 * at different times, so the figure is approximate.
+	 */
+	private static long peakHeapBytes() {
+		long bytes = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP) bytes += pool.getPeakUsage().getUsed();
+		return bytes;
+	}
+
+	/* Writes a report to stderr when fileName is empty, or else to that file. */
+	private static void writeReport(String fileName, String name, Consumer<PrintStream> report) {
+		if (fileName.isEmpty()) {
+			report.accept(System.err);
+			return;
+		}
+		try {
+			PrintStream out = new PrintStream(fileName, StandardCharsets.UTF_8);
+			report.accept(out);
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't write " + name + ": " + e.getMessage());
+		}
 	}
 
-	private MipsRegister[] registers;
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 100000000;
+	/* How often run() leaves the engine loop, so instructionsExecuted stays current for MipsMonitor. */
+	private static final long RUN_SLICE = 1 << 24;
+	/* Instructions between checks of the clock while a time limit is set. */
+	private static final long DEADLINE_CHECK_INTERVAL = 1 << 20;
+
+	private static final int CHECKPOINT_MAGIC = 0x4d49504b;
+	private static final int CHECKPOINT_VERSION = 3;
+
+	private Engine engine = Engine.SWITCH;
+	private int jitThreshold = MipsJit.DEFAULT_THRESHOLD;
+	private int[] registers;
 	private HashMap<String, Integer> labels;
-	private HashMap<String, ArrayList<Integer>> spaceLabels;
-	private HashMap<String, String> asciizLabels;
-	private Scanner scanner;
+	private HashMap<String, Integer> dataAddresses;
+	private MipsMemory memory;
+	private MipsProgram program;
+	private DecodedInstruction[] text;
+	/* Where control flow analysis starts, and where execution does; they differ for an ELF entry point. */
+	private int firstLineOfText;
+	private int entryLine;
+	private MipsControlFlow controlFlow;
+	private DecodedInstruction[] fusedText;
+	private MipsJit jit;
+	private MipsLoader loader;
+	private MipsProgramCache programCache;
+	private boolean profiling;
+	private ByteOrder binaryByteOrder;
+	private String binaryDataFileName;
+	private Path checkpointFile;
+	private long checkpointInterval;
+	private MipsProfiler profiler;
+	private MipsObserver[] observers = new MipsObserver[0];
+	private boolean optimizing;
+	private boolean lazyDecoding;
+	/* The loader still holding source for lines left as UNDECODED, or null once all are decoded. */
+	private MipsLoader lazyLoader;
+	private MipsOptimizer optimizer;
+	private MipsConsole console = new MipsConsole(System.in, System.out);
+	private MipsSyscallLog syscallLog;
+	private PrintStream err = System.err;
 	private int pc;
 	private boolean terminated;
+	private boolean blocked;
+	private long instructionsExecuted;
+	private long instructionLimit = Long.MAX_VALUE;
+	private long timeLimitNanos;
+	private long deadline;
+	private boolean deadlineStarted;
+	private int dataLimit = Integer.MAX_VALUE;
+	private long outputLimit = Long.MAX_VALUE;
+	private Termination limitExceeded;
+	/* Completed syscalls by service, with unknown services at 0. */
+	private long[] syscallCounts = new long[62];
+	private String error;
+	/* The program's harts once it has spawned one, shared by all of them; null before. */
+	private MipsHarts harts;
+	/* The reservation taken by ll for the next sc. */
+	private boolean linked;
+	private int linkedAddress;
+	private int linkedValue;
 
 	public MipsInterpreter() {
-		registers = new MipsRegister[34];
-		for (int i = 0; i < 34; i++)
-			registers[i] = new MipsRegister(this);
+		registers = new int[34];
+		registers[REGISTER_GP] = MipsMemory.GLOBAL_POINTER;
+		registers[REGISTER_SP] = MipsMemory.STACK_POINTER;
 
 		labels = new HashMap<String, Integer>();
-		spaceLabels = new HashMap<String, ArrayList<Integer>>();
-		asciizLabels = new HashMap<String, String>();
+		dataAddresses = new HashMap<String, Integer>();
+		memory = new MipsMemory();
+	}
 
-		scanner = new Scanner(System.in);
+	/* The child of fork: shares parent's program and pages, copies everything else that a run changes. */
+	private MipsInterpreter(MipsInterpreter parent) {
+		engine = parent.engine;
+		jitThreshold = parent.jitThreshold;
+		registers = parent.registers.clone();
+		labels = parent.labels;
+		dataAddresses = parent.dataAddresses;
+		memory = parent.memory.fork();
+		program = parent.program;
+		text = parent.text;
+		firstLineOfText = parent.firstLineOfText;
+		entryLine = parent.entryLine;
+		controlFlow = parent.controlFlow;
+		fusedText = parent.fusedText;
+		profiling = parent.profiling;
+		err = parent.err;
+		pc = parent.pc;
+		terminated = parent.terminated;
+		instructionsExecuted = parent.instructionsExecuted;
+		instructionLimit = parent.instructionLimit;
+		timeLimitNanos = parent.timeLimitNanos;
+		dataLimit = parent.dataLimit;
+		outputLimit = parent.outputLimit;
+		limitExceeded = parent.limitExceeded;
+		syscallCounts = parent.syscallCounts.clone();
+		error = parent.error;
+		console.setOutputLimit(outputLimit);
+	}
+
+	/*
+	 * A hart spawned by spawner, starting at entry with argument in $a0. It
+	 * shares the program, data segment, console and syscall log, has a stack
+	 * below those of earlier harts, and ends by returning through its
+	 * initial $ra, which points just past .text.
+	 */
+	private MipsInterpreter(MipsInterpreter spawner, int entry, int argument) {
+		int line = (entry - TEXT_BASE) / 4;
+		if ((entry & 3) != 0 || entry < TEXT_BASE || line >= spawner.text.length)
+			throw new MipsException(String.format("Invalid hart entry: 0x%08x", entry));
+		engine = spawner.engine;
+		jitThreshold = spawner.jitThreshold;
+		registers = new int[34];
+		registers[REGISTER_GP] = MipsMemory.GLOBAL_POINTER;
+		registers[REGISTER_RA] = TEXT_BASE + 4 * spawner.text.length;
+		registers[4] = argument;
+		labels = spawner.labels;
+		dataAddresses = spawner.dataAddresses;
+		memory = spawner.memory.hart();
+		registers[REGISTER_SP] = memory.getInitialStackPointer();
+		program = spawner.program;
+		text = spawner.text;
+		firstLineOfText = spawner.firstLineOfText;
+		entryLine = spawner.entryLine;
+		controlFlow = spawner.controlFlow;
+		fusedText = spawner.fusedText;
+		console = spawner.console;
+		syscallLog = spawner.syscallLog;
+		err = spawner.err;
+		pc = line;
+		instructionLimit = spawner.instructionLimit;
+		timeLimitNanos = spawner.timeLimitNanos;
+		dataLimit = spawner.dataLimit;
+		outputLimit = spawner.outputLimit;
+		harts = spawner.harts;
+	}
+
+	/* An interpreter ready to run program from the start. */
+	public MipsInterpreter(MipsProgram program) {
+		this();
+		setProgram(program);
+	}
+
+	public void setInput(InputStream in) {
+		console.setInput(in);
+	}
+
+	public void setOutput(OutputStream out) {
+		console.setOutput(out);
+	}
+
+	public void setConsole(MipsConsole console) {
+		this.console = console;
+	}
+
+	public MipsConsole getConsole() {
+		return console;
+	}
+
+	/*
+	 * Records read_int and read_string into log, or with a replaying log
+	 * answers them from it instead of the console. A replaying log is used up
+	 * as the program reads, so each run needs a fresh one.
+	 */
+	public void setSyscallLog(MipsSyscallLog syscallLog) {
+		this.syscallLog = syscallLog;
+	}
+
+	public void setErrorOutput(PrintStream err) {
+		this.err = err;
 	}
 
 	public void readFile(String fileName) {
-		ArrayList<String> lines = new ArrayList<String>();
-		int firstLineOfText = 0;
-		boolean inText = false;
+		if (load(fileName)) run();
+	}
+
+	public boolean load(String fileName) {
+		MipsEvents.Load event = new MipsEvents.Load();
+		event.begin();
+		boolean loaded = loadProgram(fileName);
+		if (event.shouldCommit()) {
+			event.path = fileName;
+			event.loaded = loaded;
+			event.binary = loaded && loader == null;
+			event.cacheHit = loaded && loader != null && loader.isCacheHit();
+			event.lazy = lazyLoader != null;
+			event.lines = loaded ? text.length : 0;
+			event.dataSize = loaded ? memory.getDataSize() : 0;
+			event.commit();
+		}
+		return loaded;
+	}
+
+	private boolean loadProgram(String fileName) {
+		Path path = Paths.get(fileName);
+		labels = new HashMap<String, Integer>();
+		dataAddresses = new HashMap<String, Integer>();
+		memory = new MipsMemory();
 		try {
-			BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
-			String line = "";
-			int lastLineNumber = -1;
-			while (true) {
-				try {
-					lastLineNumber++;
-					line = bufferedReader.readLine();
-					if (line == null) break;
-					line = line.trim();
-					lines.add(line);
-					if (line.length() == 0) continue;
-					if (line.startsWith(".data")) {
-						// Do nothing.
-					} else if (line.startsWith(".text")) {
-						inText = true;
-						firstLineOfText = lastLineNumber + 1;
-					} else {
-						int hashIndex = line.indexOf('#');
-						if (hashIndex >= 0) {
-							line = line.substring(0, hashIndex);
-							lines.set(lastLineNumber, line);
-						}
-						int colonIndex = line.indexOf(':');
-						if (colonIndex >= 0) {
-							String labelName = line.substring(0, colonIndex);
-							String afterLabel = line.substring(colonIndex + 1, line.length()).trim();
-							if (inText) {
-								labels.put(labelName, lastLineNumber);
-							} else if (afterLabel.startsWith(".asciiz")) {
-								String afterAsciiz = afterLabel.substring(".asciiz".length() + 1, afterLabel.length()).trim();
-								int quoteIndex = afterAsciiz.indexOf('\"');
-								String afterQuote = afterAsciiz.substring(quoteIndex + 1, afterAsciiz.length());
-								String asciizString = afterQuote.substring(0, afterQuote.indexOf('\"'));
-								asciizLabels.put(labelName, asciizString);
-							} else if (afterLabel.startsWith(".space")) {
-								String afterSpace = afterLabel.substring(".space".length() + 1, afterLabel.length()).trim();
-								ArrayList<Integer> heap = spaceLabels.get(labelName);
-								if (heap == null) {
-									heap = new ArrayList<Integer>();
-									spaceLabels.put(labelName, heap);
-								}
-								heap.add(Integer.parseInt(afterSpace));
-							}
-							lines.set(lastLineNumber, afterLabel);
-						}
-					}
-				} catch (IOException e) {
-					System.err.println("Couldn't read line " + lastLineNumber + ".");
-				}
+			if (binaryByteOrder != null || MipsBinaryLoader.isElf(path)) {
+				loader = null;
+				MipsBinaryLoader binaryLoader = new MipsBinaryLoader(labels, dataAddresses, memory, err);
+				text = binaryLoader.load(path, binaryByteOrder == null ? ByteOrder.LITTLE_ENDIAN : binaryByteOrder);
+				if (binaryDataFileName != null) binaryLoader.loadData(Paths.get(binaryDataFileName));
+				firstLineOfText = 0;
+				entryLine = binaryLoader.getEntryLine();
+			} else {
+				loader = new MipsLoader(labels, dataAddresses, memory, err);
+				loader.setCache(programCache);
+				loader.setLazy(lazyDecoding && !optimizing);
+				text = loader.load(path);
+				firstLineOfText = loader.getFirstLineOfText();
+				entryLine = firstLineOfText;
 			}
+		} catch (NoSuchFileException e) {
+			err.println("Invalid file: " + fileName);
+			return false;
+		} catch (IOException e) {
+			err.println("Couldn't read " + fileName + ": " + e.getMessage());
+			return false;
+		}
+		if (optimizing) {
+			optimizer = new MipsOptimizer();
+			text = optimizer.optimize(new MipsControlFlow(text, firstLineOfText, labels.values()));
+		}
+		attach(new MipsProgram(text, labels, dataAddresses, memory.getData(), firstLineOfText, entryLine));
+		if (loader != null && loader.hasUndecodedLines()) lazyLoader = loader;
+		return true;
+	}
+
+	/* Switches to program, shared rather than copied, and resets to its start. */
+	public void setProgram(MipsProgram program) {
+		loader = null;
+		attach(program);
+	}
+
+	private void attach(MipsProgram program) {
+		lazyLoader = null;
+		this.program = program;
+		text = program.text;
+		labels = program.labels;
+		dataAddresses = program.dataAddresses;
+		firstLineOfText = program.firstLineOfText;
+		entryLine = program.entryLine;
+		controlFlow = null;
+		fusedText = null;
+		jit = null;
+		reset();
+	}
+
+	/* The program as loaded, or null after restoring a checkpoint. Lines left by lazy decoding are decoded first. */
+	public MipsProgram getProgram() {
+		decodeAll();
+		return program;
+	}
+
+	/*
+	 * Puts the interpreter back where its program starts: registers, data
+	 * segment, heap, stack, pc, instruction count and error. Compiled JIT
+	 * blocks are kept for the next run. The console keeps its streams until
+	 * setInput and setOutput replace them.
+	 */
+	public void reset() {
+		if (program == null) throw new IllegalStateException("No loaded program to reset to");
+		if (harts != null) harts.stopAll();
+		harts = null;
+		linked = false;
+		Arrays.fill(registers, 0);
+		registers[REGISTER_GP] = MipsMemory.GLOBAL_POINTER;
+		registers[REGISTER_SP] = MipsMemory.STACK_POINTER;
+		memory.reset(program.data);
+		pc = entryLine;
+		terminated = false;
+		blocked = false;
+		instructionsExecuted = 0;
+		Arrays.fill(syscallCounts, 0);
+		deadlineStarted = false;
+		limitExceeded = null;
+		memory.setDataLimit(dataLimit);
+		console.setOutputLimit(outputLimit);
+		error = null;
+		if (profiler != null) removeObserver(profiler);
+		profiler = null;
+	}
+
+	/*
+	 * A new interpreter at this one's current point: same registers, pc,
+	 * counters, limits and engine, sharing the program and, copy-on-write,
+	 * every page of the data segment, heap and stack. Forking costs the page
+	 * tables; each side then copies only the pages it writes. The child has
+	 * its own console on System.in and System.out until setInput and
+	 * setOutput replace them, its own JIT, and its time limit starts when it
+	 * first runs. Observers, the syscall log and checkpointing are not
+	 * carried over, since each records one run: a child that needs them gets
+	 * its own through addObserver, setSyscallLog and setCheckpointing.
+	 * Pending output is flushed first so it isn't written twice. This
+	 * interpreter must not be running on another thread during the fork;
+	 * afterwards parent and child can run on separate threads. A program
+	 * that has spawned harts can't be forked until it is reset, and throws
+	 * IllegalStateException.
+	 */
+	public MipsInterpreter fork() {
+		if (harts != null) throw new IllegalStateException("Can't fork a program that has spawned harts");
+		decodeAll();
+		flushConsole();
+		return new MipsInterpreter(this);
+	}
+
+	/*
+	 * Stops the program with a runtime error and INSTRUCTION_LIMIT once it has
+	 * executed limit instructions since it was loaded or reset. The engines'
+	 * own instruction budgets enforce it, so it costs nothing per instruction.
+	 */
+	public void setInstructionLimit(long limit) {
+		instructionLimit = limit;
+	}
+
+	/*
+	 * Stops the program with TIME_LIMIT once nanos of wall-clock time have
+	 * passed since it first ran after load or reset. The clock is read every
+	 * million or so instructions, and not while a syscall waits for input.
+	 */
+	public void setTimeLimit(long nanos) {
+		timeLimitNanos = nanos;
+	}
+
+	/* Stops the program with DATA_LIMIT when sbrk would take the data segment past bytes. */
+	public void setDataLimit(int bytes) {
+		dataLimit = bytes;
+		memory.setDataLimit(bytes);
+	}
+
+	/* Cuts output off after bytes and stops the program with OUTPUT_LIMIT. */
+	public void setOutputLimit(long bytes) {
+		outputLimit = bytes;
+		console.setOutputLimit(bytes);
+	}
+
+	/*
+	 * Makes load of assembly stop after scanning labels and data, leaving each
+	 * .text line to be decoded the first time it runs. Only the legacy and
+	 * switch engines run undecoded text; anything that needs the whole
+	 * program (fusion, the JIT, observers, checkpoints, the optimizer or the
+	 * program cache) decodes the rest first.
+	 */
+	public void setLazyDecoding(boolean lazyDecoding) {
+		this.lazyDecoding = lazyDecoding;
+	}
+
+	/* Makes load run the loaded text through MipsOptimizer; the program cache keeps the unoptimized image. */
+	public void setOptimizing(boolean optimizing) {
+		this.optimizing = optimizing;
+	}
+
+	/* The optimizer used by the last load, or null. */
+	public MipsOptimizer getOptimizer() {
+		return optimizer;
+	}
+
+	/* The loader used by the last load of assembly, for its size and timing statistics; null after loading machine code. */
+	public MipsLoader getLoader() {
+		return loader;
+	}
+
+	public void run() {
+		long slice = checkpointFile == null ? RUN_SLICE : checkpointInterval;
+		while (runFor(slice) && !blocked) {
+			if (checkpointFile == null) continue;
 			try {
-				bufferedReader.close();
+				saveCheckpoint(checkpointFile);
 			} catch (IOException e) {
-				System.err.println("Couldn't close file.");
+				err.println("Couldn't write checkpoint: " + e.getMessage());
 			}
-			for (pc = firstLineOfText; pc < lastLineNumber && !terminated; pc++) {
-				executeMipsInstruction(lines.get(pc), pc);
-			}
-		} catch (FileNotFoundException e) {
-			System.err.println("Invalid file: " + fileName);
 		}
+		flushConsole();
 	}
 
-	public void executeMipsInstruction(String mipsString, int lineNumber) {
-		mipsString = mipsString.trim();
-		if (mipsString.length() == 0) return;
-		if (mipsString.startsWith("syscall") || mipsString.startsWith(".syscall")) {
-			syscall();
-			return;
+	private void flushConsole() {
+		try {
+			flushOutput();
+		} catch (MipsLimitException e) {
+			runtimeError(pc, e);
+		} catch (MipsException e) {
+			err.println(e.getMessage());
 		}
-		int firstSpace = mipsString.indexOf(' ');
-		int firstTab = mipsString.indexOf('\t');
-		if (firstSpace < 0 && firstTab < 0) {
-			terminated = true;
+	}
+
+	/* Flushes the console, which harts share, under their lock. */
+	private void flushOutput() {
+		if (harts == null) {
+			console.flush();
 			return;
 		}
+		synchronized (harts) {
+			console.flush();
+		}
+	}
 
-		int firstWhitespace = firstSpace;
-		if (firstSpace < 0) firstWhitespace = firstTab;
+	/*
+	 * Continues the program from pc until it stops or has executed count more
+	 * instructions, and returns whether it can continue. The budget is exact
+	 * except that a fused pair or a compiled JIT block always runs to its end.
+	 */
+	public boolean runFor(long count) {
+		blocked = false;
+		long stop = count >= Long.MAX_VALUE - instructionsExecuted ? Long.MAX_VALUE : instructionsExecuted + count;
+		stop = Math.min(stop, instructionLimit);
+		if (lazyLoader != null && (profiling || observers.length > 0 || engine == Engine.FUSED || engine == Engine.JIT)) decodeAll();
+		if (profiling && profiler == null) {
+			profiler = new MipsProfiler(text, labels, entryLine);
+			addObserver(profiler);
+		}
+		if (timeLimitNanos <= 0 && harts == null) {
+			runEngine(stop);
+		} else {
+			if (timeLimitNanos > 0 && !deadlineStarted) {
+				deadline = System.nanoTime() + timeLimitNanos;
+				deadlineStarted = true;
+			}
+			boolean late;
+			do {
+				runEngine(Math.min(stop, instructionsExecuted + DEADLINE_CHECK_INTERVAL));
+				if (harts != null && harts.isStopping() && isRunning()) {
+					terminated = true;
+					if (error == null) error = harts.getError();
+				}
+				late = timeLimitNanos > 0 && System.nanoTime() - deadline >= 0;
+			} while (isRunning() && !blocked && instructionsExecuted < stop && !late);
+			if (late && isRunning() && !blocked)
+				exceedLimit(Termination.TIME_LIMIT, "Time limit exceeded: " + timeLimitNanos / 1000000 + " ms");
+		}
+		if (isRunning() && !blocked && instructionsExecuted >= instructionLimit)
+			exceedLimit(Termination.INSTRUCTION_LIMIT, "Instruction limit exceeded: " + instructionLimit);
+		if (harts != null && !isRunning()) harts.finished(this, terminated || error != null);
+		return isRunning();
+	}
 
-		String instructionString = mipsString.substring(0, firstWhitespace).trim();
-		String restOfString = mipsString.substring(firstWhitespace + 1, mipsString.length()).trim();
-		String[] tokens = restOfString.split(",");
-		for (int i = 0; i < tokens.length; i++)
-			tokens[i] = tokens[i].trim();
-		if (tokens.length < 1 || tokens.length > 3) {
-			terminated = true;
-			return;
+	private void runEngine(long stop) {
+		if (observers.length > 0) {
+			runObserved(observers, stop);
+		} else if (engine == Engine.SWITCH) {
+			runSwitch(text, stop);
+		} else if (engine == Engine.FUSED) {
+			if (fusedText == null) fusedText = program != null ? program.getFusedText() : new MipsFusion().fuse(getControlFlow());
+			runSwitch(fusedText, stop);
+		} else if (engine == Engine.JIT) {
+			if (jit == null) jit = new MipsJit(getControlFlow(), jitThreshold, err);
+			runJit(jit, stop);
+		} else {
+			runLegacy(stop);
 		}
+	}
 
-		MipsInstruction mipsInstruction = MIPS_INSTRUCTIONS.get(instructionString.toLowerCase());
-		if (mipsInstruction == null) {
-			terminated = true;
+	/*
+	 * Runs at most count instructions like runFor, then flushes the console
+	 * so a host multiplexing many programs sees their output per slice. A
+	 * read syscall on fed console input that has no complete token or line
+	 * yet, or a join on a hart blocked that way, returns BLOCKED with pc
+	 * still on the syscall, which runs again on the next step.
+	 */
+	public Status step(long count) {
+		if (isRunning()) runFor(count);
+		flushConsole();
+		return getStatus();
+	}
+
+	/* Why the program stopped, or null while it can still run. */
+	public Termination getTermination() {
+		if (isRunning()) return null;
+		if (limitExceeded != null) return limitExceeded;
+		return error != null ? Termination.ERROR : Termination.EXITED;
+	}
+
+	public Status getStatus() {
+		if (!isRunning()) return Status.TERMINATED;
+		return blocked ? Status.BLOCKED : Status.RUNNING;
+	}
+
+	/* Whether the program has neither halted nor run off the end of .text. */
+	public boolean isRunning() {
+		return !terminated && pc >= 0 && pc < text.length;
+	}
+
+	public MipsControlFlow getControlFlow() {
+		decodeAll();
+		if (controlFlow == null)
+			controlFlow = program != null ? program.getControlFlow() : new MipsControlFlow(text, firstLineOfText, labels.values());
+		return controlFlow;
+	}
+
+	public void executeMipsInstruction(String mipsString, int lineNumber) {
+		execute(new MipsDecoder(labels, dataAddresses).decode(mipsString, lineNumber));
+	}
+
+	public void setProgramCache(MipsProgramCache programCache) {
+		this.programCache = programCache;
+	}
+
+	/*
+	 * Makes load read raw machine code words in byteOrder instead of
+	 * assembly, with an optional raw data image for DATA_BASE. ELF
+	 * executables are recognized without this.
+	 */
+	public void setBinary(ByteOrder byteOrder, String dataFileName) {
+		binaryByteOrder = byteOrder;
+		binaryDataFileName = dataFileName;
+	}
+
+	/* Makes run() save a checkpoint to path after every interval instructions. */
+	public void setCheckpointing(Path path, long interval) {
+		checkpointFile = path;
+		checkpointInterval = Math.max(interval, 1);
+	}
+
+	/*
+	 * Checkpoint layout: magic and version, the MipsLoader image of the
+	 * program (whose data segment now includes the sbrk heap), the entry
+	 * line, the 34 registers, pc, the terminated flag, the instruction count,
+	 * the used part of the stack, the number of input bytes consumed, the
+	 * syscall log's position or -1 without one, and the syscall counts. The
+	 * file is replaced atomically, so a crash never leaves a partial
+	 * checkpoint.
+	 */
+	public void saveCheckpoint(Path path) throws IOException {
+		if (harts != null) throw new IOException("Programs that spawn harts can't be checkpointed");
+		console.flush();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(CHECKPOINT_MAGIC);
+		out.writeInt(CHECKPOINT_VERSION);
+		decodeAll();
+		new MipsLoader(labels, dataAddresses, memory, err).writeImage(out, text, firstLineOfText);
+		out.writeInt(entryLine);
+		for (int register : registers)
+			out.writeInt(register);
+		out.writeInt(pc);
+		out.writeBoolean(terminated);
+		out.writeLong(instructionsExecuted);
+		byte[] stack = memory.getUsedStack();
+		out.writeInt(stack.length);
+		out.write(stack);
+		out.writeLong(console.getInputPosition());
+		out.writeLong(syscallLog == null ? -1 : syscallLog.getPosition());
+		out.writeInt(syscallCounts.length);
+		for (long count : syscallCounts)
+			out.writeLong(count);
+		out.flush();
+
+		Path directory = path.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try {
+			Files.write(temporary, bytes.toByteArray());
+			Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/*
+	 * Replaces the program and its state with a checkpoint, ready for run()
+	 * to continue where it was taken. The input given to this interpreter
+	 * must be the same as the original's; the part already consumed is
+	 * skipped. A replaying syscall log continues from the entry the
+	 * checkpoint reached, so it must be the log of the checkpointed run.
+	 * Recording is refused, since the log would miss the earlier input.
+	 */
+	public void restoreCheckpoint(Path path) throws IOException {
+		if (syscallLog != null && !syscallLog.isReplaying())
+			throw new IOException("Can't record the syscalls of a restored run; its earlier input isn't in the log");
+		ByteBuffer image;
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		try {
+			if (image.getInt() != CHECKPOINT_MAGIC || image.getInt() != CHECKPOINT_VERSION)
+				throw new IOException("Not a checkpoint of this version");
+			labels = new HashMap<String, Integer>();
+			dataAddresses = new HashMap<String, Integer>();
+			MipsLoader imageLoader = new MipsLoader(labels, dataAddresses, memory, err);
+			text = imageLoader.readImage(image);
+			if (text == null) throw new IOException("Not a checkpoint of this version");
+			firstLineOfText = imageLoader.getFirstLineOfText();
+			entryLine = image.getInt();
+			for (int i = 0; i < registers.length; i++)
+				registers[i] = image.getInt();
+			pc = image.getInt();
+			terminated = image.get() != 0;
+			instructionsExecuted = image.getLong();
+			int stackLength = image.getInt();
+			ByteBuffer stack = image.duplicate();
+			stack.limit(stack.position() + stackLength);
+			memory.setUsedStack(stack);
+			image.position(image.position() + stackLength);
+			console.skipInput(image.getLong());
+			long logPosition = image.getLong();
+			if (syscallLog != null) {
+				if (logPosition < 0) throw new IOException("The checkpoint was taken without a syscall log to replay");
+				syscallLog.seek(logPosition);
+			}
+			long[] counts = new long[image.getInt()];
+			for (int i = 0; i < counts.length; i++)
+				counts[i] = image.getLong();
+			Arrays.fill(syscallCounts, 0);
+			System.arraycopy(counts, 0, syscallCounts, 0, Math.min(counts.length, syscallCounts.length));
+		} catch (BufferUnderflowException | IllegalArgumentException | MipsException e) {
+			throw new IOException("Damaged checkpoint");
+		}
+		loader = null;
+		lazyLoader = null;
+		program = null;
+		deadlineStarted = false;
+		limitExceeded = null;
+		controlFlow = null;
+		fusedText = null;
+		jit = null;
+		if (profiler != null) removeObserver(profiler);
+		profiler = null;
+	}
+
+	/* Runs the program one decoded instruction at a time under a MipsProfiler, whatever the engine. */
+	public void setProfiling(boolean profiling) {
+		this.profiling = profiling;
+	}
+
+	/* The profiler of the last profiled run, or null. */
+	public MipsProfiler getProfiler() {
+		return profiler;
+	}
+
+	/* Reports every instruction executed from now on to observer; see MipsObserver. */
+	public void addObserver(MipsObserver observer) {
+		observers = Arrays.copyOf(observers, observers.length + 1);
+		observers[observers.length - 1] = observer;
+	}
+
+	public void removeObserver(MipsObserver observer) {
+		for (int i = 0; i < observers.length; i++) {
+			if (observers[i] != observer) continue;
+			MipsObserver[] remaining = new MipsObserver[observers.length - 1];
+			System.arraycopy(observers, 0, remaining, 0, i);
+			System.arraycopy(observers, i + 1, remaining, i, remaining.length - i);
+			observers = remaining;
 			return;
 		}
+	}
 
-		MipsRegister rd = null, rs = null, rt = null;
-		MipsRegister hi = registers[REGISTER_HI], lo = registers[REGISTER_LO];
-		int immediate = 0;
-		String label = "";
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
 
-		String inst = instructionString.toLowerCase();
-		int registerIndex;
+	public Engine getEngine() {
+		return engine;
+	}
 
-		switch (mipsInstruction.getType()) {
-		case 'R':
-			switch (tokens.length) {
-			case 1:
-				if (inst.equals("jr")) {
-					if (MipsRegister.parse(tokens[0]) != REGISTER_RA)
-						return;
-					pc = registers[REGISTER_RA].getValue();
-					return;
-				}
-				rd = getMipsRegisterByString(tokens[0]);
-				break;
-			case 2:
-				rs = getMipsRegisterByString(tokens[0]);
-				registerIndex = MipsRegister.parse(tokens[1]);
-				if (registerIndex >= 0) {
-					rt = registers[registerIndex];
-				} else if (isLoadInstruction(inst) || isStoreInstruction(inst)) {
-					int parensIndex = tokens[1].indexOf('(');
-					if (parensIndex < 0) {
-						terminated = true;
-						return;
-					}
-					String arrayIndexString = tokens[1].substring(0, parensIndex).trim();
-					int arrayIndex = 0;
-					if (arrayIndexString.length() != 0)
-						arrayIndex = Integer.parseInt(arrayIndexString);
-					String insideParens = tokens[1].substring(parensIndex + 1, tokens[1].length() - 1).trim();
-					rt = getMipsRegisterByString(insideParens);
-					if (rt.label.length() == 0) {
-						terminated = true;
-						return;
-					}
-					ArrayList<Integer> heap = spaceLabels.get(rt.label);
-					if (isLoadInstruction(inst)) {
-						rs.setValue(heap.get(arrayIndex / 4));
-					} else if (isStoreInstruction(inst)) {
-						if (arrayIndex / 4 >= heap.size()) {
-							heap.add(rs.getValue());
-						} else {
-							heap.set(arrayIndex / 4, rs.getValue());
-						}
-					}
-					return;
-				}
-				break;
-			case 3:
-				rd = getMipsRegisterByString(tokens[0]);
-				registerIndex = MipsRegister.parse(tokens[2]);
-				if (registerIndex > 0) {
-					rs = getMipsRegisterByString(tokens[1]);
-					rt = registers[registerIndex];
-				} else if (labels.get(tokens[2]) != null) {
-					registerIndex = MipsRegister.parse(tokens[1]);
-					if (registerIndex >= 0) {
-						rs = getMipsRegisterByString(tokens[1]);
-						if (inst.equals("beq") && rd.getValue() == rs.getValue()) {
-							pc = labels.get(tokens[2]) - 1;
-						} else if (inst.equals("bne") && rd.getValue() != rs.getValue()) {
-							pc = labels.get(tokens[2]) - 1;
-						} else if (!isZeroRegister(tokens[2])) {
-							immediate = Integer.parseInt(tokens[2]);
-							return;
-						}
-					} else {
-						int value = Integer.parseInt(tokens[1]);
-						if (inst.equals("beq") && rd.getValue() == value) {
-							pc = labels.get(tokens[2]) - 1;
-						} else if (inst.equals("bne") && rd.getValue() != value)
-							pc = labels.get(tokens[2]) - 1;
-						}
-					}
+	public void setJitThreshold(int jitThreshold) {
+		this.jitThreshold = jitThreshold;
+	}
+
+	/* Instructions executed since load or reset, including those of the harts this program spawned. */
+	public long getInstructionsExecuted() {
+		if (harts == null) return instructionsExecuted;
+		return instructionsExecuted + harts.getSpawnedInstructions(this);
+	}
+
+	/* Completed syscalls by service number, with unknown services counted at index 0. */
+	public long[] getSyscallCounts() {
+		return syscallCounts.clone();
+	}
+
+	/* Lines of .text in the loaded program. */
+	public int getLineCount() {
+		return text == null ? 0 : text.length;
+	}
+
+	/* The runtime error that stopped the program, or null if it ended normally. */
+	public String getError() {
+		return error;
+	}
+
+	private void runLegacy(long stop) {
+		try {
+			for (; pc < text.length && !terminated && instructionsExecuted < stop; pc++) {
+				DecodedInstruction d = text[pc];
+				if (d.opcode == MipsOpcode.UNDECODED) d = decodeLazily(pc);
+				if (d.opcode != MipsOpcode.NOP) instructionsExecuted++;
+				execute(d);
+				if (blocked) {
+					instructionsExecuted--;
+					break;
 				}
-			break;
-		case 'I':
-			if (tokens.length != 2 && tokens.length != 3) break;
-			rd = getMipsRegisterByString(tokens[0]);
-			if (labels.get(tokens[1]) != null) {
-				if (inst.equals("beqz") && rd.getValue() == 0) {
-					pc = labels.get(tokens[1]) - 1;
-				} else if (inst.equals("bgz") && rd.getValue() > 0) {
-					pc = labels.get(tokens[1]) - 1;
-				} else if (inst.equals("bgtz") && rd.getValue() >= 0) {
-					pc = labels.get(tokens[1]) - 1;
-				} else if (inst.equals("blz") && rd.getValue() < 0) {
-					pc = labels.get(tokens[1]) - 1;
-				} else if (inst.equals("bltz") && rd.getValue() <= 0) {
-					pc = labels.get(tokens[1]) - 1;
+			}
+		} catch (MipsException e) {
+			runtimeError(pc, e);
+		} catch (ArithmeticException e) {
+			runtimeError(pc, "Division by zero");
+		}
+	}
+
+	/* runLegacy with every executed instruction reported to the observers. */
+	private void runObserved(MipsObserver[] observers, long stop) {
+		try {
+			for (; pc < text.length && !terminated && instructionsExecuted < stop; pc++) {
+				DecodedInstruction d = text[pc];
+				if (d.opcode == MipsOpcode.NOP) continue;
+				instructionsExecuted++;
+				int line = pc;
+				int address = MipsOpcode.isLoad(d.opcode) || MipsOpcode.isStore(d.opcode) ? registers[d.rt] + d.immediate : 0;
+				execute(d);
+				if (blocked) {
+					instructionsExecuted--;
+					break;
 				}
-				return;
+				for (MipsObserver observer : observers)
+					observer.record(d, line, pc + 1, address);
 			}
-			registerIndex = MipsRegister.parse(tokens[1]);
-			if (registerIndex >= 0 && tokens.length == 3) {
-				rs = registers[registerIndex];
-				immediate = Integer.parseInt(tokens[2]);
-			} else if (!isZeroRegister(tokens[1]) && tokens.length == 2) {
-				try {
-					immediate = Integer.parseInt(tokens[1]);
-				} catch (NumberFormatException e) {
-					label = tokens[1];
+		} catch (MipsException e) {
+			runtimeError(pc, e);
+		} catch (ArithmeticException e) {
+			runtimeError(pc, "Division by zero");
+		}
+	}
+
+	/*
+	 * Interprets like runLegacy until a block gets hot, then runs the block
+	 * through the bytecode MipsJit generated for it.
+	 */
+	private void runJit(MipsJit jit, long stop) {
+		MipsControlFlow controlFlow = getControlFlow();
+		try {
+			for (; pc < text.length && !terminated && instructionsExecuted < stop; pc++) {
+				MipsCompiledBlock block = controlFlow.isLeader(pc) ? jit.enter(pc) : null;
+				if (block != null) {
+					instructionsExecuted += jit.getInstructionCount(pc);
+					pc = block.execute(registers, memory) - 1;
+					continue;
+				}
+				if (text[pc].opcode != MipsOpcode.NOP) instructionsExecuted++;
+				execute(text[pc]);
+				if (blocked) {
+					instructionsExecuted--;
+					break;
 				}
 			}
-			break;
-		case 'J':
-			if (tokens.length != 1) return;
-			if (inst.equals("j")) {
-				pc = labels.get(tokens[0]) - 1;
-			} else if (inst.equals("jal")) {
-				registers[REGISTER_RA].setValue(lineNumber);
-				pc = labels.get(tokens[0]) - 1;
+		} catch (MipsJitFault e) {
+			instructionsExecuted -= jit.getInstructionCount(e.start) - jit.getInstructionCount(e);
+			pc = e.line;
+			if (e.getCause() instanceof ArithmeticException) {
+				runtimeError(pc, "Division by zero");
+			} else {
+				runtimeError(pc, e.getCause().getMessage());
 			}
-			return;
+		} catch (MipsException e) {
+			runtimeError(pc, e);
+		} catch (ArithmeticException e) {
+			runtimeError(pc, "Division by zero");
 		}
-		mipsInstruction.call(pc, rd, rs, rt, hi, lo, immediate, label);
 	}
 
-	public void syscall() {
-		switch (registers[2].getValue()) {
-		case 1:
-			System.out.print("" + registers[4]);
-			break;
-		case 4:
-			System.out.print(registers[4].toString().replace("\\n", "\n"));
-			break;
-		case 5:
-			registers[2].setValue(scanner.nextInt());
-			break;
-		case 8:
-			String wholeLine = scanner.nextLine();
-			int numCharsToRead = Math.min(registers[5].getValue(), wholeLine.length());
-			String label = registers[4].label;
-			spaceLabels.remove(label);
-			asciizLabels.put(label, wholeLine.substring(0, numCharsToRead));
-			break;
-		case 10:
-			terminated = true;
-			break;
-		case 11:
-			String character = String.valueOf(Character.toChars(registers[4].getValue()));
-			System.out.print(character);
-			break;
+	/*
+	 * The same semantics as runLegacy/execute, but every opcode is handled
+	 * inline in one switch over dense opcode ids with the pc and register file
+	 * in locals. Superinstructions only appear in text fused by MipsFusion.
+	 */
+	private void runSwitch(DecodedInstruction[] text, long stop) {
+		int[] r = registers;
+		MipsMemory memory = this.memory;
+		int pc = this.pc;
+		long executed = 0;
+		long budget = stop - instructionsExecuted;
+		try {
+			loop:
+			while (pc < text.length && executed < budget) {
+				DecodedInstruction d = text[pc++];
+				executed++;
+				switch (d.opcode) {
+				case MipsOpcode.NOP:
+					executed--;
+					continue;
+				case MipsOpcode.NOOP:
+					continue;
+				case MipsOpcode.UNDECODED:
+					executed--;
+					decodeLazily(--pc);
+					continue;
+				case MipsOpcode.HALT:
+					terminated = true;
+					break loop;
+				case MipsOpcode.SYSCALL:
+					this.pc = pc - 1;
+					syscall();
+					if (terminated) break loop;
+					if (blocked) {
+						pc--;
+						executed--;
+						break loop;
+					}
+					continue;
+				case MipsOpcode.MOVE:
+					r[d.rs] = r[d.rt];
+					break;
+				case MipsOpcode.ADD:
+				case MipsOpcode.ADDU:
+					r[d.rd] = r[d.rs] + r[d.rt];
+					break;
+				case MipsOpcode.SUB:
+				case MipsOpcode.SUBU:
+					r[d.rd] = r[d.rs] - r[d.rt];
+					break;
+				case MipsOpcode.SLT:
+					r[d.rd] = r[d.rs] < r[d.rt] ? 1 : 0;
+					break;
+				case MipsOpcode.SLTU:
+					r[d.rd] = Integer.compareUnsigned(r[d.rs], r[d.rt]) < 0 ? 1 : 0;
+					break;
+				case MipsOpcode.AND:
+					r[d.rd] = r[d.rs] & r[d.rt];
+					break;
+				case MipsOpcode.OR:
+					r[d.rd] = r[d.rs] | r[d.rt];
+					break;
+				case MipsOpcode.XOR:
+					r[d.rd] = r[d.rs] ^ r[d.rt];
+					break;
+				case MipsOpcode.SLL:
+					r[d.rd] = r[d.rs] << d.immediate;
+					break;
+				case MipsOpcode.SLLV:
+					r[d.rd] = r[d.rs] << r[d.rt];
+					break;
+				case MipsOpcode.SRL:
+					r[d.rd] = r[d.rs] >>> d.immediate;
+					break;
+				case MipsOpcode.SRA:
+					r[d.rd] = r[d.rs] >> d.immediate;
+					break;
+				case MipsOpcode.SRLV:
+					r[d.rd] = r[d.rs] >>> r[d.rt];
+					break;
+				case MipsOpcode.MFHI:
+					r[d.rd] = r[REGISTER_HI];
+					break;
+				case MipsOpcode.MFLO:
+					r[d.rd] = r[REGISTER_LO];
+					break;
+				case MipsOpcode.MULT: {
+					long product = (long) r[d.rs] * r[d.rt];
+					r[REGISTER_HI] = (int) (product >>> 32);
+					r[REGISTER_LO] = (int) product;
+					continue;
+				}
+				case MipsOpcode.MULTU: {
+					long product = (r[d.rs] & 0xffffffffL) * (r[d.rt] & 0xffffffffL);
+					r[REGISTER_HI] = (int) (product >>> 32);
+					r[REGISTER_LO] = (int) product;
+					continue;
+				}
+				case MipsOpcode.DIV:
+					r[REGISTER_HI] = r[d.rs] % r[d.rt];
+					r[REGISTER_LO] = r[d.rs] / r[d.rt];
+					continue;
+				case MipsOpcode.DIVU:
+					r[REGISTER_HI] = Integer.remainderUnsigned(r[d.rs], r[d.rt]);
+					r[REGISTER_LO] = Integer.divideUnsigned(r[d.rs], r[d.rt]);
+					continue;
+				case MipsOpcode.ADDI:
+				case MipsOpcode.ADDIU:
+					r[d.rd] = r[d.rs] + d.immediate;
+					break;
+				case MipsOpcode.SLTI:
+					r[d.rd] = r[d.rs] < d.immediate ? 1 : 0;
+					break;
+				case MipsOpcode.SLTIU:
+					r[d.rd] = Integer.compareUnsigned(r[d.rs], d.immediate) < 0 ? 1 : 0;
+					break;
+				case MipsOpcode.ANDI:
+					r[d.rd] = r[d.rs] & d.immediate;
+					break;
+				case MipsOpcode.ORI:
+					r[d.rd] = r[d.rs] | d.immediate;
+					break;
+				case MipsOpcode.XORI:
+					r[d.rd] = r[d.rs] ^ d.immediate;
+					break;
+				case MipsOpcode.LI:
+				case MipsOpcode.LA:
+					r[d.rd] = d.immediate;
+					break;
+				case MipsOpcode.LUI:
+					r[d.rd] = d.immediate << 16;
+					break;
+				case MipsOpcode.J:
+					pc = d.target;
+					continue;
+				case MipsOpcode.JAL:
+					r[REGISTER_RA] = TEXT_BASE + 4 * pc;
+					pc = d.target;
+					continue;
+				case MipsOpcode.JR:
+					pc = jumpTarget(r[d.rs]);
+					continue;
+				case MipsOpcode.BEQ:
+					if (r[d.rd] == r[d.rs]) pc = d.target;
+					continue;
+				case MipsOpcode.BNE:
+					if (r[d.rd] != r[d.rs]) pc = d.target;
+					continue;
+				case MipsOpcode.BEQ_IMM:
+					if (r[d.rd] == d.immediate) pc = d.target;
+					continue;
+				case MipsOpcode.BNE_IMM:
+					if (r[d.rd] != d.immediate) pc = d.target;
+					continue;
+				case MipsOpcode.BEQZ:
+					if (r[d.rd] == 0) pc = d.target;
+					continue;
+				case MipsOpcode.BGEZ:
+					if (r[d.rd] >= 0) pc = d.target;
+					continue;
+				case MipsOpcode.BGTZ:
+					if (r[d.rd] > 0) pc = d.target;
+					continue;
+				case MipsOpcode.BLEZ:
+					if (r[d.rd] <= 0) pc = d.target;
+					continue;
+				case MipsOpcode.BLTZ:
+					if (r[d.rd] < 0) pc = d.target;
+					continue;
+				case MipsOpcode.LW:
+					r[d.rs] = memory.loadWord(r[d.rt] + d.immediate);
+					break;
+				case MipsOpcode.LH:
+					r[d.rs] = memory.loadHalf(r[d.rt] + d.immediate);
+					break;
+				case MipsOpcode.LHU:
+					r[d.rs] = memory.loadHalf(r[d.rt] + d.immediate) & 0xffff;
+					break;
+				case MipsOpcode.LB:
+					r[d.rs] = memory.loadByte(r[d.rt] + d.immediate);
+					break;
+				case MipsOpcode.LBU:
+					r[d.rs] = memory.loadByte(r[d.rt] + d.immediate) & 0xff;
+					break;
+				case MipsOpcode.SW:
+					memory.storeWord(r[d.rt] + d.immediate, r[d.rs]);
+					continue;
+				case MipsOpcode.SH:
+					memory.storeHalf(r[d.rt] + d.immediate, r[d.rs]);
+					continue;
+				case MipsOpcode.SB:
+					memory.storeByte(r[d.rt] + d.immediate, r[d.rs]);
+					continue;
+				case MipsOpcode.LL:
+					r[d.rs] = loadLinked(r[d.rt] + d.immediate);
+					break;
+				case MipsOpcode.SC:
+					r[d.rs] = storeConditional(r[d.rt] + d.immediate, r[d.rs]);
+					break;
+				case MipsOpcode.SYNC:
+					VarHandle.fullFence();
+					continue;
+				case MipsOpcode.SLT_BNEZ: {
+					int value = r[d.rs] < r[d.rt] ? 1 : 0;
+					r[d.rd] = value;
+					executed++;
+					pc = value != 0 ? d.target : d.fallthrough;
+					continue;
+				}
+				case MipsOpcode.SLT_BEQZ: {
+					int value = r[d.rs] < r[d.rt] ? 1 : 0;
+					r[d.rd] = value;
+					executed++;
+					pc = value == 0 ? d.target : d.fallthrough;
+					continue;
+				}
+				case MipsOpcode.ADDI_BNE: {
+					int value = r[d.rs] + d.immediate;
+					r[d.rd] = value;
+					executed++;
+					pc = value != r[d.rt] ? d.target : d.fallthrough;
+					continue;
+				}
+				case MipsOpcode.LUI_ORI:
+					r[d.rd] = d.immediate;
+					executed++;
+					pc = d.fallthrough;
+					continue;
+				case MipsOpcode.LW_ADD: {
+					r[d.rs] = memory.loadWord(r[d.rt] + d.immediate);
+					DecodedInstruction add = d.next;
+					r[add.rd] = r[add.rs] + r[add.rt];
+					executed++;
+					pc = d.fallthrough;
+					break;
+				}
+				case MipsOpcode.SLL_ADD: {
+					r[d.rd] = r[d.rs] << d.immediate;
+					DecodedInstruction add = d.next;
+					r[add.rd] = r[add.rs] + r[add.rt];
+					executed++;
+					pc = d.fallthrough;
+					break;
+				}
+				}
+				r[0] = 0;
+			}
+		} catch (MipsException e) {
+			runtimeError(pc - 1, e);
+		} catch (ArithmeticException e) {
+			runtimeError(pc - 1, "Division by zero");
 		}
+		this.pc = pc;
+		instructionsExecuted += executed;
 	}
 
-	public String getLabel(String labelName) {
-		Integer intLabelValue = labels.get(labelName);
-		if (intLabelValue != null) return intLabelValue.toString();
-		ArrayList<Integer> intArrayLabelValue = spaceLabels.get(labelName);
-		if (intArrayLabelValue != null) return intArrayLabelValue.toString();
-		return asciizLabels.get(labelName);
+	/* Decodes a line lazy loading left undecoded and keeps it in text for later runs. */
+	private DecodedInstruction decodeLazily(int line) {
+		DecodedInstruction d = lazyLoader.decode(line);
+		text[line] = d;
+		if (!lazyLoader.hasUndecodedLines()) lazyLoader = null;
+		return d;
 	}
 
-	public MipsRegister getMipsRegisterByString(String registerString) {
-		return registers[MipsRegister.parse(registerString)];
+	private void decodeAll() {
+		for (int line = 0; lazyLoader != null && line < text.length; line++)
+			if (text[line].opcode == MipsOpcode.UNDECODED) decodeLazily(line);
 	}
 
-	private boolean isZeroRegister(String registerString) {
-		return registerString.equals("$0") || registerString.equals("$zero");
+	private void runtimeError(int line, MipsException e) {
+		if (e instanceof MipsLimitException) limitExceeded = ((MipsLimitException) e).getReason();
+		runtimeError(line, e.getMessage());
 	}
 
-	private boolean isLoadInstruction(String instructionString) {
-		return instructionString.equals("lw") || instructionString.equals("lb");
+	private void exceedLimit(Termination reason, String message) {
+		limitExceeded = reason;
+		runtimeError(pc, message);
 	}
 
-	private boolean isStoreInstruction(String instructionString) {
-		return instructionString.equals("sw") || instructionString.equals("sb");
+	private void runtimeError(int line, String message) {
+		error = "Runtime error on line " + (line + 1) + ": " + message;
+		try {
+			flushOutput();
+		} catch (MipsException e) {
+			/* The runtime error is still reported below. */
+		}
+		err.println(error);
+		terminated = true;
 	}
-};
 
-class MipsRegister {
-	private MipsInterpreter interpreter;
-	private int value;
-	public String label;
+	/*
+	 * The line jr jumps to for address, shared by every engine including
+	 * compiled JIT blocks. Addresses below .text or not on an instruction
+	 * boundary are errors; one past the end finishes the program.
+	 */
+	static int jumpTarget(int address) {
+		if (Integer.compareUnsigned(address, TEXT_BASE) < 0 || (address & 3) != 0)
+			throw new MipsException(String.format("Jump out of .text: 0x%08x", address));
+		return (address - TEXT_BASE) >>> 2;
+	}
 
-	MipsRegister(MipsInterpreter interpreter) {
-		this.interpreter = interpreter;
-		value = 0;
+	private void execute(DecodedInstruction d) {
+		switch (d.opcode) {
+		case MipsOpcode.NOP:
+			return;
+		case MipsOpcode.HALT:
+			terminated = true;
+			return;
+		case MipsOpcode.SYSCALL:
+			syscall();
+			return;
+		case MipsOpcode.J:
+			pc = d.target - 1;
+			return;
+		case MipsOpcode.JAL:
+			registers[REGISTER_RA] = TEXT_BASE + 4 * (d.line + 1);
+			pc = d.target - 1;
+			return;
+		case MipsOpcode.JR:
+			pc = jumpTarget(registers[d.rs]) - 1;
+			return;
+		case MipsOpcode.BEQ:
+			if (registers[d.rd] == registers[d.rs]) pc = d.target - 1;
+			return;
+		case MipsOpcode.BNE:
+			if (registers[d.rd] != registers[d.rs]) pc = d.target - 1;
+			return;
+		case MipsOpcode.BEQ_IMM:
+			if (registers[d.rd] == d.immediate) pc = d.target - 1;
+			return;
+		case MipsOpcode.BNE_IMM:
+			if (registers[d.rd] != d.immediate) pc = d.target - 1;
+			return;
+		case MipsOpcode.BEQZ:
+			if (registers[d.rd] == 0) pc = d.target - 1;
+			return;
+		case MipsOpcode.BGEZ:
+			if (registers[d.rd] >= 0) pc = d.target - 1;
+			return;
+		case MipsOpcode.BGTZ:
+			if (registers[d.rd] > 0) pc = d.target - 1;
+			return;
+		case MipsOpcode.BLEZ:
+			if (registers[d.rd] <= 0) pc = d.target - 1;
+			return;
+		case MipsOpcode.BLTZ:
+			if (registers[d.rd] < 0) pc = d.target - 1;
+			return;
+		case MipsOpcode.LW:
+			registers[d.rs] = memory.loadWord(registers[d.rt] + d.immediate);
+			registers[0] = 0;
+			return;
+		case MipsOpcode.LH:
+			registers[d.rs] = memory.loadHalf(registers[d.rt] + d.immediate);
+			registers[0] = 0;
+			return;
+		case MipsOpcode.LHU:
+			registers[d.rs] = memory.loadHalf(registers[d.rt] + d.immediate) & 0xffff;
+			registers[0] = 0;
+			return;
+		case MipsOpcode.LB:
+			registers[d.rs] = memory.loadByte(registers[d.rt] + d.immediate);
+			registers[0] = 0;
+			return;
+		case MipsOpcode.LBU:
+			registers[d.rs] = memory.loadByte(registers[d.rt] + d.immediate) & 0xff;
+			registers[0] = 0;
+			return;
+		case MipsOpcode.SW:
+			memory.storeWord(registers[d.rt] + d.immediate, registers[d.rs]);
+			return;
+		case MipsOpcode.SH:
+			memory.storeHalf(registers[d.rt] + d.immediate, registers[d.rs]);
+			return;
+		case MipsOpcode.SB:
+			memory.storeByte(registers[d.rt] + d.immediate, registers[d.rs]);
+			return;
+		case MipsOpcode.LL:
+			registers[d.rs] = loadLinked(registers[d.rt] + d.immediate);
+			registers[0] = 0;
+			return;
+		case MipsOpcode.SC:
+			registers[d.rs] = storeConditional(registers[d.rt] + d.immediate, registers[d.rs]);
+			registers[0] = 0;
+			return;
+		case MipsOpcode.SYNC:
+			VarHandle.fullFence();
+			return;
+		}
+		d.instruction.call(registers, d.rd, d.rs, d.rt, d.immediate);
+		registers[0] = 0;
 	}
 
-	public static int parse(String registerString) {
-		if (registerString.charAt(0) != '$') return -1;
+	private int loadLinked(int address) {
+		int value = memory.loadLinked(address);
+		linked = true;
+		linkedAddress = address;
+		linkedValue = value;
+		return value;
+	}
 
-		if (registerString.equals("$at"))
-			return MipsInterpreter.REGISTER_AT;
-		else if (registerString.equals("$gp"))
-			return MipsInterpreter.REGISTER_GP;
-		else if (registerString.equals("$sp"))
-			return MipsInterpreter.REGISTER_SP;
-		else if (registerString.equals("$ra"))
-			return MipsInterpreter.REGISTER_RA;
+	/*
+	 * Stores value and returns 1 if the word ll last read is unchanged, else
+	 * 0. The compare-and-set can't see a store that put back the same value,
+	 * which a real sc would fail on; lock-free code on MIPS tolerates both.
+	 */
+	private int storeConditional(int address, int value) {
+		boolean stored = linked && address == linkedAddress && memory.storeConditional(address, linkedValue, value);
+		linked = false;
+		return stored ? 1 : 0;
+	}
 
-		try {
-			String registerNumber = registerString.substring(1, registerString.length());
-			int registerIndex = Integer.parseInt(registerNumber);
-			if (registerIndex < 0 || registerIndex > 31) return -1;
-			return registerIndex;
-		} catch (NumberFormatException e) {
-			int offset = 0;
-			switch (registerString.charAt(1)) {
-			case 'v':
-				offset = 2;
-				break;
-			case 'a':
-				offset = 4;
-				break;
-			case 't':
-				offset = 8;
+	public void syscall() {
+		MipsEvents.Syscall event = new MipsEvents.Syscall();
+		event.begin();
+		int service = registers[2];
+		if (service == 60 || service == 61) {
+			hartSyscall(service);
+		} else if (harts == null) {
+			serve(service);
+		} else {
+			synchronized (harts) {
+				synchronized (console) {
+					serve(service);
+				}
+			}
+		}
+		if (!blocked) syscallCounts[service > 0 && service < syscallCounts.length ? service : 0]++;
+		if (event.shouldCommit()) {
+			event.service = service;
+			event.blocked = blocked;
+			event.commit();
+		}
+	}
+
+	/* spawn: a new hart at the address in $a0 with $a1 as its $a0, returning its id; join: waits for hart $a0 and returns its $v0. */
+	private void hartSyscall(int service) {
+		if (service == 60) {
+			if (harts == null) {
+				decodeAll();
+				harts = new MipsHarts(this);
+			}
+			registers[2] = harts.spawn(new MipsInterpreter(this, registers[4], registers[5]));
+		} else {
+			if (harts == null) throw new MipsException("No such hart: " + registers[4]);
+			blocked = !harts.awaitEnd(registers[4]);
+			if (!blocked) registers[2] = harts.getResult(registers[4]);
+		}
+		if (harts.isStopping()) {
+			terminated = true;
+			if (error == null) error = harts.getError();
+		}
+	}
+
+	private void serve(int service) {
+		switch (service) {
+		case 1:
+			console.printInt(registers[4]);
+			break;
+		case 4:
+			console.printString(memory, registers[4]);
+			break;
+		case 5:
+			if (syscallLog != null && syscallLog.isReplaying()) {
+				registers[2] = syscallLog.replayInt();
 				break;
-			case 's':
-				offset = 16;
+			}
+			blocked = console.wouldBlock(5);
+			if (!blocked) registers[2] = syscallLog == null ? console.readInt() : syscallLog.recordInt(console);
+			break;
+		case 8:
+			if (syscallLog != null && syscallLog.isReplaying()) {
+				syscallLog.replayLine(memory, registers[4], registers[5]);
 				break;
 			}
-			int registerIndex = Integer.parseInt("" + registerString.charAt(2));
-			return Integer.parseInt("" + (registerIndex + offset));
+			blocked = console.wouldBlock(8);
+			if (blocked) break;
+			if (syscallLog == null) {
+				console.readLine(memory, registers[4], registers[5]);
+			} else {
+				syscallLog.recordLine(console, memory, registers[4], registers[5]);
+			}
+			break;
+		case 9:
+			registers[2] = memory.sbrk(registers[4]);
+			break;
+		case 10:
+			terminated = true;
+			break;
+		case 11:
+			console.printChar(registers[4]);
+			break;
 		}
 	}
 
-	public int getValue() {
-		return value;
+	public int getRegister(int registerIndex) {
+		return registers[registerIndex];
 	}
 
-	public void setValue(int value) {
-		this.value = value;
-		label = "";
+	public void setRegister(int registerIndex, int value) {
+		if (registerIndex != 0) registers[registerIndex] = value;
 	}
 
-	public String toString() {
-		if (label.length() > 0) return interpreter.getLabel(label);
-		return "" + value;
+	public Integer getLabelAddress(String labelName) {
+		return new MipsDecoder(labels, dataAddresses).labelAddress(labelName);
 	}
-}
 
-abstract class MipsInstruction {
-	public abstract char getType();
-	public abstract void call(int pc, MipsRegister rd, MipsRegister rs, MipsRegister rt, MipsRegister hi, MipsRegister lo, int immediate, String label);
-}
\ No newline at end of file
+	public MipsMemory getMemory() {
+		return memory;
+	}
+};
\ No newline at end of file
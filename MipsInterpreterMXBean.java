@@ -0,0 +1,32 @@
+/*
+ * The live counters of one interpreter, as registered by MipsMonitor under
+ * MipsInterpreter:type=Interpreter,name=NAME. Values are read without
+ * stopping the interpreter, so they may be a moment out of date.
+ */
+public interface MipsInterpreterMXBean {
+
+	String getName();
+
+	String getEngine();
+
+	/* RUNNING, BLOCKED or TERMINATED. */
+	String getStatus();
+
+	/* The runtime error that stopped the program, or null. */
+	String getError();
+
+	int getProgramLines();
+
+	long getInstructionsExecuted();
+
+	long getSyscalls();
+
+	/* Completed syscalls by service number; index 0 counts unknown services. */
+	long[] getSyscallsByService();
+
+	/* Bytes in the data segment, including the sbrk heap. */
+	int getDataSegmentSize();
+
+	/* Bytes of stack allocated so far; it grows as deeper addresses are touched. */
+	int getStackSize();
+}
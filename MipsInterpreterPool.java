@@ -0,0 +1,72 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Idle interpreters for one program, so that running it again costs a reset
+ * instead of a load and a fresh register file, memory and console. acquire
+ * hands out an interpreter at the program's start, forked from one kept at
+ * the start when none is idle, so a new interpreter shares the data segment
+ * until it writes to it; release resets it,
+ * detaches its streams and keeps it for a later acquire, up to maxIdle of
+ * them. The pool may be shared between threads; each interpreter is used by
+ * one thread at a time between acquire and release.
+ */
+public class MipsInterpreterPool {
+
+	private final MipsProgram program;
+	private final int maxIdle;
+	private final MipsInterpreter start;
+	private final ConcurrentLinkedQueue<MipsInterpreter> idle = new ConcurrentLinkedQueue<MipsInterpreter>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	public MipsInterpreterPool(MipsProgram program, MipsInterpreter.Engine engine, int maxIdle) {
+		this.program = program;
+		this.maxIdle = maxIdle;
+		start = new MipsInterpreter(program);
+		start.setEngine(engine);
+	}
+
+	public MipsProgram getProgram() {
+		return program;
+	}
+
+	public MipsInterpreter acquire() {
+		MipsInterpreter interpreter = idle.poll();
+		if (interpreter != null) {
+			idleCount.decrementAndGet();
+			return interpreter;
+		}
+		synchronized (start) {
+			return start.fork();
+		}
+	}
+
+	/* Takes back an interpreter from acquire; it must not be used afterwards. */
+	public void release(MipsInterpreter interpreter) {
+		interpreter.setOutput(OutputStream.nullOutputStream());
+		interpreter.setInput(InputStream.nullInputStream());
+		interpreter.setErrorOutput(System.err);
+		if (interpreter.getProgram() != program) interpreter.setProgram(program);
+		interpreter.reset();
+		if (idleCount.incrementAndGet() <= maxIdle) {
+			idle.add(interpreter);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+
+	/* Runs the program once from in to out and returns its runtime error, or null if it ended normally. */
+	public String run(InputStream in, OutputStream out) {
+		MipsInterpreter interpreter = acquire();
+		try {
+			interpreter.setInput(in);
+			interpreter.setOutput(out);
+			interpreter.run();
+			return interpreter.getError();
+		} finally {
+			release(interpreter);
+		}
+	}
+}
@@ -0,0 +1,730 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * Second tier of the jit engine. Counts entries into each basic block and,
+ * once a block has been entered threshold times, translates it into the
+ * execute method of a hidden class. Within the block MIPS registers live in
+ * JVM locals; the ones written are spilled back to the register file at
+ * every exit, including a fault, which is rethrown as a MipsJitFault
+ * naming the faulting line. A block stops before a syscall, halt or atomic, which are left
+ * to the interpreter, and execute returns the line to continue at.
+ */
+public class MipsJit {
+
+	public static final int DEFAULT_THRESHOLD = 50;
+	private static final int MAX_BLOCK_INSTRUCTIONS = 1000;
+
+	private MipsControlFlow controlFlow;
+	private DecodedInstruction[] text;
+	private int threshold;
+	private int[] entryCounts;
+	private MipsCompiledBlock[] compiled;
+	private int[] instructionCounts;
+	private int compiledCount;
+	private PrintStream err;
+
+	/* Blocks that can't be compiled are reported to err and left to the interpreter. */
+	public MipsJit(MipsControlFlow controlFlow, int threshold, PrintStream err) {
+		this.controlFlow = controlFlow;
+		this.text = controlFlow.getText();
+		this.threshold = threshold;
+		this.err = err;
+		entryCounts = new int[text.length];
+		compiled = new MipsCompiledBlock[text.length];
+		instructionCounts = new int[text.length];
+	}
+
+	/* Called on entry to the block at line; returns its compiled form once it is hot, or null for a line outside every block. */
+	public MipsCompiledBlock enter(int line) {
+		MipsCompiledBlock block = compiled[line];
+		if (block != null || entryCounts[line] < 0) return block;
+		if (++entryCounts[line] < threshold) return null;
+		BasicBlock basicBlock = controlFlow.getBlock(line);
+		block = basicBlock == null ? null : compile(basicBlock);
+		if (block == null) {
+			entryCounts[line] = -1;
+		} else {
+			compiled[line] = block;
+			compiledCount++;
+		}
+		return block;
+	}
+
+	/* Number of instructions a compiled block executes on every pass. */
+	public int getInstructionCount(int line) {
+		return instructionCounts[line];
+	}
+
+	/* Instructions the block that threw fault executed, counting the one that faulted. */
+	public int getInstructionCount(MipsJitFault fault) {
+		int instructions = 0;
+		for (int line = fault.start; line <= fault.line; line++)
+			if (text[line].opcode != MipsOpcode.NOP) instructions++;
+		return instructions;
+	}
+
+	public int getCompiledCount() {
+		return compiledCount;
+	}
+
+	private MipsCompiledBlock compile(BasicBlock block) {
+		int stop = block.start;
+		int instructions = 0;
+		while (stop <= block.end && text[stop].opcode != MipsOpcode.SYSCALL && text[stop].opcode != MipsOpcode.HALT
+				&& !MipsOpcode.isAtomic(text[stop].opcode)) {
+			if (text[stop].opcode != MipsOpcode.NOP) instructions++;
+			stop++;
+		}
+		if (instructions == 0 || instructions > MAX_BLOCK_INSTRUCTIONS) return null;
+		try {
+			byte[] classBytes = new BlockCompiler(text, block.start, stop).compile();
+			Class<?> blockClass = MethodHandles.lookup().defineHiddenClass(classBytes, true).lookupClass();
+			instructionCounts[block.start] = instructions;
+			return (MipsCompiledBlock) blockClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			err.println("Couldn't compile block at line " + (block.start + 1) + ": " + e);
+			return null;
+		} catch (LinkageError e) {
+			err.println("Couldn't compile block at line " + (block.start + 1) + ": " + e);
+			return null;
+		}
+	}
+
+	/* Translates lines [start, stop) into a class implementing MipsCompiledBlock. */
+	private static class BlockCompiler {
+		private static final int LOCAL_LINE = 3;
+		private static final int LOCAL_REGISTERS = 4;
+		private static final int LOCAL_LONG = LOCAL_REGISTERS + 34;
+		private static final int LOCAL_INT = LOCAL_LONG + 2;
+		private static final int LOCAL_EXCEPTION = LOCAL_INT + 1;
+
+		private DecodedInstruction[] text;
+		private int start, stop;
+		private ClassFileWriter classFile = new ClassFileWriter();
+		private CodeWriter code = new CodeWriter(classFile);
+		private boolean[] used = new boolean[34];
+		private boolean[] written = new boolean[34];
+
+		BlockCompiler(DecodedInstruction[] text, int start, int stop) {
+			this.text = text;
+			this.start = start;
+			this.stop = stop;
+		}
+
+		byte[] compile() {
+			for (int line = start; line < stop; line++) {
+				DecodedInstruction d = text[line];
+				markUsed(d.rd);
+				markUsed(d.rs);
+				markUsed(d.rt);
+				if (d.opcode == MipsOpcode.MFHI || MipsOpcode.isMultiplyOrDivide(d.opcode)) {
+					markUsed(MipsInterpreter.REGISTER_HI);
+					markUsed(MipsInterpreter.REGISTER_LO);
+				} else if (d.opcode == MipsOpcode.MFLO) {
+					markUsed(MipsInterpreter.REGISTER_LO);
+				} else if (d.opcode == MipsOpcode.JAL) {
+					markUsed(MipsInterpreter.REGISTER_RA);
+				}
+			}
+
+			code.iconst(start);
+			code.istore(LOCAL_LINE);
+			for (int i = 1; i < 34; i++) {
+				if (!used[i]) continue;
+				code.aload(1);
+				code.iconst(i);
+				code.op(CodeWriter.IALOAD);
+				code.istore(LOCAL_REGISTERS + i);
+			}
+			int bodyStart = code.position();
+			boolean exited = false;
+			for (int line = start; line < stop; line++)
+				exited = emit(text[line]);
+			if (!exited) exit(stop);
+			int bodyEnd = code.position();
+
+			int handler = code.position();
+			code.astore(LOCAL_EXCEPTION);
+			spill();
+			code.newObject("MipsJitFault");
+			code.op(CodeWriter.DUP);
+			code.iconst(start);
+			code.iload(LOCAL_LINE);
+			code.aload(LOCAL_EXCEPTION);
+			code.invoke(CodeWriter.INVOKESPECIAL, "MipsJitFault", "<init>", "(IILjava/lang/Throwable;)V");
+			code.op(CodeWriter.ATHROW);
+			code.exceptionHandler(bodyStart, bodyEnd, handler, "java/lang/RuntimeException");
+
+			return classFile.toByteArray("MipsCompiledBlock$" + start, "MipsCompiledBlock",
+					"execute", "([ILMipsMemory;)I", code, 12, LOCAL_EXCEPTION + 1);
+		}
+
+		private void markUsed(int register) {
+			if (register > 0) used[register] = true;
+		}
+
+		/* Emits one instruction and returns true if it ended the block. */
+		private boolean emit(DecodedInstruction d) {
+			switch (d.opcode) {
+			case MipsOpcode.NOP:
+			case MipsOpcode.NOOP:
+				return false;
+			case MipsOpcode.MOVE:
+				load(d.rt);
+				store(d.rs);
+				return false;
+			case MipsOpcode.ADD:
+			case MipsOpcode.ADDU:
+				binary(d, CodeWriter.IADD);
+				return false;
+			case MipsOpcode.SUB:
+			case MipsOpcode.SUBU:
+				binary(d, CodeWriter.ISUB);
+				return false;
+			case MipsOpcode.AND:
+				binary(d, CodeWriter.IAND);
+				return false;
+			case MipsOpcode.OR:
+				binary(d, CodeWriter.IOR);
+				return false;
+			case MipsOpcode.XOR:
+				binary(d, CodeWriter.IXOR);
+				return false;
+			case MipsOpcode.SLLV:
+				binary(d, CodeWriter.ISHL);
+				return false;
+			case MipsOpcode.SRLV:
+				binary(d, CodeWriter.IUSHR);
+				return false;
+			case MipsOpcode.SLT:
+				load(d.rs);
+				load(d.rt);
+				setIfLess("compare");
+				store(d.rd);
+				return false;
+			case MipsOpcode.SLTU:
+				load(d.rs);
+				load(d.rt);
+				setIfLess("compareUnsigned");
+				store(d.rd);
+				return false;
+			case MipsOpcode.SLL:
+				immediate(d, CodeWriter.ISHL);
+				return false;
+			case MipsOpcode.SRL:
+				immediate(d, CodeWriter.IUSHR);
+				return false;
+			case MipsOpcode.SRA:
+				immediate(d, CodeWriter.ISHR);
+				return false;
+			case MipsOpcode.ADDI:
+			case MipsOpcode.ADDIU:
+				immediate(d, CodeWriter.IADD);
+				return false;
+			case MipsOpcode.ANDI:
+				immediate(d, CodeWriter.IAND);
+				return false;
+			case MipsOpcode.ORI:
+				immediate(d, CodeWriter.IOR);
+				return false;
+			case MipsOpcode.XORI:
+				immediate(d, CodeWriter.IXOR);
+				return false;
+			case MipsOpcode.SLTI:
+				load(d.rs);
+				code.iconst(d.immediate);
+				setIfLess("compare");
+				store(d.rd);
+				return false;
+			case MipsOpcode.SLTIU:
+				load(d.rs);
+				code.iconst(d.immediate);
+				setIfLess("compareUnsigned");
+				store(d.rd);
+				return false;
+			case MipsOpcode.LI:
+			case MipsOpcode.LA:
+				code.iconst(d.immediate);
+				store(d.rd);
+				return false;
+			case MipsOpcode.LUI:
+				code.iconst(d.immediate << 16);
+				store(d.rd);
+				return false;
+			case MipsOpcode.MFHI:
+				load(MipsInterpreter.REGISTER_HI);
+				store(d.rd);
+				return false;
+			case MipsOpcode.MFLO:
+				load(MipsInterpreter.REGISTER_LO);
+				store(d.rd);
+				return false;
+			case MipsOpcode.MULT:
+			case MipsOpcode.MULTU:
+				load(d.rs);
+				toLong(d.opcode == MipsOpcode.MULTU);
+				load(d.rt);
+				toLong(d.opcode == MipsOpcode.MULTU);
+				code.op(CodeWriter.LMUL);
+				code.lstore(LOCAL_LONG);
+				code.lload(LOCAL_LONG);
+				code.iconst(32);
+				code.op(CodeWriter.LUSHR);
+				code.op(CodeWriter.L2I);
+				store(MipsInterpreter.REGISTER_HI);
+				code.lload(LOCAL_LONG);
+				code.op(CodeWriter.L2I);
+				store(MipsInterpreter.REGISTER_LO);
+				return false;
+			case MipsOpcode.DIV:
+				setLine(d);
+				load(d.rs);
+				load(d.rt);
+				code.op(CodeWriter.IREM);
+				store(MipsInterpreter.REGISTER_HI);
+				load(d.rs);
+				load(d.rt);
+				code.op(CodeWriter.IDIV);
+				store(MipsInterpreter.REGISTER_LO);
+				return false;
+			case MipsOpcode.DIVU:
+				setLine(d);
+				load(d.rs);
+				load(d.rt);
+				code.invoke(CodeWriter.INVOKESTATIC, "java/lang/Integer", "remainderUnsigned", "(II)I");
+				store(MipsInterpreter.REGISTER_HI);
+				load(d.rs);
+				load(d.rt);
+				code.invoke(CodeWriter.INVOKESTATIC, "java/lang/Integer", "divideUnsigned", "(II)I");
+				store(MipsInterpreter.REGISTER_LO);
+				return false;
+			case MipsOpcode.LW:
+				memoryLoad(d, "loadWord", 0);
+				return false;
+			case MipsOpcode.LH:
+				memoryLoad(d, "loadHalf", 0);
+				return false;
+			case MipsOpcode.LHU:
+				memoryLoad(d, "loadHalf", 0xffff);
+				return false;
+			case MipsOpcode.LB:
+				memoryLoad(d, "loadByte", 0);
+				return false;
+			case MipsOpcode.LBU:
+				memoryLoad(d, "loadByte", 0xff);
+				return false;
+			case MipsOpcode.SW:
+				memoryStore(d, "storeWord");
+				return false;
+			case MipsOpcode.SH:
+				memoryStore(d, "storeHalf");
+				return false;
+			case MipsOpcode.SB:
+				memoryStore(d, "storeByte");
+				return false;
+			case MipsOpcode.J:
+				exit(d.target);
+				return true;
+			case MipsOpcode.JAL:
+				code.iconst(MipsInterpreter.TEXT_BASE + 4 * (d.line + 1));
+				store(MipsInterpreter.REGISTER_RA);
+				exit(d.target);
+				return true;
+			case MipsOpcode.JR:
+				setLine(d);
+				load(d.rs);
+				code.invoke(CodeWriter.INVOKESTATIC, "MipsInterpreter", "jumpTarget", "(I)I");
+				code.istore(LOCAL_INT);
+				spill();
+				code.iload(LOCAL_INT);
+				code.op(CodeWriter.IRETURN);
+				return true;
+			case MipsOpcode.BEQ:
+			case MipsOpcode.BNE:
+				load(d.rd);
+				load(d.rs);
+				branch(d, d.opcode == MipsOpcode.BEQ ? CodeWriter.IF_ICMPEQ : CodeWriter.IF_ICMPNE);
+				return true;
+			case MipsOpcode.BEQ_IMM:
+			case MipsOpcode.BNE_IMM:
+				load(d.rd);
+				code.iconst(d.immediate);
+				branch(d, d.opcode == MipsOpcode.BEQ_IMM ? CodeWriter.IF_ICMPEQ : CodeWriter.IF_ICMPNE);
+				return true;
+			case MipsOpcode.BEQZ:
+				load(d.rd);
+				branch(d, CodeWriter.IFEQ);
+				return true;
+			case MipsOpcode.BGEZ:
+				load(d.rd);
+				branch(d, CodeWriter.IFGE);
+				return true;
+			case MipsOpcode.BGTZ:
+				load(d.rd);
+				branch(d, CodeWriter.IFGT);
+				return true;
+			case MipsOpcode.BLEZ:
+				load(d.rd);
+				branch(d, CodeWriter.IFLE);
+				return true;
+			case MipsOpcode.BLTZ:
+				load(d.rd);
+				branch(d, CodeWriter.IFLT);
+				return true;
+			}
+			throw new IllegalArgumentException("Can't compile " + d);
+		}
+
+		private void load(int register) {
+			if (register == 0) {
+				code.iconst(0);
+			} else {
+				code.iload(LOCAL_REGISTERS + register);
+			}
+		}
+
+		private void store(int register) {
+			if (register == 0) {
+				code.op(CodeWriter.POP);
+			} else {
+				code.istore(LOCAL_REGISTERS + register);
+				written[register] = true;
+			}
+		}
+
+		private void binary(DecodedInstruction d, int opcode) {
+			load(d.rs);
+			load(d.rt);
+			code.op(opcode);
+			store(d.rd);
+		}
+
+		private void immediate(DecodedInstruction d, int opcode) {
+			load(d.rs);
+			code.iconst(d.immediate);
+			code.op(opcode);
+			store(d.rd);
+		}
+
+		/* Integer.compare(a, b) >>> 31 is 1 exactly when a < b. */
+		private void setIfLess(String compareMethod) {
+			code.invoke(CodeWriter.INVOKESTATIC, "java/lang/Integer", compareMethod, "(II)I");
+			code.iconst(31);
+			code.op(CodeWriter.IUSHR);
+		}
+
+		private void toLong(boolean unsigned) {
+			if (unsigned) {
+				code.invoke(CodeWriter.INVOKESTATIC, "java/lang/Integer", "toUnsignedLong", "(I)J");
+			} else {
+				code.op(CodeWriter.I2L);
+			}
+		}
+
+		private void memoryLoad(DecodedInstruction d, String method, int mask) {
+			setLine(d);
+			code.aload(2);
+			load(d.rt);
+			code.iconst(d.immediate);
+			code.op(CodeWriter.IADD);
+			code.invoke(CodeWriter.INVOKEVIRTUAL, "MipsMemory", method, "(I)I");
+			if (mask != 0) {
+				code.iconst(mask);
+				code.op(CodeWriter.IAND);
+			}
+			store(d.rs);
+		}
+
+		private void memoryStore(DecodedInstruction d, String method) {
+			setLine(d);
+			code.aload(2);
+			load(d.rt);
+			code.iconst(d.immediate);
+			code.op(CodeWriter.IADD);
+			load(d.rs);
+			code.invoke(CodeWriter.INVOKEVIRTUAL, "MipsMemory", method, "(II)V");
+		}
+
+		private void setLine(DecodedInstruction d) {
+			code.iconst(d.line);
+			code.istore(LOCAL_LINE);
+		}
+
+		private void branch(DecodedInstruction d, int opcode) {
+			int taken = code.newLabel();
+			code.jump(opcode, taken);
+			exit(d.line + 1);
+			code.bind(taken);
+			exit(d.target);
+		}
+
+		private void exit(int nextLine) {
+			spill();
+			code.iconst(nextLine);
+			code.op(CodeWriter.IRETURN);
+		}
+
+		private void spill() {
+			for (int i = 1; i < 34; i++) {
+				if (!written[i]) continue;
+				code.aload(1);
+				code.iconst(i);
+				code.iload(LOCAL_REGISTERS + i);
+				code.op(CodeWriter.IASTORE);
+			}
+		}
+	}
+}
+
+/*
+ * Just enough of the class file format for MipsJit: one final class with a
+ * no-argument constructor and a single method, written as version 49 so
+ * branches need no stack map frames.
+ */
+class ClassFileWriter {
+	private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private HashMap<String, Integer> poolIndexes = new HashMap<String, Integer>();
+	private int poolCount = 1;
+
+	int utf8(String value) {
+		Integer index = poolIndexes.get("U" + value);
+		if (index != null) return index;
+		pool.write(1);
+		writeShort(pool, value.length());
+		for (int i = 0; i < value.length(); i++)
+			pool.write(value.charAt(i));
+		return addEntry("U" + value);
+	}
+
+	int classRef(String name) {
+		Integer index = poolIndexes.get("C" + name);
+		if (index != null) return index;
+		int nameIndex = utf8(name);
+		pool.write(7);
+		writeShort(pool, nameIndex);
+		return addEntry("C" + name);
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		String key = "M" + owner + "." + name + descriptor;
+		Integer index = poolIndexes.get(key);
+		if (index != null) return index;
+		int classIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int descriptorIndex = utf8(descriptor);
+		Integer nameAndType = poolIndexes.get("N" + name + descriptor);
+		if (nameAndType == null) {
+			pool.write(12);
+			writeShort(pool, nameIndex);
+			writeShort(pool, descriptorIndex);
+			nameAndType = addEntry("N" + name + descriptor);
+		}
+		pool.write(10);
+		writeShort(pool, classIndex);
+		writeShort(pool, nameAndType);
+		return addEntry(key);
+	}
+
+	int integer(int value) {
+		Integer index = poolIndexes.get("I" + value);
+		if (index != null) return index;
+		pool.write(3);
+		writeInt(pool, value);
+		return addEntry("I" + value);
+	}
+
+	byte[] toByteArray(String className, String interfaceName, String methodName, String descriptor,
+			CodeWriter code, int maxStack, int maxLocals) {
+		int thisIndex = classRef(className);
+		int superIndex = classRef("java/lang/Object");
+		int interfaceIndex = classRef(interfaceName);
+		int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+		int initName = utf8("<init>");
+		int initDescriptor = utf8("()V");
+		int methodNameIndex = utf8(methodName);
+		int descriptorIndex = utf8(descriptor);
+		int codeName = utf8("Code");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeInt(out, 0xcafebabe);
+		writeShort(out, 0);
+		writeShort(out, 49);
+		writeShort(out, poolCount);
+		out.write(pool.toByteArray(), 0, pool.size());
+		writeShort(out, 0x0031);
+		writeShort(out, thisIndex);
+		writeShort(out, superIndex);
+		writeShort(out, 1);
+		writeShort(out, interfaceIndex);
+		writeShort(out, 0);
+		writeShort(out, 2);
+
+		byte[] init = {0x2a, (byte) 0xb7, (byte) (objectInit >> 8), (byte) objectInit, (byte) 0xb1};
+		writeMethod(out, initName, initDescriptor, codeName, init, new int[0], 1, 1);
+		writeMethod(out, methodNameIndex, descriptorIndex, codeName, code.toByteArray(), code.exceptionTable(), maxStack, maxLocals);
+
+		writeShort(out, 0);
+		return out.toByteArray();
+	}
+
+	private void writeMethod(ByteArrayOutputStream out, int nameIndex, int descriptorIndex, int codeName,
+			byte[] code, int[] exceptionTable, int maxStack, int maxLocals) {
+		writeShort(out, 0x0001);
+		writeShort(out, nameIndex);
+		writeShort(out, descriptorIndex);
+		writeShort(out, 1);
+		writeShort(out, codeName);
+		writeInt(out, 12 + code.length + exceptionTable.length * 2);
+		writeShort(out, maxStack);
+		writeShort(out, maxLocals);
+		writeInt(out, code.length);
+		out.write(code, 0, code.length);
+		writeShort(out, exceptionTable.length / 4);
+		for (int entry : exceptionTable)
+			writeShort(out, entry);
+		writeShort(out, 0);
+	}
+
+	private int addEntry(String key) {
+		poolIndexes.put(key, poolCount);
+		return poolCount++;
+	}
+
+	static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	static void writeInt(ByteArrayOutputStream out, int value) {
+		writeShort(out, value >>> 16);
+		writeShort(out, value);
+	}
+}
+
+class CodeWriter {
+	static final int POP = 0x57, DUP = 0x59;
+	static final int IALOAD = 0x2e, IASTORE = 0x4f;
+	static final int IADD = 0x60, ISUB = 0x64, IDIV = 0x6c, IREM = 0x70, LMUL = 0x69;
+	static final int ISHL = 0x78, ISHR = 0x7a, IUSHR = 0x7c, LUSHR = 0x7d;
+	static final int IAND = 0x7e, IOR = 0x80, IXOR = 0x82;
+	static final int I2L = 0x85, L2I = 0x88;
+	static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+	static final int IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, GOTO = 0xa7;
+	static final int IRETURN = 0xac, ATHROW = 0xbf;
+	static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, NEW = 0xbb;
+
+	private ClassFileWriter classFile;
+	private ByteArrayOutputStream code = new ByteArrayOutputStream();
+	private ArrayList<Integer> labelPositions = new ArrayList<Integer>();
+	private ArrayList<int[]> fixups = new ArrayList<int[]>();
+	private ArrayList<Integer> exceptionTable = new ArrayList<Integer>();
+
+	CodeWriter(ClassFileWriter classFile) {
+		this.classFile = classFile;
+	}
+
+	int position() {
+		return code.size();
+	}
+
+	void op(int opcode) {
+		code.write(opcode);
+	}
+
+	void iconst(int value) {
+		if (value >= -1 && value <= 5) {
+			code.write(0x03 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			code.write(0x10);
+			code.write(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			code.write(0x11);
+			ClassFileWriter.writeShort(code, value);
+		} else {
+			code.write(0x13);
+			ClassFileWriter.writeShort(code, classFile.integer(value));
+		}
+	}
+
+	void iload(int local) {
+		localOp(0x15, local);
+	}
+
+	void istore(int local) {
+		localOp(0x36, local);
+	}
+
+	void lload(int local) {
+		localOp(0x16, local);
+	}
+
+	void lstore(int local) {
+		localOp(0x37, local);
+	}
+
+	void aload(int local) {
+		localOp(0x19, local);
+	}
+
+	void astore(int local) {
+		localOp(0x3a, local);
+	}
+
+	void invoke(int opcode, String owner, String name, String descriptor) {
+		code.write(opcode);
+		ClassFileWriter.writeShort(code, classFile.methodRef(owner, name, descriptor));
+	}
+
+	void newObject(String className) {
+		code.write(NEW);
+		ClassFileWriter.writeShort(code, classFile.classRef(className));
+	}
+
+	int newLabel() {
+		labelPositions.add(-1);
+		return labelPositions.size() - 1;
+	}
+
+	void bind(int label) {
+		labelPositions.set(label, code.size());
+	}
+
+	void jump(int opcode, int label) {
+		fixups.add(new int[] {code.size(), label});
+		code.write(opcode);
+		ClassFileWriter.writeShort(code, 0);
+	}
+
+	void exceptionHandler(int start, int end, int handler, String exceptionClass) {
+		exceptionTable.add(start);
+		exceptionTable.add(end);
+		exceptionTable.add(handler);
+		exceptionTable.add(classFile.classRef(exceptionClass));
+	}
+
+	int[] exceptionTable() {
+		int[] table = new int[exceptionTable.size()];
+		for (int i = 0; i < table.length; i++)
+			table[i] = exceptionTable.get(i);
+		return table;
+	}
+
+	byte[] toByteArray() {
+		byte[] bytes = code.toByteArray();
+		for (int[] fixup : fixups) {
+			int offset = labelPositions.get(fixup[1]) - fixup[0];
+			bytes[fixup[0] + 1] = (byte) (offset >> 8);
+			bytes[fixup[0] + 2] = (byte) offset;
+		}
+		return bytes;
+	}
+
+	private void localOp(int opcode, int local) {
+		code.write(opcode);
+		code.write(local);
+	}
+}
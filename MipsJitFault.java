@@ -0,0 +1,13 @@
+/* Thrown out of a compiled block, carrying the block's first line and the line that faulted. */
+class MipsJitFault extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public final int start;
+	public final int line;
+
+	public MipsJitFault(int start, int line, Throwable cause) {
+		super(cause);
+		this.start = start;
+		this.line = line;
+	}
+}
@@ -0,0 +1,15 @@
+/* A runtime error raised because the program went over one of the limits set on its interpreter. */
+class MipsLimitException extends MipsException {
+	private static final long serialVersionUID = 1L;
+
+	private final MipsInterpreter.Termination reason;
+
+	MipsLimitException(MipsInterpreter.Termination reason, String message) {
+		super(message);
+		this.reason = reason;
+	}
+
+	MipsInterpreter.Termination getReason() {
+		return reason;
+	}
+}
@@ -0,0 +1,486 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Loads assembly source straight from a byte buffer, normally a read-only
+ * mapping of the file. One pass over the bytes strips comments, switches
+ * sections, records labels and writes .data directives into memory; text
+ * lines are remembered only as offsets into the buffer and are decoded once
+ * every label is known. No String is kept per line, so very large generated
+ * sources load without holding a copy of the file on the heap.
+ *
+ * With a MipsProgramCache, the loaded program is also saved as a binary
+ * image (decoded text, labels and the initialized data segment) keyed by the
+ * source's hash, and later loads of the same source read the image instead
+ * of parsing.
+ *
+ * A lazy loader stops after the scan: text lines are left as
+ * DecodedInstruction.UNDECODED and the source stays mapped until the
+ * interpreter asks for each line with decode, the first time it runs. Lazy
+ * loading is skipped when there's a cache, which needs the decoded image.
+ */
+public class MipsLoader {
+
+	private static final int IMAGE_MAGIC = 0x4d495043;
+	private static final int IMAGE_VERSION = 2;
+
+	private HashMap<String, Integer> labels;
+	private HashMap<String, Integer> dataAddresses;
+	private MipsMemory memory;
+	private PrintStream err;
+	private MipsProgramCache cache;
+
+	private ByteBuffer source;
+	private int[] textOffsets;
+	private int[] textLengths;
+	private int lineCount;
+	private int firstLineOfText;
+	private int invalidLines;
+	private boolean lazy;
+	private MipsDecoder decoder;
+	private int undecodedLines;
+
+	private long loadNanos;
+	private long sourceBytes;
+	private boolean cacheHit;
+
+	public MipsLoader(HashMap<String, Integer> labels, HashMap<String, Integer> dataAddresses, MipsMemory memory, PrintStream err) {
+		this.labels = labels;
+		this.dataAddresses = dataAddresses;
+		this.memory = memory;
+		this.err = err;
+	}
+
+	public DecodedInstruction[] load(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) throw new IOException("File too large to map: " + size + " bytes");
+			return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		} finally {
+			channel.close();
+		}
+	}
+
+	public DecodedInstruction[] load(ByteBuffer source) {
+		long start = System.nanoTime();
+		sourceBytes = source.limit();
+		DecodedInstruction[] text = null;
+		String key = null;
+		if (cache != null) {
+			key = cache.key(source);
+			try {
+				ByteBuffer image = cache.find(key);
+				if (image != null) text = readImage(image);
+			} catch (IOException | RuntimeException e) {
+				/* An unreadable or damaged image is replaced below. */
+			}
+		}
+		cacheHit = text != null;
+		if (text == null) {
+			text = parse(source);
+			if (cache != null && invalidLines == 0) {
+				try {
+					ByteArrayOutputStream image = new ByteArrayOutputStream();
+					writeImage(new DataOutputStream(image), text, firstLineOfText);
+					cache.store(key, image.toByteArray());
+				} catch (IOException e) {
+					err.println("Couldn't cache program: " + e.getMessage());
+				}
+			}
+		}
+
+		loadNanos = System.nanoTime() - start;
+		return text;
+	}
+
+	public void setCache(MipsProgramCache cache) {
+		this.cache = cache;
+	}
+
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	/* Whether the last load left lines for decode. */
+	public boolean hasUndecodedLines() {
+		return undecodedLines > 0;
+	}
+
+	/* Decodes a line the last load left undecoded; the source is released after the last one. */
+	public DecodedInstruction decode(int line) {
+		DecodedInstruction d = decoder.decode(string(textOffsets[line], textOffsets[line] + textLengths[line]), line);
+		if (--undecodedLines == 0) {
+			source = null;
+			textOffsets = textLengths = null;
+			decoder = null;
+		}
+		return d;
+	}
+
+	private DecodedInstruction[] parse(ByteBuffer source) {
+		this.source = source;
+		textOffsets = new int[1024];
+		textLengths = new int[1024];
+		lineCount = 0;
+		firstLineOfText = -1;
+		invalidLines = 0;
+		scan();
+		if (firstLineOfText < 0) firstLineOfText = 0;
+		decoder = new MipsDecoder(labels, dataAddresses);
+		DecodedInstruction[] text = new DecodedInstruction[lineCount];
+		boolean deferred = lazy && cache == null;
+		undecodedLines = 0;
+		for (int i = 0; i < lineCount; i++) {
+			if (i < firstLineOfText || textLengths[i] == 0) {
+				text[i] = DecodedInstruction.NOP;
+			} else if (deferred) {
+				text[i] = DecodedInstruction.UNDECODED;
+				undecodedLines++;
+			} else {
+				text[i] = decoder.decode(string(textOffsets[i], textOffsets[i] + textLengths[i]), i);
+			}
+		}
+		if (undecodedLines > 0) return text;
+		decoder = null;
+		this.source = null;
+		textOffsets = textLengths = null;
+		return text;
+	}
+
+	/*
+	 * Image layout: magic, version, first line of .text and line count; per
+	 * line an opcode byte, followed for anything but a nop by rd, rs and rt
+	 * bytes and the immediate and target ints; text labels and data labels
+	 * as counted (name, value) pairs; then the data segment's size and bytes.
+	 * Checkpoints embed the same image, taken of a running program.
+	 */
+	void writeImage(DataOutputStream image, DecodedInstruction[] text, int firstLineOfText) throws IOException {
+		image.writeInt(IMAGE_MAGIC);
+		image.writeInt(IMAGE_VERSION);
+		image.writeInt(firstLineOfText);
+		image.writeInt(text.length);
+		for (DecodedInstruction d : text) {
+			image.writeByte(d.opcode);
+			if (d.opcode == MipsOpcode.NOP) continue;
+			image.writeByte(d.rd);
+			image.writeByte(d.rs);
+			image.writeByte(d.rt);
+			image.writeInt(d.immediate);
+			image.writeInt(d.target);
+		}
+		writeNames(image, labels);
+		writeNames(image, dataAddresses);
+		byte[] data = memory.getData();
+		image.writeInt(data.length);
+		image.write(data);
+	}
+
+	private static void writeNames(DataOutputStream image, HashMap<String, Integer> names) throws IOException {
+		image.writeInt(names.size());
+		for (Map.Entry<String, Integer> entry : names.entrySet()) {
+			byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			image.writeInt(name.length);
+			image.write(name);
+			image.writeInt(entry.getValue());
+		}
+	}
+
+	/* Returns null when the image was written by another version; nothing is changed until it has been read in full. */
+	DecodedInstruction[] readImage(ByteBuffer image) {
+		if (image.getInt() != IMAGE_MAGIC || image.getInt() != IMAGE_VERSION) return null;
+		int imageFirstLineOfText = image.getInt();
+		DecodedInstruction[] text = new DecodedInstruction[image.getInt()];
+		for (int i = 0; i < text.length; i++) {
+			int opcode = image.get() & 0xff;
+			if (opcode == MipsOpcode.NOP) {
+				text[i] = DecodedInstruction.NOP;
+				continue;
+			}
+			DecodedInstruction d = new DecodedInstruction(opcode, i);
+			d.rd = image.get();
+			d.rs = image.get();
+			d.rt = image.get();
+			d.immediate = image.getInt();
+			d.target = image.getInt();
+			d.instruction = MipsInterpreter.MIPS_INSTRUCTIONS.get(MipsOpcode.NAMES[opcode]);
+			text[i] = d;
+		}
+		HashMap<String, Integer> imageLabels = readNames(image);
+		HashMap<String, Integer> imageDataAddresses = readNames(image);
+		int dataSize = image.getInt();
+		ByteBuffer data = image.duplicate();
+		data.limit(data.position() + dataSize);
+		image.position(image.position() + dataSize);
+
+		labels.putAll(imageLabels);
+		dataAddresses.putAll(imageDataAddresses);
+		memory.setData(data);
+		firstLineOfText = imageFirstLineOfText;
+		lineCount = text.length;
+		return text;
+	}
+
+	private static HashMap<String, Integer> readNames(ByteBuffer image) {
+		int count = image.getInt();
+		HashMap<String, Integer> names = new HashMap<String, Integer>(count * 4 / 3 + 1);
+		for (int i = 0; i < count; i++) {
+			byte[] name = new byte[image.getInt()];
+			image.get(name);
+			names.put(new String(name, StandardCharsets.UTF_8), image.getInt());
+		}
+		return names;
+	}
+
+	public int getFirstLineOfText() {
+		return firstLineOfText;
+	}
+
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	public long getSourceBytes() {
+		return sourceBytes;
+	}
+
+	public long getLoadNanos() {
+		return loadNanos;
+	}
+
+	/* Whether the last load came from the program cache rather than the source. */
+	public boolean isCacheHit() {
+		return cacheHit;
+	}
+
+	private void scan() {
+		boolean inText = false;
+		String pendingDataLabel = null;
+		int limit = source.limit();
+		int position = 0;
+		while (position < limit) {
+			int start = position, end = position;
+			while (end < limit && source.get(end) != '\n' && source.get(end) != '\r')
+				end++;
+			position = end + 1;
+			if (end < limit && source.get(end) == '\r' && position < limit && source.get(position) == '\n') position++;
+			int line = lineCount++;
+			if (line == textOffsets.length) {
+				textOffsets = Arrays.copyOf(textOffsets, line * 2);
+				textLengths = Arrays.copyOf(textLengths, line * 2);
+			}
+			textLengths[line] = 0;
+
+			start = skipWhitespace(start, end);
+			end = trimEnd(start, stripComment(start, end));
+			if (start == end) continue;
+			if (startsWith(start, end, ".data")) {
+				inText = false;
+				continue;
+			} else if (startsWith(start, end, ".text")) {
+				inText = true;
+				if (firstLineOfText < 0) firstLineOfText = line + 1;
+				continue;
+			}
+			int colonIndex = indexOf(start, end, ':');
+			int quoteIndex = indexOf(start, end, '\"');
+			if (colonIndex >= 0 && (quoteIndex < 0 || colonIndex < quoteIndex)) {
+				String labelName = string(start, trimEnd(start, colonIndex));
+				start = skipWhitespace(colonIndex + 1, end);
+				if (inText) {
+					labels.put(labelName, line);
+				} else {
+					pendingDataLabel = labelName;
+				}
+			}
+			if (start == end) continue;
+			if (inText) {
+				if (source.get(start) != '.' || startsWith(start, end, ".syscall")) {
+					textOffsets[line] = start;
+					textLengths[line] = end - start;
+				}
+			} else {
+				try {
+					declareData(pendingDataLabel, start, end);
+				} catch (NumberFormatException e) {
+					err.println("Invalid data on line " + (line + 1) + ": " + string(start, end));
+					invalidLines++;
+				}
+				pendingDataLabel = null;
+			}
+		}
+	}
+
+	private void declareData(String labelName, int start, int end) {
+		int nameEnd = start;
+		while (nameEnd < end && !isWhitespace(source.get(nameEnd)))
+			nameEnd++;
+		int operands = skipWhitespace(nameEnd, end);
+		int alignment = 1;
+		if (matches(start, nameEnd, ".word") || matches(start, nameEnd, ".space")) {
+			alignment = 4;
+		} else if (matches(start, nameEnd, ".half")) {
+			alignment = 2;
+		} else if (matches(start, nameEnd, ".align")) {
+			alignment = 1 << parseImmediate(operands, end);
+		}
+		int address = memory.allocate(0, alignment);
+		if (labelName != null) dataAddresses.put(labelName, address);
+
+		boolean asciiz = matches(start, nameEnd, ".asciiz");
+		if (asciiz || matches(start, nameEnd, ".ascii")) {
+			int quoteIndex = indexOf(operands, end, '\"');
+			if (quoteIndex < 0) throw new NumberFormatException("Missing string literal");
+			int length = storeStringLiteral(quoteIndex + 1, end, -1);
+			address = memory.allocate(asciiz ? length + 1 : length, 1);
+			storeStringLiteral(quoteIndex + 1, end, address);
+			if (asciiz) memory.storeByte(address + length, 0);
+		} else if (matches(start, nameEnd, ".space")) {
+			memory.allocate(parseImmediate(operands, end), 1);
+		} else if (matches(start, nameEnd, ".word") || matches(start, nameEnd, ".half") || matches(start, nameEnd, ".byte")) {
+			int size = source.get(start + 1) == 'w' ? 4 : source.get(start + 1) == 'h' ? 2 : 1;
+			/* Trailing commas are ignored, as String.split drops trailing empty tokens. */
+			int operandsEnd = end;
+			while (operandsEnd > operands && source.get(operandsEnd - 1) == ',')
+				operandsEnd--;
+			if (operandsEnd < end && operandsEnd == operands) return;
+			end = operandsEnd;
+			for (int tokenStart = operands; tokenStart <= end; ) {
+				int tokenEnd = indexOf(tokenStart, end, ',');
+				if (tokenEnd < 0) tokenEnd = end;
+				int value = parseImmediate(skipWhitespace(tokenStart, tokenEnd), trimEnd(tokenStart, tokenEnd));
+				if (size == 4) {
+					memory.storeWord(memory.allocate(4, 4), value);
+				} else if (size == 2) {
+					memory.storeHalf(memory.allocate(2, 2), value);
+				} else {
+					memory.storeByte(memory.allocate(1, 1), value);
+				}
+				tokenStart = tokenEnd + 1;
+			}
+		}
+	}
+
+	/*
+	 * Decodes the escapes of the string literal starting after its opening
+	 * quote and returns its length. The bytes are stored from address unless
+	 * address is negative, which only measures the literal.
+	 */
+	private int storeStringLiteral(int start, int end, int address) {
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			int c = source.get(i) & 0xff;
+			if (c == '\"') return length;
+			if (c == '\\' && i + 1 < end) {
+				c = source.get(++i) & 0xff;
+				switch (c) {
+				case 'n':
+					c = '\n';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case '0':
+					c = '\0';
+					break;
+				}
+			}
+			if (address >= 0) memory.storeByte(address + length, c);
+			length++;
+		}
+		throw new NumberFormatException("Unterminated string literal");
+	}
+
+	/* MipsDecoder.parseImmediate over bytes: decimal, hex with an optional minus sign, or 'c'. */
+	private int parseImmediate(int start, int end) {
+		if (end - start == 3 && source.get(start) == '\'' && source.get(start + 2) == '\'')
+			return source.get(start + 1) & 0xff;
+		boolean negative = start < end && source.get(start) == '-';
+		int i = negative || (start < end && source.get(start) == '+') ? start + 1 : start;
+		int radix = 10;
+		if (end - i > 2 && source.get(i) == '0' && (source.get(i + 1) == 'x' || source.get(i + 1) == 'X')) {
+			radix = 16;
+			i += 2;
+		}
+		if (i == end) throw new NumberFormatException(string(start, end));
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = Character.digit(source.get(i), radix);
+			if (digit < 0) throw new NumberFormatException(string(start, end));
+			value = value * radix + digit;
+			if (value > 0xffffffffL) throw new NumberFormatException(string(start, end));
+		}
+		if (radix == 16) return negative ? -(int) value : (int) value;
+		if (negative) value = -value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw new NumberFormatException(string(start, end));
+		return (int) value;
+	}
+
+	/* Returns the end of the line without its comment; a # inside a string literal doesn't count. */
+	private int stripComment(int start, int end) {
+		boolean inQuotes = false;
+		for (int i = start; i < end; i++) {
+			byte c = source.get(i);
+			if (c == '\\' && inQuotes) {
+				i++;
+			} else if (c == '\"') {
+				inQuotes = !inQuotes;
+			} else if (c == '#' && !inQuotes) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private int skipWhitespace(int start, int end) {
+		while (start < end && isWhitespace(source.get(start)))
+			start++;
+		return start;
+	}
+
+	private int trimEnd(int start, int end) {
+		while (end > start && isWhitespace(source.get(end - 1)))
+			end--;
+		return end;
+	}
+
+	private int indexOf(int start, int end, char c) {
+		for (int i = start; i < end; i++)
+			if (source.get(i) == c) return i;
+		return -1;
+	}
+
+	private boolean startsWith(int start, int end, String prefix) {
+		if (end - start < prefix.length()) return false;
+		for (int i = 0; i < prefix.length(); i++)
+			if (source.get(start + i) != prefix.charAt(i)) return false;
+		return true;
+	}
+
+	private boolean matches(int start, int end, String word) {
+		return end - start == word.length() && startsWith(start, end, word);
+	}
+
+	private String string(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		source.get(start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b >= 0 && b <= ' ';
+	}
+}
@@ -0,0 +1,479 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Little-endian, byte-addressed memory made of two segments: the data
+ * segment starting at DATA_BASE, which holds the static .data image
+ * followed by the sbrk heap, and a stack segment of bounded size ending at
+ * STACK_TOP. The stack starts small and doubles downwards as deeper
+ * addresses are touched, so idle interpreters stay cheap.
+ *
+ * Both segments are tables of PAGE_SIZE pages. fork shares every page
+ * between the two memories and marks it shared on both sides; the first
+ * store to a shared page copies it, so a forked memory costs only the page
+ * tables plus the pages either side writes. A page is only written in place
+ * by a memory that holds it unshared, which makes forks safe to run on
+ * separate threads.
+ *
+ * hart instead gives another hardware thread a memory with the same data
+ * segment, truly shared, and a stack of its own. Hart stacks sit one below
+ * the other under the main stack, stackSize bytes apart, so a stack address
+ * names one hart's word wherever it is used; touching another hart's stack
+ * is an error rather than a silent access to one's own. Plain loads and
+ * stores are unordered between harts, as on MIPS; loadLinked,
+ * storeConditional and a fence in sync are what order them. The data
+ * segment's page table, shared flags and size are published together as
+ * one DataSegment through a volatile field, which every access reads once,
+ * so a hart can't see a size that runs past the table another hart's sbrk
+ * has just replaced.
+ */
+public class MipsMemory {
+
+	public static final int DATA_BASE = 0x10010000;
+	public static final int GLOBAL_POINTER = 0x10008000;
+	public static final int STACK_TOP = 0x7ffffffc;
+	public static final int STACK_POINTER = 0x7fffeffc;
+	public static final int DEFAULT_STACK_SIZE = 1 << 20;
+	public static final int PAGE_SIZE = 1 << 12;
+	private static final int PAGE_SHIFT = 12;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int INITIAL_STACK_SIZE = 1 << 14;
+	/* The lowest address hart stacks may reach. */
+	private static final int HART_STACK_FLOOR = 0x40000000;
+
+	private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle SHORT_VIEW = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private volatile DataSegment data;
+	/* Pages from stackBase up to stackTop, all present. */
+	private byte[][] stack;
+	private boolean[] stackShared;
+	private int stackBase;
+	/* STACK_TOP, or lower for a spawned hart's stack. */
+	private int stackTop = STACK_TOP;
+	private int stackSize;
+	private int dataLimit = Integer.MAX_VALUE;
+	private long pagesCopied;
+	/* The memories sharing this data segment, or null; allocate keeps all their page tables in step. */
+	private ArrayList<MipsMemory> harts;
+
+	public MipsMemory() {
+		this(DEFAULT_STACK_SIZE);
+	}
+
+	/* A memory whose stack may grow to stackSize bytes, rounded up to whole pages. */
+	public MipsMemory(int stackSize) {
+		data = new DataSegment(new byte[1][], new boolean[1], 0);
+		this.stackSize = (stackSize + PAGE_MASK) & ~PAGE_MASK;
+		int pages = Math.min(this.stackSize, INITIAL_STACK_SIZE) >>> PAGE_SHIFT;
+		stack = new byte[pages][];
+		for (int i = 0; i < pages; i++)
+			stack[i] = new byte[PAGE_SIZE];
+		stackShared = new boolean[pages];
+		stackBase = stackTop + 4 - (pages << PAGE_SHIFT);
+	}
+
+	private MipsMemory(MipsMemory parent) {
+		DataSegment parentData = parent.data;
+		Arrays.fill(parentData.shared, true);
+		Arrays.fill(parent.stackShared, true);
+		data = new DataSegment(parentData.pages.clone(), parentData.shared.clone(), parentData.size);
+		stack = parent.stack.clone();
+		stackShared = parent.stackShared.clone();
+		stackBase = parent.stackBase;
+		stackTop = parent.stackTop;
+		stackSize = parent.stackSize;
+		dataLimit = parent.dataLimit;
+	}
+
+	/*
+	 * A copy of this memory that shares all its pages until one side writes
+	 * them. Neither memory may be in use by another thread during the fork;
+	 * afterwards each can be used by its own thread.
+	 */
+	public MipsMemory fork() {
+		if (harts != null) throw new IllegalStateException("Memory shared between harts can't be forked");
+		return new MipsMemory(this);
+	}
+
+	/*
+	 * A memory for another hart: the same data segment and heap, so what one
+	 * stores or allocates with sbrk the other sees, and an empty stack of its
+	 * own below those of the harts before it. Any pages still shared with a
+	 * fork are copied first.
+	 */
+	public MipsMemory hart() {
+		if (harts == null) {
+			DataSegment data = this.data;
+			for (int i = pageCount(data.size) - 1; i >= 0; i--)
+				dataPage(data, i << PAGE_SHIFT);
+			harts = new ArrayList<MipsMemory>();
+			harts.add(this);
+		}
+		synchronized (harts) {
+			long top = (long) STACK_TOP - (long) harts.size() * stackSize;
+			if (top + 4 - stackSize < HART_STACK_FLOOR) throw new MipsException("No room for another hart's stack");
+			MipsMemory hart = new MipsMemory(stackSize);
+			hart.stackTop = (int) top;
+			hart.stackBase += hart.stackTop - STACK_TOP;
+			hart.data = data;
+			hart.dataLimit = dataLimit;
+			hart.harts = harts;
+			harts.add(hart);
+			return hart;
+		}
+	}
+
+	/* Reserves size bytes at the end of the data segment and returns their address. */
+	public int allocate(int size, int alignment) {
+		if (harts == null) return allocatePages(size, alignment);
+		synchronized (harts) {
+			int address = allocatePages(size, alignment);
+			for (MipsMemory hart : harts)
+				hart.data = data;
+			return address;
+		}
+	}
+
+	/*
+	 * Publishes a new DataSegment. The table is only reallocated when it is
+	 * full; otherwise the new pages go in slots past the old size, which
+	 * nothing holding the old segment reads.
+	 */
+	private int allocatePages(int size, int alignment) {
+		DataSegment data = this.data;
+		int offset = (data.size + alignment - 1) & -alignment;
+		int newSize = offset + size;
+		if (newSize < 0) throw new MipsException("Data segment overflow");
+		if (newSize > dataLimit)
+			throw new MipsLimitException(MipsInterpreter.Termination.DATA_LIMIT, "Data segment limit exceeded: " + dataLimit + " bytes");
+		int pages = pageCount(newSize);
+		byte[][] table = data.pages;
+		boolean[] shared = data.shared;
+		if (pages > table.length) {
+			int length = Math.max(pages, table.length * 2);
+			table = Arrays.copyOf(table, length);
+			shared = Arrays.copyOf(shared, length);
+		}
+		for (int i = pageCount(data.size); i < pages; i++) {
+			table[i] = new byte[PAGE_SIZE];
+			shared[i] = false;
+		}
+		this.data = new DataSegment(table, shared, newSize);
+		return DATA_BASE + offset;
+	}
+
+	/* The sbrk syscall: grows the heap by size bytes and returns the old break. */
+	public int sbrk(int size) {
+		if (size < 0) throw new MipsException("Negative sbrk amount: " + size);
+		return allocate(size, 4);
+	}
+
+	public int getDataSize() {
+		return data.size;
+	}
+
+	/* Caps the data segment, static data and sbrk heap together, at dataLimit bytes. */
+	public void setDataLimit(int dataLimit) {
+		this.dataLimit = dataLimit;
+	}
+
+	/* Where $sp starts: STACK_POINTER, moved down with the stack for a spawned hart. */
+	public int getInitialStackPointer() {
+		return STACK_POINTER - (STACK_TOP - stackTop);
+	}
+
+	/* Bytes of stack allocated so far, up to the stack size given to the constructor. */
+	public int getStackSize() {
+		return stack.length << PAGE_SHIFT;
+	}
+
+	/* Shared pages this memory has had to copy before writing them. */
+	public long getPagesCopied() {
+		return pagesCopied;
+	}
+
+	/* Pages of either segment this memory currently shares with a fork. */
+	public int getSharedPages() {
+		DataSegment data = this.data;
+		int shared = 0;
+		for (int i = pageCount(data.size) - 1; i >= 0; i--)
+			if (data.shared[i]) shared++;
+		for (boolean pageShared : stackShared)
+			if (pageShared) shared++;
+		return shared;
+	}
+
+	/* A copy of the data segment up to the current break, for saving a loaded program. */
+	public byte[] getData() {
+		DataSegment data = this.data;
+		byte[] image = new byte[data.size];
+		for (int offset = 0; offset < data.size; offset += PAGE_SIZE)
+			System.arraycopy(data.pages[offset >>> PAGE_SHIFT], 0, image, offset, Math.min(PAGE_SIZE, data.size - offset));
+		return image;
+	}
+
+	/* Replaces the data segment with the remaining bytes of image. */
+	public void setData(ByteBuffer image) {
+		leaveHarts();
+		int size = image.remaining();
+		int pages = pageCount(size);
+		byte[][] table = new byte[Math.max(pages, 1)][];
+		for (int i = 0; i < pages; i++) {
+			table[i] = new byte[PAGE_SIZE];
+			image.get(table[i], 0, Math.min(PAGE_SIZE, image.remaining()));
+		}
+		data = new DataSegment(table, new boolean[table.length], size);
+	}
+
+	/* Puts the data segment back to image and clears the heap and the stack, for running a program again. */
+	public void reset(byte[] image) {
+		leaveHarts();
+		DataSegment data = this.data;
+		int pages = pageCount(image.length);
+		int oldPages = pageCount(data.size);
+		byte[][] table = data.pages;
+		boolean[] shared = data.shared;
+		if (pages > table.length) {
+			table = Arrays.copyOf(table, pages);
+			shared = Arrays.copyOf(shared, pages);
+		}
+		for (int i = 0; i < pages; i++) {
+			int offset = i << PAGE_SHIFT;
+			int length = Math.min(PAGE_SIZE, image.length - offset);
+			if (i >= oldPages || shared[i]) {
+				table[i] = new byte[PAGE_SIZE];
+				shared[i] = false;
+			} else if (length < PAGE_SIZE) {
+				Arrays.fill(table[i], length, PAGE_SIZE, (byte) 0);
+			}
+			System.arraycopy(image, offset, table[i], 0, length);
+		}
+		for (int i = pages; i < oldPages; i++)
+			table[i] = null;
+		this.data = new DataSegment(table, shared, image.length);
+		for (int i = 0; i < stack.length; i++)
+			clearStackPage(i);
+	}
+
+	/* The stack segment from its lowest non-zero byte up to the top, for checkpoints. */
+	public byte[] getUsedStack() {
+		int length = stack.length << PAGE_SHIFT;
+		int start = 0;
+		while (start < length && stack[start >>> PAGE_SHIFT][start & PAGE_MASK] == 0)
+			start++;
+		byte[] used = new byte[length - start];
+		for (int offset = start; offset < length; offset = (offset | PAGE_MASK) + 1)
+			System.arraycopy(stack[offset >>> PAGE_SHIFT], offset & PAGE_MASK, used, offset - start, PAGE_SIZE - (offset & PAGE_MASK));
+		return used;
+	}
+
+	/* Restores a stack saved by getUsedStack; everything below it is cleared. */
+	public void setUsedStack(ByteBuffer image) {
+		if (image.remaining() > stackSize) throw new MipsException("Saved stack is larger than the stack segment");
+		if (image.remaining() > getStackSize()) growStack(image.remaining());
+		for (int i = 0; i < stack.length; i++)
+			clearStackPage(i);
+		for (int offset = getStackSize() - image.remaining(); image.hasRemaining(); offset = (offset | PAGE_MASK) + 1)
+			image.get(stack[offset >>> PAGE_SHIFT], offset & PAGE_MASK, PAGE_SIZE - (offset & PAGE_MASK));
+	}
+
+	public int loadWord(int address) {
+		if ((address & 3) != 0) throw unaligned("word", address);
+		int offset = address - DATA_BASE;
+		DataSegment data = this.data;
+		if (offset >= 0 && offset < data.size) return (int) INT_VIEW.get(data.pages[offset >>> PAGE_SHIFT], offset & PAGE_MASK);
+		offset = stackOffset(address, 4);
+		return (int) INT_VIEW.get(stack[offset >>> PAGE_SHIFT], offset & PAGE_MASK);
+	}
+
+	public int loadHalf(int address) {
+		if ((address & 1) != 0) throw unaligned("halfword", address);
+		int offset = address - DATA_BASE;
+		DataSegment data = this.data;
+		if (offset >= 0 && offset < data.size) return (short) SHORT_VIEW.get(data.pages[offset >>> PAGE_SHIFT], offset & PAGE_MASK);
+		offset = stackOffset(address, 2);
+		return (short) SHORT_VIEW.get(stack[offset >>> PAGE_SHIFT], offset & PAGE_MASK);
+	}
+
+	public int loadByte(int address) {
+		int offset = address - DATA_BASE;
+		DataSegment data = this.data;
+		if (offset >= 0 && offset < data.size) return data.pages[offset >>> PAGE_SHIFT][offset & PAGE_MASK];
+		offset = stackOffset(address, 1);
+		return stack[offset >>> PAGE_SHIFT][offset & PAGE_MASK];
+	}
+
+	public void storeWord(int address, int value) {
+		if ((address & 3) != 0) throw unaligned("word", address);
+		int offset = address - DATA_BASE;
+		DataSegment data = this.data;
+		if (offset >= 0 && offset < data.size) {
+			INT_VIEW.set(dataPage(data, offset), offset & PAGE_MASK, value);
+		} else {
+			offset = stackOffset(address, 4);
+			INT_VIEW.set(stackPage(offset), offset & PAGE_MASK, value);
+		}
+	}
+
+	public void storeHalf(int address, int value) {
+		if ((address & 1) != 0) throw unaligned("halfword", address);
+		int offset = address - DATA_BASE;
+		DataSegment data = this.data;
+		if (offset >= 0 && offset < data.size) {
+			SHORT_VIEW.set(dataPage(data, offset), offset & PAGE_MASK, (short) value);
+		} else {
+			offset = stackOffset(address, 2);
+			SHORT_VIEW.set(stackPage(offset), offset & PAGE_MASK, (short) value);
+		}
+	}
+
+	public void storeByte(int address, int value) {
+		int offset = address - DATA_BASE;
+		DataSegment data = this.data;
+		if (offset >= 0 && offset < data.size) {
+			dataPage(data, offset)[offset & PAGE_MASK] = (byte) value;
+		} else {
+			offset = stackOffset(address, 1);
+			stackPage(offset)[offset & PAGE_MASK] = (byte) value;
+		}
+	}
+
+	/* The ll half of ll/sc: a word load ordered like a volatile read. */
+	public int loadLinked(int address) {
+		if ((address & 3) != 0) throw unaligned("word", address);
+		int offset = address - DATA_BASE;
+		DataSegment data = this.data;
+		if (offset >= 0 && offset < data.size) return (int) INT_VIEW.getVolatile(data.pages[offset >>> PAGE_SHIFT], offset & PAGE_MASK);
+		offset = stackOffset(address, 4);
+		return (int) INT_VIEW.getVolatile(stack[offset >>> PAGE_SHIFT], offset & PAGE_MASK);
+	}
+
+	/* The sc half: atomically stores value if the word still holds expected, ordered like a volatile write. */
+	public boolean storeConditional(int address, int expected, int value) {
+		if ((address & 3) != 0) throw unaligned("word", address);
+		int offset = address - DATA_BASE;
+		DataSegment data = this.data;
+		if (offset >= 0 && offset < data.size) return INT_VIEW.compareAndSet(dataPage(data, offset), offset & PAGE_MASK, expected, value);
+		offset = stackOffset(address, 4);
+		return INT_VIEW.compareAndSet(stackPage(offset), offset & PAGE_MASK, expected, value);
+	}
+
+	public String readString(int address) {
+		StringBuilder stringBuilder = new StringBuilder();
+		for (int c = loadByte(address); c != 0; c = loadByte(++address))
+			stringBuilder.append((char) (c & 0xff));
+		return stringBuilder.toString();
+	}
+
+	/* Writes at most maxLength - 1 characters of string followed by a terminating zero. */
+	public void writeString(int address, String string, int maxLength) {
+		if (maxLength <= 0) return;
+		int length = Math.min(string.length(), maxLength - 1);
+		for (int i = 0; i < length; i++)
+			storeByte(address + i, string.charAt(i));
+		storeByte(address + length, 0);
+	}
+
+	/* The data page holding offset, copied first if it is shared. */
+	private byte[] dataPage(DataSegment data, int offset) {
+		int index = offset >>> PAGE_SHIFT;
+		if (data.shared[index]) {
+			data.pages[index] = data.pages[index].clone();
+			data.shared[index] = false;
+			pagesCopied++;
+		}
+		return data.pages[index];
+	}
+
+	private byte[] stackPage(int offset) {
+		int index = offset >>> PAGE_SHIFT;
+		if (stackShared[index]) {
+			stack[index] = stack[index].clone();
+			stackShared[index] = false;
+			pagesCopied++;
+		}
+		return stack[index];
+	}
+
+	/* Stops sharing the data segment with other harts, leaving this memory an empty one. */
+	private void leaveHarts() {
+		if (harts == null) return;
+		synchronized (harts) {
+			harts.remove(this);
+		}
+		harts = null;
+		data = new DataSegment(new byte[1][], new boolean[1], 0);
+	}
+
+	private void clearStackPage(int index) {
+		if (stackShared[index]) {
+			stack[index] = new byte[PAGE_SIZE];
+			stackShared[index] = false;
+		} else {
+			Arrays.fill(stack[index], (byte) 0);
+		}
+	}
+
+	private int stackOffset(int address, int size) {
+		int offset = address - stackBase;
+		if (offset < 0 || offset > (stack.length << PAGE_SHIFT) - size) {
+			int depth = stackTop + 4 - address;
+			if (offset < 0 && depth > 0 && depth <= stackSize) {
+				growStack(depth);
+				return address - stackBase;
+			}
+			if (harts != null && address >= HART_STACK_FLOOR && address <= STACK_TOP)
+				throw new MipsException(String.format("Address in another hart's stack: 0x%08x", address));
+			throw new MipsException(String.format("Address out of range: 0x%08x", address));
+		}
+		return offset;
+	}
+
+	private void growStack(int depth) {
+		int length = getStackSize();
+		while (length < depth)
+			length = (int) Math.min((long) length * 2, stackSize);
+		int added = (length >>> PAGE_SHIFT) - stack.length;
+		byte[][] grown = new byte[length >>> PAGE_SHIFT][];
+		boolean[] grownShared = new boolean[grown.length];
+		for (int i = 0; i < added; i++)
+			grown[i] = new byte[PAGE_SIZE];
+		System.arraycopy(stack, 0, grown, added, stack.length);
+		System.arraycopy(stackShared, 0, grownShared, added, stack.length);
+		stack = grown;
+		stackShared = grownShared;
+		stackBase = stackTop + 4 - length;
+	}
+
+	private static int pageCount(int size) {
+		return (int) (((long) size + PAGE_MASK) >>> PAGE_SHIFT);
+	}
+
+	private static MipsException unaligned(String unit, int address) {
+		return new MipsException(String.format("Unaligned %s access: 0x%08x", unit, address));
+	}
+
+	/*
+	 * The data segment as one snapshot: pages up to the one holding the last
+	 * byte below size exist, and bytes from size on are zero. Only the table
+	 * slots past size are filled in after publication, and a shared page is
+	 * only replaced by the one memory that holds the table, before any hart
+	 * can see it.
+	 */
+	private static class DataSegment {
+		final byte[][] pages;
+		final boolean[] shared;
+		final int size;
+
+		DataSegment(byte[][] pages, boolean[] shared, int size) {
+			this.pages = pages;
+			this.shared = shared;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import jdk.jfr.FlightRecorder;
+
+/*
+ * Publishes an interpreter's counters as a platform MBean and as periodic
+ * MipsEvents.Sample events for as long as it is registered. The counters
+ * are the interpreter's own fields, so a registered interpreter runs exactly
+ * as fast as any other; only reads by JMX clients and JFR cost anything.
+ */
+public class MipsMonitor implements MipsInterpreterMXBean {
+
+	public static final String DOMAIN = "MipsInterpreter";
+
+	private static final Set<MipsMonitor> REGISTERED = ConcurrentHashMap.newKeySet();
+
+	static {
+		FlightRecorder.addPeriodicEvent(MipsEvents.Sample.class, MipsMonitor::emitSamples);
+	}
+
+	private final MipsInterpreter interpreter;
+	private final String name;
+	private final ObjectName objectName;
+
+	private MipsMonitor(MipsInterpreter interpreter, String name) throws MalformedObjectNameException {
+		this.interpreter = interpreter;
+		this.name = name;
+		objectName = new ObjectName(DOMAIN + ":type=Interpreter,name=" + ObjectName.quote(name));
+	}
+
+	/* Registers interpreter under name, which must not already be in use; close unregisters it. */
+	public static MipsMonitor register(MipsInterpreter interpreter, String name) {
+		try {
+			MipsMonitor monitor = new MipsMonitor(interpreter, name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, monitor.objectName);
+			REGISTERED.add(monitor);
+			return monitor;
+		} catch (InstanceAlreadyExistsException e) {
+			throw new IllegalArgumentException("An interpreter is already registered as " + name);
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void close() {
+		REGISTERED.remove(this);
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			/* Already unregistered. */
+		}
+	}
+
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+
+	private static void emitSamples() {
+		for (MipsMonitor monitor : REGISTERED) {
+			MipsEvents.Sample sample = new MipsEvents.Sample();
+			sample.name = monitor.name;
+			sample.status = monitor.getStatus();
+			sample.instructions = monitor.getInstructionsExecuted();
+			sample.syscalls = monitor.getSyscalls();
+			sample.dataSize = monitor.getDataSegmentSize();
+			sample.stackSize = monitor.getStackSize();
+			sample.commit();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getEngine() {
+		return interpreter.getEngine().name().toLowerCase();
+	}
+
+	public String getStatus() {
+		return interpreter.getStatus().name();
+	}
+
+	public String getError() {
+		return interpreter.getError();
+	}
+
+	public int getProgramLines() {
+		return interpreter.getLineCount();
+	}
+
+	public long getInstructionsExecuted() {
+		return interpreter.getInstructionsExecuted();
+	}
+
+	public long getSyscalls() {
+		long total = 0;
+		for (long count : interpreter.getSyscallCounts())
+			total += count;
+		return total;
+	}
+
+	public long[] getSyscallsByService() {
+		return interpreter.getSyscallCounts();
+	}
+
+	public int getDataSegmentSize() {
+		return interpreter.getMemory().getDataSize();
+	}
+
+	public int getStackSize() {
+		return interpreter.getMemory().getStackSize();
+	}
+}
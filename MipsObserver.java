@@ -0,0 +1,15 @@
+/*
+ * Receives every instruction the interpreter executes, once attached with
+ * MipsInterpreter.addObserver. While any observer is attached the program
+ * runs one decoded instruction at a time whatever the engine, so the engines
+ * themselves carry no hooks and pay nothing when nothing is observing.
+ */
+public interface MipsObserver {
+
+	/*
+	 * Called after d, which started on line, has executed; next is the line
+	 * that runs after it and address is the effective address of a load or
+	 * store (0 for anything else).
+	 */
+	void record(DecodedInstruction d, int line, int next, int address);
+}
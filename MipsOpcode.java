@@ -0,0 +1,139 @@
+import java.util.HashMap;
+
+final class MipsOpcode {
+	public static final int NOP = 0;
+	public static final int HALT = 1;
+	public static final int SYSCALL = 2;
+	public static final int NOOP = 3;
+	public static final int MOVE = 4;
+	public static final int ADD = 5;
+	public static final int ADDU = 6;
+	public static final int SUB = 7;
+	public static final int SUBU = 8;
+	public static final int SLT = 9;
+	public static final int SLTU = 10;
+	public static final int AND = 11;
+	public static final int OR = 12;
+	public static final int XOR = 13;
+	public static final int SLL = 14;
+	public static final int SLLV = 15;
+	public static final int SRL = 16;
+	public static final int SRA = 17;
+	public static final int SRLV = 18;
+	public static final int MFHI = 19;
+	public static final int MFLO = 20;
+	public static final int MULT = 21;
+	public static final int MULTU = 22;
+	public static final int DIV = 23;
+	public static final int DIVU = 24;
+	public static final int ADDI = 25;
+	public static final int ADDIU = 26;
+	public static final int SLTI = 27;
+	public static final int SLTIU = 28;
+	public static final int ANDI = 29;
+	public static final int ORI = 30;
+	public static final int XORI = 31;
+	public static final int LI = 32;
+	public static final int LA = 33;
+	public static final int LUI = 34;
+	public static final int J = 35;
+	public static final int BEQ = 36;
+	public static final int BNE = 37;
+	public static final int BEQ_IMM = 38;
+	public static final int BNE_IMM = 39;
+	public static final int BEQZ = 40;
+	public static final int BGEZ = 41;
+	public static final int BGTZ = 42;
+	public static final int BLEZ = 43;
+	public static final int BLTZ = 44;
+	public static final int LW = 45;
+	public static final int LB = 46;
+	public static final int SW = 47;
+	public static final int SB = 48;
+	public static final int JAL = 49;
+	public static final int JR = 50;
+	public static final int LH = 51;
+	public static final int LHU = 52;
+	public static final int LBU = 53;
+	public static final int SH = 54;
+
+	/* Superinstructions produced by MipsFusion. */
+	public static final int SLT_BNEZ = 55;
+	public static final int SLT_BEQZ = 56;
+	public static final int ADDI_BNE = 57;
+	public static final int LUI_ORI = 58;
+	public static final int LW_ADD = 59;
+	public static final int SLL_ADD = 60;
+
+	/* Placeholder for a line that lazy loading hasn't decoded yet; never executed. */
+	public static final int UNDECODED = 61;
+
+	/* Atomics for programs running several harts; MipsJit leaves them to the interpreter. */
+	public static final int LL = 62;
+	public static final int SC = 63;
+	public static final int SYNC = 64;
+
+	public static final String[] NAMES = {
+		"<nop>", "<halt>", "syscall", "noop", "move", "add", "addu", "sub", "subu", "slt", "sltu",
+		"and", "or", "xor", "sll", "sllv", "srl", "sra", "srlv", "mfhi", "mflo",
+		"mult", "multu", "div", "divu", "addi", "addiu", "slti", "sltiu", "andi", "ori",
+		"xori", "li", "la", "lui", "j", "beq", "bne", "beq", "bne", "beqz",
+		"bgez", "bgtz", "blez", "bltz", "lw", "lb", "sw", "sb", "jal", "jr",
+		"lh", "lhu", "lbu", "sh",
+		"slt+bne", "slt+beq", "addi+bne", "lui+ori", "lw+add", "sll+add",
+		"<undecoded>", "ll", "sc", "sync"
+	};
+
+	public static final int COUNT = NAMES.length;
+
+	private static final HashMap<String, Integer> BY_NAME = new HashMap<String, Integer>();
+
+	static {
+		for (int i = NOOP; i < SLT_BNEZ; i++)
+			BY_NAME.put(NAMES[i], i);
+		BY_NAME.put("beq", BEQ);
+		BY_NAME.put("bne", BNE);
+		for (int i = LL; i <= SYNC; i++)
+			BY_NAME.put(NAMES[i], i);
+	}
+
+	private MipsOpcode() {}
+
+	public static int forName(String name) {
+		Integer opcode = BY_NAME.get(name);
+		return opcode == null ? -1 : opcode;
+	}
+
+	public static boolean isLoad(int opcode) {
+		return opcode == LW || opcode == LH || opcode == LHU || opcode == LB || opcode == LBU || opcode == LL;
+	}
+
+	public static boolean isStore(int opcode) {
+		return opcode == SW || opcode == SH || opcode == SB || opcode == SC;
+	}
+
+	public static boolean isAtomic(int opcode) {
+		return opcode >= LL && opcode <= SYNC;
+	}
+
+	public static boolean isBranchZero(int opcode) {
+		return opcode >= BEQZ && opcode <= BLTZ;
+	}
+
+	public static boolean isMultiplyOrDivide(int opcode) {
+		return opcode >= MULT && opcode <= DIVU;
+	}
+
+	public static boolean isBranch(int opcode) {
+		return opcode >= BEQ && opcode <= BLTZ;
+	}
+
+	/* True for anything after which execution may not continue on the next line. */
+	public static boolean endsBlock(int opcode) {
+		return isBranch(opcode) || opcode == J || opcode == JAL || opcode == JR || opcode == SYSCALL || opcode == HALT;
+	}
+
+	public static boolean fallsThrough(int opcode) {
+		return opcode != J && opcode != JAL && opcode != JR && opcode != HALT;
+	}
+}
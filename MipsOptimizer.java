@@ -0,0 +1,433 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/*
+ * Optional load-time rewriting of decoded .text. Every line keeps its address,
+ * so removed instructions become nops rather than disappearing, and labels,
+ * jal return addresses and jr targets stay valid. Within each basic block,
+ * constants are propagated forwards: instructions whose inputs are all known
+ * become li, register operands that are known become immediates, branches on
+ * known values become j or vanish, noop and writes to $zero are dropped, and
+ * a backwards pass drops writes that are overwritten before anything reads
+ * them. Finally jumps and branches to a j are threaded to its target, and
+ * ones that land on the next instruction are dropped. Syscall output and
+ * runtime errors are unchanged; the executed instruction count is not.
+ */
+public class MipsOptimizer {
+
+	private static final int REGISTER_COUNT = 34;
+
+	private int folded;
+	private int immediates;
+	private int noops;
+	private int zeroWrites;
+	private int deadWrites;
+	private int branchesResolved;
+	private int jumpsThreaded;
+	private int jumpsRemoved;
+
+	private DecodedInstruction[] text;
+	private final boolean[] known = new boolean[REGISTER_COUNT];
+	private final int[] values = new int[REGISTER_COUNT];
+	private final boolean[] dead = new boolean[REGISTER_COUNT];
+
+	/* Returns an optimized copy of the text in controlFlow; the original instructions aren't modified. */
+	public DecodedInstruction[] optimize(MipsControlFlow controlFlow) {
+		text = controlFlow.getText().clone();
+		for (BasicBlock block : controlFlow.getBlocks()) {
+			propagateConstants(block);
+			removeDeadWrites(block);
+		}
+		threadJumps();
+		return text;
+	}
+
+	public void report(PrintStream out) {
+		out.printf("Optimized: %d folded to li, %d operands made immediate, %d branches resolved, %d jumps threaded%n",
+				folded, immediates, branchesResolved, jumpsThreaded);
+		out.printf("Removed: %d noops, %d writes to $zero, %d dead writes, %d jumps to the next line%n",
+				noops, zeroWrites, deadWrites, jumpsRemoved);
+	}
+
+	private void propagateConstants(BasicBlock block) {
+		Arrays.fill(known, false);
+		known[0] = true;
+		values[0] = 0;
+		for (int line = block.start; line <= block.end; line++) {
+			DecodedInstruction d = text[line];
+			int opcode = d.opcode;
+			if (opcode == MipsOpcode.NOP) continue;
+			if (opcode == MipsOpcode.NOOP) {
+				text[line] = DecodedInstruction.NOP;
+				noops++;
+				continue;
+			}
+			if (isPure(opcode)) {
+				int destination = destination(d);
+				if (destination == 0) {
+					text[line] = DecodedInstruction.NOP;
+					zeroWrites++;
+					continue;
+				}
+				if (destination < 0) continue;
+				if (d.rs < 0 && !isConstant(opcode)) {
+					known[destination] = false;
+					continue;
+				}
+				if (allSourcesKnown(d)) {
+					int value = evaluate(d);
+					if (opcode != MipsOpcode.LI && opcode != MipsOpcode.LA) {
+						text[line] = rewrite(MipsOpcode.LI, d, destination, -1, -1, value);
+						folded++;
+					}
+					known[destination] = true;
+					values[destination] = value;
+					continue;
+				}
+				DecodedInstruction reduced = withImmediate(d);
+				if (reduced != null) {
+					text[line] = d = reduced;
+					immediates++;
+				}
+				if (isIdentity(d)) {
+					text[line] = DecodedInstruction.NOP;
+					noops++;
+					continue;
+				}
+				known[destination] = false;
+			} else if (MipsOpcode.isMultiplyOrDivide(opcode)) {
+				boolean operandsKnown = d.rs >= 0 && d.rt >= 0 && known[d.rs] && known[d.rt];
+				if (operandsKnown && (opcode == MipsOpcode.MULT || opcode == MipsOpcode.MULTU || values[d.rt] != 0)) {
+					multiplyOrDivide(opcode, values[d.rs], values[d.rt]);
+				} else {
+					known[MipsInterpreter.REGISTER_HI] = known[MipsInterpreter.REGISTER_LO] = false;
+				}
+			} else if (MipsOpcode.isLoad(opcode) || MipsOpcode.isStore(opcode)) {
+				if (d.rt > 0 && known[d.rt]) {
+					text[line] = rewrite(opcode, d, d.rd, d.rs, 0, values[d.rt] + d.immediate);
+					immediates++;
+				}
+				if ((MipsOpcode.isLoad(opcode) || opcode == MipsOpcode.SC) && d.rs > 0) known[d.rs] = false;
+			} else if (MipsOpcode.isBranch(opcode)) {
+				resolveBranch(line, d);
+			} else if (opcode == MipsOpcode.JAL) {
+				known[MipsInterpreter.REGISTER_RA] = false;
+			} else if (opcode == MipsOpcode.SYSCALL) {
+				known[2] = false;
+			}
+		}
+	}
+
+	private void resolveBranch(int line, DecodedInstruction d) {
+		int opcode = d.opcode;
+		if (d.rd < 0 || !known[d.rd]) {
+			if ((opcode == MipsOpcode.BEQ || opcode == MipsOpcode.BNE) && d.rs >= 0 && known[d.rs]) {
+				text[line] = rewrite(opcode == MipsOpcode.BEQ ? MipsOpcode.BEQ_IMM : MipsOpcode.BNE_IMM, d, d.rd, -1, -1, values[d.rs]);
+				immediates++;
+			}
+			return;
+		}
+		int a = values[d.rd];
+		boolean taken;
+		switch (opcode) {
+		case MipsOpcode.BEQ:
+		case MipsOpcode.BNE:
+			if (d.rs < 0 || !known[d.rs]) {
+				text[line] = rewrite(opcode == MipsOpcode.BEQ ? MipsOpcode.BEQ_IMM : MipsOpcode.BNE_IMM, d, d.rs, -1, -1, a);
+				immediates++;
+				return;
+			}
+			taken = (a == values[d.rs]) == (opcode == MipsOpcode.BEQ);
+			break;
+		case MipsOpcode.BEQ_IMM:
+			taken = a == d.immediate;
+			break;
+		case MipsOpcode.BNE_IMM:
+			taken = a != d.immediate;
+			break;
+		case MipsOpcode.BEQZ:
+			taken = a == 0;
+			break;
+		case MipsOpcode.BGEZ:
+			taken = a >= 0;
+			break;
+		case MipsOpcode.BGTZ:
+			taken = a > 0;
+			break;
+		case MipsOpcode.BLEZ:
+			taken = a <= 0;
+			break;
+		default:
+			taken = a < 0;
+			break;
+		}
+		if (taken) {
+			DecodedInstruction jump = rewrite(MipsOpcode.J, d, -1, -1, -1, 0);
+			jump.target = d.target;
+			text[line] = jump;
+		} else {
+			text[line] = DecodedInstruction.NOP;
+		}
+		branchesResolved++;
+	}
+
+	/* Walks the block backwards with the registers that are written again before being read. */
+	private void removeDeadWrites(BasicBlock block) {
+		Arrays.fill(dead, false);
+		for (int line = block.end; line >= block.start; line--) {
+			DecodedInstruction d = text[line];
+			int opcode = d.opcode;
+			if (opcode == MipsOpcode.NOP) continue;
+			if (isPure(opcode)) {
+				int destination = destination(d);
+				if (destination > 0 && dead[destination]) {
+					text[line] = DecodedInstruction.NOP;
+					deadWrites++;
+					continue;
+				}
+				if (destination > 0) dead[destination] = true;
+				if (opcode == MipsOpcode.MFHI) dead[MipsInterpreter.REGISTER_HI] = false;
+				if (opcode == MipsOpcode.MFLO) dead[MipsInterpreter.REGISTER_LO] = false;
+				if (!isConstant(opcode) && opcode != MipsOpcode.MOVE) live(d.rs);
+				if (usesRt(opcode)) live(d.rt);
+			} else if (MipsOpcode.isMultiplyOrDivide(opcode)) {
+				if ((opcode == MipsOpcode.MULT || opcode == MipsOpcode.MULTU)
+						&& dead[MipsInterpreter.REGISTER_HI] && dead[MipsInterpreter.REGISTER_LO]) {
+					text[line] = DecodedInstruction.NOP;
+					deadWrites++;
+					continue;
+				}
+				dead[MipsInterpreter.REGISTER_HI] = dead[MipsInterpreter.REGISTER_LO] = true;
+				live(d.rs);
+				live(d.rt);
+			} else if (MipsOpcode.isLoad(opcode)) {
+				if (d.rs > 0) dead[d.rs] = true;
+				live(d.rt);
+			} else if (opcode == MipsOpcode.SYSCALL) {
+				live(2);
+				live(4);
+				live(5);
+			} else if (opcode == MipsOpcode.JAL) {
+				dead[MipsInterpreter.REGISTER_RA] = true;
+			} else {
+				/* Stores, branches, jr: everything they name is read. */
+				live(d.rd);
+				live(d.rs);
+				live(d.rt);
+			}
+		}
+	}
+
+	private void live(int register) {
+		if (register >= 0) dead[register] = false;
+	}
+
+	private void threadJumps() {
+		for (int line = 0; line < text.length; line++) {
+			DecodedInstruction d = text[line];
+			int opcode = d.opcode;
+			if (opcode != MipsOpcode.J && opcode != MipsOpcode.JAL && !MipsOpcode.isBranch(opcode)) continue;
+			int target = thread(d.target);
+			if (opcode != MipsOpcode.JAL && target == skipNops(line + 1)) {
+				text[line] = DecodedInstruction.NOP;
+				jumpsRemoved++;
+				continue;
+			}
+			if (target != d.target) {
+				DecodedInstruction threaded = rewrite(opcode, d, d.rd, d.rs, d.rt, d.immediate);
+				threaded.target = target;
+				text[line] = threaded;
+				jumpsThreaded++;
+			}
+		}
+	}
+
+	/* The line control really reaches from target, past nops and chains of j. */
+	private int thread(int target) {
+		for (int hops = 0; hops < text.length; hops++) {
+			int next = skipNops(target);
+			if (text[next].opcode != MipsOpcode.J || text[next].target == next) return next;
+			target = text[next].target;
+		}
+		return target;
+	}
+
+	/* The first instruction at or after line; a run of nops reaching the end of .text is kept as it is. */
+	private int skipNops(int line) {
+		int next = line;
+		while (next < text.length && text[next].opcode == MipsOpcode.NOP)
+			next++;
+		return next < text.length ? next : line;
+	}
+
+	/* Single-register writes with no effect but the write. */
+	private static boolean isPure(int opcode) {
+		return opcode >= MipsOpcode.MOVE && opcode <= MipsOpcode.MFLO || opcode >= MipsOpcode.ADDI && opcode <= MipsOpcode.LUI;
+	}
+
+	private static boolean isConstant(int opcode) {
+		return opcode == MipsOpcode.LI || opcode == MipsOpcode.LA || opcode == MipsOpcode.LUI
+				|| opcode == MipsOpcode.MFHI || opcode == MipsOpcode.MFLO;
+	}
+
+	private static boolean usesRt(int opcode) {
+		return opcode >= MipsOpcode.MOVE && opcode <= MipsOpcode.XOR || opcode == MipsOpcode.SLLV || opcode == MipsOpcode.SRLV;
+	}
+
+	private static int destination(DecodedInstruction d) {
+		return d.opcode == MipsOpcode.MOVE ? d.rs : d.rd;
+	}
+
+	private boolean allSourcesKnown(DecodedInstruction d) {
+		switch (d.opcode) {
+		case MipsOpcode.LI:
+		case MipsOpcode.LA:
+		case MipsOpcode.LUI:
+			return true;
+		case MipsOpcode.MFHI:
+			return known[MipsInterpreter.REGISTER_HI];
+		case MipsOpcode.MFLO:
+			return known[MipsInterpreter.REGISTER_LO];
+		case MipsOpcode.MOVE:
+			return d.rt >= 0 && known[d.rt];
+		}
+		if (!known[d.rs]) return false;
+		return !usesRt(d.opcode) || d.rt >= 0 && known[d.rt];
+	}
+
+	private int evaluate(DecodedInstruction d) {
+		int a = d.rs >= 0 ? values[d.rs] : 0;
+		int b = d.rt >= 0 ? values[d.rt] : 0;
+		int immediate = d.immediate;
+		switch (d.opcode) {
+		case MipsOpcode.MOVE:
+			return b;
+		case MipsOpcode.ADD:
+		case MipsOpcode.ADDU:
+			return a + b;
+		case MipsOpcode.SUB:
+		case MipsOpcode.SUBU:
+			return a - b;
+		case MipsOpcode.SLT:
+			return a < b ? 1 : 0;
+		case MipsOpcode.SLTU:
+			return Integer.compareUnsigned(a, b) < 0 ? 1 : 0;
+		case MipsOpcode.AND:
+			return a & b;
+		case MipsOpcode.OR:
+			return a | b;
+		case MipsOpcode.XOR:
+			return a ^ b;
+		case MipsOpcode.SLL:
+			return a << immediate;
+		case MipsOpcode.SLLV:
+			return a << b;
+		case MipsOpcode.SRL:
+			return a >>> immediate;
+		case MipsOpcode.SRA:
+			return a >> immediate;
+		case MipsOpcode.SRLV:
+			return a >>> b;
+		case MipsOpcode.MFHI:
+			return values[MipsInterpreter.REGISTER_HI];
+		case MipsOpcode.MFLO:
+			return values[MipsInterpreter.REGISTER_LO];
+		case MipsOpcode.ADDI:
+		case MipsOpcode.ADDIU:
+			return a + immediate;
+		case MipsOpcode.SLTI:
+			return a < immediate ? 1 : 0;
+		case MipsOpcode.SLTIU:
+			return Integer.compareUnsigned(a, immediate) < 0 ? 1 : 0;
+		case MipsOpcode.ANDI:
+			return a & immediate;
+		case MipsOpcode.ORI:
+			return a | immediate;
+		case MipsOpcode.XORI:
+			return a ^ immediate;
+		case MipsOpcode.LUI:
+			return immediate << 16;
+		}
+		return immediate;
+	}
+
+	private void multiplyOrDivide(int opcode, int a, int b) {
+		int hi, lo;
+		if (opcode == MipsOpcode.MULT || opcode == MipsOpcode.MULTU) {
+			long product = opcode == MipsOpcode.MULT ? (long) a * b : (a & 0xffffffffL) * (b & 0xffffffffL);
+			hi = (int) (product >>> 32);
+			lo = (int) product;
+		} else if (opcode == MipsOpcode.DIV) {
+			hi = a % b;
+			lo = a / b;
+		} else {
+			hi = Integer.remainderUnsigned(a, b);
+			lo = Integer.divideUnsigned(a, b);
+		}
+		known[MipsInterpreter.REGISTER_HI] = known[MipsInterpreter.REGISTER_LO] = true;
+		values[MipsInterpreter.REGISTER_HI] = hi;
+		values[MipsInterpreter.REGISTER_LO] = lo;
+	}
+
+	/* The immediate form of a register-register instruction with one known operand, or null. */
+	private DecodedInstruction withImmediate(DecodedInstruction d) {
+		int opcode = d.opcode;
+		if (!usesRt(opcode) || opcode == MipsOpcode.MOVE) return null;
+		boolean rsKnown = known[d.rs], rtKnown = d.rt >= 0 && known[d.rt];
+		switch (opcode) {
+		case MipsOpcode.ADD:
+		case MipsOpcode.ADDU:
+			if (rtKnown) return rewrite(MipsOpcode.ADDI, d, d.rd, d.rs, -1, values[d.rt]);
+			if (rsKnown) return rewrite(MipsOpcode.ADDI, d, d.rd, d.rt, -1, values[d.rs]);
+			return null;
+		case MipsOpcode.SUB:
+		case MipsOpcode.SUBU:
+			return rtKnown ? rewrite(MipsOpcode.ADDI, d, d.rd, d.rs, -1, -values[d.rt]) : null;
+		case MipsOpcode.AND:
+		case MipsOpcode.OR:
+		case MipsOpcode.XOR: {
+			int immediateOpcode = opcode - MipsOpcode.AND + MipsOpcode.ANDI;
+			if (rtKnown) return rewrite(immediateOpcode, d, d.rd, d.rs, -1, values[d.rt]);
+			if (rsKnown) return rewrite(immediateOpcode, d, d.rd, d.rt, -1, values[d.rs]);
+			return null;
+		}
+		case MipsOpcode.SLT:
+			return rtKnown ? rewrite(MipsOpcode.SLTI, d, d.rd, d.rs, -1, values[d.rt]) : null;
+		case MipsOpcode.SLTU:
+			return rtKnown ? rewrite(MipsOpcode.SLTIU, d, d.rd, d.rs, -1, values[d.rt]) : null;
+		case MipsOpcode.SLLV:
+			return rtKnown ? rewrite(MipsOpcode.SLL, d, d.rd, d.rs, -1, values[d.rt]) : null;
+		case MipsOpcode.SRLV:
+			return rtKnown ? rewrite(MipsOpcode.SRL, d, d.rd, d.rs, -1, values[d.rt]) : null;
+		}
+		return null;
+	}
+
+	/* move $x, $x and adding, or-ing, xor-ing or shifting $x by zero into $x. */
+	private static boolean isIdentity(DecodedInstruction d) {
+		switch (d.opcode) {
+		case MipsOpcode.MOVE:
+			return d.rs == d.rt;
+		case MipsOpcode.ADDI:
+		case MipsOpcode.ADDIU:
+		case MipsOpcode.ORI:
+		case MipsOpcode.XORI:
+		case MipsOpcode.SLL:
+		case MipsOpcode.SRL:
+		case MipsOpcode.SRA:
+			return d.rd == d.rs && d.immediate == 0;
+		}
+		return false;
+	}
+
+	private static DecodedInstruction rewrite(int opcode, DecodedInstruction d, int rd, int rs, int rt, int immediate) {
+		DecodedInstruction rewritten = new DecodedInstruction(opcode, d.line);
+		rewritten.rd = rd;
+		rewritten.rs = rs;
+		rewritten.rt = rt;
+		rewritten.immediate = immediate;
+		rewritten.target = d.target;
+		rewritten.instruction = MipsInterpreter.MIPS_INSTRUCTIONS.get(MipsOpcode.NAMES[opcode]);
+		return rewritten;
+	}
+}
@@ -0,0 +1,212 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Execution counters for one run. Lines, opcodes, branch outcomes and call
+ * edges are counted in primitive arrays sized at load time, so record()
+ * allocates nothing. A region is the run of lines from one text label to the
+ * next; regions entered by jal are treated as functions for the call graph,
+ * which a shadow stack of regions maintains from jal and jr $ra.
+ */
+public class MipsProfiler implements MipsObserver {
+
+	private DecodedInstruction[] text;
+	private String[] regionNames;
+	private int[] regionOfLine;
+
+	private long[] lineCounts;
+	private long[] opcodeCounts = new long[MipsOpcode.COUNT];
+	private long[] takenCounts;
+	private long[] callCounts;
+	private long[] inclusiveCounts;
+	private long instructions;
+
+	/* Open-addressed table of caller * regions + callee -> calls; a zero key is empty, so keys are stored plus one. */
+	private long[] edgeKeys = new long[64];
+	private long[] edgeCounts = new long[64];
+	private int edgeCount;
+
+	private int[] stackRegions = new int[64];
+	private long[] stackEntries = new long[64];
+	private int[] activeFrames;
+	private int depth;
+
+	public MipsProfiler(DecodedInstruction[] text, Map<String, Integer> labels, int entryLine) {
+		this.text = text;
+		lineCounts = new long[text.length];
+		takenCounts = new long[text.length];
+
+		String[] labelAtLine = new String[text.length];
+		for (Map.Entry<String, Integer> label : labels.entrySet()) {
+			int line = label.getValue();
+			if (line < text.length && (labelAtLine[line] == null || label.getKey().compareTo(labelAtLine[line]) < 0))
+				labelAtLine[line] = label.getKey();
+		}
+		ArrayList<String> names = new ArrayList<String>();
+		names.add("<start>");
+		regionOfLine = new int[text.length];
+		for (int line = 0; line < text.length; line++) {
+			if (labelAtLine[line] != null) names.add(labelAtLine[line]);
+			regionOfLine[line] = names.size() - 1;
+		}
+		regionNames = names.toArray(new String[names.size()]);
+		callCounts = new long[regionNames.length];
+		inclusiveCounts = new long[regionNames.length];
+		activeFrames = new int[regionNames.length];
+
+		if (entryLine < text.length) push(regionOfLine[entryLine]);
+	}
+
+	public void record(DecodedInstruction d, int line, int next, int address) {
+		instructions++;
+		lineCounts[line]++;
+		opcodeCounts[d.opcode]++;
+		if (MipsOpcode.isBranch(d.opcode)) {
+			if (next == d.target) takenCounts[line]++;
+		} else if (d.opcode == MipsOpcode.JAL) {
+			int callee = regionOfLine[d.target];
+			callCounts[callee]++;
+			countEdge(depth > 0 ? stackRegions[depth - 1] : 0, callee);
+			push(callee);
+		} else if (d.opcode == MipsOpcode.JR && d.rs == MipsInterpreter.REGISTER_RA && depth > 1) {
+			pop();
+		}
+	}
+
+	/* Closes the frames still open when the program stops, so inclusive counts cover them. */
+	public void finish() {
+		while (depth > 0)
+			pop();
+	}
+
+	public long getInstructions() {
+		return instructions;
+	}
+
+	public long getLineCount(int line) {
+		return lineCounts[line];
+	}
+
+	public long getOpcodeCount(int opcode) {
+		return opcodeCounts[opcode];
+	}
+
+	private void push(int region) {
+		if (depth == stackRegions.length) {
+			stackRegions = Arrays.copyOf(stackRegions, depth * 2);
+			stackEntries = Arrays.copyOf(stackEntries, depth * 2);
+		}
+		stackRegions[depth] = region;
+		stackEntries[depth] = instructions;
+		depth++;
+		activeFrames[region]++;
+	}
+
+	private void pop() {
+		depth--;
+		int region = stackRegions[depth];
+		/* Only the outermost frame of a recursive function adds to its inclusive count. */
+		if (--activeFrames[region] == 0) inclusiveCounts[region] += instructions - stackEntries[depth];
+	}
+
+	private void countEdge(int caller, int callee) {
+		long key = (long) caller * regionNames.length + callee + 1;
+		int mask = edgeKeys.length - 1;
+		int slot = (int) (key * 0x9e3779b97f4a7c15L >>> 40) & mask;
+		while (edgeKeys[slot] != 0 && edgeKeys[slot] != key)
+			slot = (slot + 1) & mask;
+		if (edgeKeys[slot] == 0) {
+			edgeKeys[slot] = key;
+			edgeCount++;
+		}
+		edgeCounts[slot]++;
+		if (edgeCount * 2 > edgeKeys.length) growEdges();
+	}
+
+	private void growEdges() {
+		long[] keys = edgeKeys, counts = edgeCounts;
+		edgeKeys = new long[keys.length * 2];
+		edgeCounts = new long[keys.length * 2];
+		int mask = edgeKeys.length - 1;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == 0) continue;
+			int slot = (int) (keys[i] * 0x9e3779b97f4a7c15L >>> 40) & mask;
+			while (edgeKeys[slot] != 0)
+				slot = (slot + 1) & mask;
+			edgeKeys[slot] = keys[i];
+			edgeCounts[slot] = counts[i];
+		}
+	}
+
+	/*
+	 * Writes the flat profile by region, the hottest lines, the opcode mix,
+	 * branch outcomes and the call graph. sourceLines may be null, in which
+	 * case lines are shown decoded.
+	 */
+	public void report(PrintStream out, List<String> sourceLines, int topLines) {
+		finish();
+		long total = Math.max(instructions, 1);
+		out.printf("Profile: %d instructions%n", instructions);
+
+		long[] selfCounts = new long[regionNames.length];
+		for (int line = 0; line < text.length; line++)
+			selfCounts[regionOfLine[line]] += lineCounts[line];
+		out.printf("%nFlat profile by label%n%-24s %14s %7s %14s %7s %10s%n", "label", "self", "%", "inclusive", "%", "calls");
+		for (int region : sortedByCount(selfCounts)) {
+			if (selfCounts[region] == 0 && callCounts[region] == 0) continue;
+			out.printf("%-24s %14d %6.2f%% %14s %7s %10s%n", regionNames[region], selfCounts[region], 100.0 * selfCounts[region] / total,
+					callCounts[region] == 0 ? "" : Long.toString(inclusiveCounts[region]),
+					callCounts[region] == 0 ? "" : String.format("%6.2f%%", 100.0 * inclusiveCounts[region] / total),
+					callCounts[region] == 0 ? "" : Long.toString(callCounts[region]));
+		}
+
+		out.printf("%nHottest lines%n%6s %14s %7s  %s%n", "line", "count", "%", "instruction");
+		int shown = 0;
+		for (int line : sortedByCount(lineCounts)) {
+			if (shown++ == topLines || lineCounts[line] == 0) break;
+			out.printf("%6d %14d %6.2f%%  %s%n", line + 1, lineCounts[line], 100.0 * lineCounts[line] / total, source(sourceLines, line));
+		}
+
+		out.printf("%nOpcodes%n%-10s %14s %7s%n", "opcode", "count", "%");
+		for (int opcode : sortedByCount(opcodeCounts)) {
+			if (opcodeCounts[opcode] == 0) break;
+			out.printf("%-10s %14d %6.2f%%%n", MipsOpcode.NAMES[opcode], opcodeCounts[opcode], 100.0 * opcodeCounts[opcode] / total);
+		}
+
+		out.printf("%nBranches%n%6s %14s %14s %7s  %s%n", "line", "executed", "taken", "taken%", "instruction");
+		for (int line = 0; line < text.length; line++) {
+			if (!MipsOpcode.isBranch(text[line].opcode) || lineCounts[line] == 0) continue;
+			out.printf("%6d %14d %14d %6.2f%%  %s%n", line + 1, lineCounts[line], takenCounts[line],
+					100.0 * takenCounts[line] / lineCounts[line], source(sourceLines, line));
+		}
+
+		out.printf("%nCall graph%n%-24s %-24s %10s%n", "caller", "callee", "calls");
+		long[] edges = new long[edgeCount];
+		long[] counts = new long[edgeCount];
+		for (int i = 0, j = 0; i < edgeKeys.length; i++) {
+			if (edgeKeys[i] == 0) continue;
+			edges[j] = edgeKeys[i] - 1;
+			counts[j++] = edgeCounts[i];
+		}
+		for (int i : sortedByCount(counts))
+			out.printf("%-24s %-24s %10d%n", regionNames[(int) (edges[i] / regionNames.length)],
+					regionNames[(int) (edges[i] % regionNames.length)], counts[i]);
+	}
+
+	private String source(List<String> sourceLines, int line) {
+		if (sourceLines != null && line < sourceLines.size()) return sourceLines.get(line).trim();
+		return text[line].toString();
+	}
+
+	private static List<Integer> sortedByCount(final long[] counts) {
+		ArrayList<Integer> indices = new ArrayList<Integer>(counts.length);
+		for (int i = 0; i < counts.length; i++)
+			indices.add(i);
+		Collections.sort(indices, (a, b) -> Long.compare(counts[b], counts[a]));
+		return indices;
+	}
+}
@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A loaded program, apart from any run of it: the decoded text, labels, the
+ * initial data segment, the first line of .text and the line execution
+ * starts on, plus the control flow
+ * graph and fused text derived from them on first use. None of it changes
+ * once built, so one program can back any number of interpreters on any
+ * number of threads, each with its own registers, memory and I/O.
+ */
+public final class MipsProgram {
+
+	final DecodedInstruction[] text;
+	final HashMap<String, Integer> labels;
+	final HashMap<String, Integer> dataAddresses;
+	final byte[] data;
+	final int firstLineOfText;
+	final int entryLine;
+
+	private MipsControlFlow controlFlow;
+	private DecodedInstruction[] fusedText;
+
+	MipsProgram(DecodedInstruction[] text, HashMap<String, Integer> labels, HashMap<String, Integer> dataAddresses,
+			byte[] data, int firstLineOfText, int entryLine) {
+		this.text = text;
+		this.labels = labels;
+		this.dataAddresses = dataAddresses;
+		this.data = data;
+		this.firstLineOfText = firstLineOfText;
+		this.entryLine = entryLine;
+	}
+
+	/* Loads assembly, a raw binary or an ELF file the way MipsInterpreter.load does; problems are reported on stderr. */
+	public static MipsProgram load(Path path) throws IOException {
+		MipsInterpreter interpreter = new MipsInterpreter();
+		if (!interpreter.load(path.toString())) throw new IOException("Couldn't load " + path);
+		return interpreter.getProgram();
+	}
+
+	/* Loads assembly source read from in. */
+	public static MipsProgram load(InputStream in) throws IOException {
+		HashMap<String, Integer> labels = new HashMap<String, Integer>();
+		HashMap<String, Integer> dataAddresses = new HashMap<String, Integer>();
+		MipsMemory memory = new MipsMemory();
+		MipsLoader loader = new MipsLoader(labels, dataAddresses, memory, System.err);
+		DecodedInstruction[] text = loader.load(ByteBuffer.wrap(in.readAllBytes()));
+		int firstLine = loader.getFirstLineOfText();
+		return new MipsProgram(text, labels, dataAddresses, memory.getData(), firstLine, firstLine);
+	}
+
+	public int getLineCount() {
+		return text.length;
+	}
+
+	/* The first line of code, where control flow analysis starts: 0 for binaries, whose entry point may come later. */
+	public int getFirstLineOfText() {
+		return firstLineOfText;
+	}
+
+	public int getEntryLine() {
+		return entryLine;
+	}
+
+	/* Text labels by line. */
+	public Map<String, Integer> getLabels() {
+		return Collections.unmodifiableMap(labels);
+	}
+
+	/* Data labels by address. */
+	public Map<String, Integer> getDataAddresses() {
+		return Collections.unmodifiableMap(dataAddresses);
+	}
+
+	public int getDataSize() {
+		return data.length;
+	}
+
+	public synchronized MipsControlFlow getControlFlow() {
+		if (controlFlow == null) controlFlow = new MipsControlFlow(text, firstLineOfText, labels.values());
+		return controlFlow;
+	}
+
+	public synchronized DecodedInstruction[] getFusedText() {
+		if (fusedText == null) fusedText = new MipsFusion().fuse(getControlFlow());
+		return fusedText;
+	}
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * A directory of loaded program images named by the SHA-256 of their source.
+ * The image format belongs to MipsLoader; the cache only finds, maps and
+ * stores images. Images are written to a temporary file and moved into place,
+ * so concurrent loaders never see a partial one.
+ */
+public class MipsProgramCache {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private Path directory;
+
+	public MipsProgramCache(Path directory) {
+		this.directory = directory;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public String key(ByteBuffer source) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(source.duplicate());
+		byte[] hash = digest.digest();
+		char[] key = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			key[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+			key[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+		}
+		return new String(key);
+	}
+
+	/* Maps the image stored under key, or returns null if there is none. */
+	public ByteBuffer find(String key) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(imagePath(key), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
+	public void store(String key, byte[] image) throws IOException {
+		Files.createDirectories(directory);
+		Path temporary = Files.createTempFile(directory, key, ".tmp");
+		try {
+			Files.write(temporary, image);
+			Files.move(temporary, imagePath(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private Path imagePath(String key) {
+		return directory.resolve(key + ".mipc");
+	}
+}
@@ -0,0 +1,42 @@
+class MipsRegister {
+
+	public static int parse(String registerString) {
+		if (registerString.length() < 2 || registerString.charAt(0) != '$') return -1;
+
+		if (registerString.equals("$at"))
+			return MipsInterpreter.REGISTER_AT;
+		else if (registerString.equals("$gp"))
+			return MipsInterpreter.REGISTER_GP;
+		else if (registerString.equals("$sp"))
+			return MipsInterpreter.REGISTER_SP;
+		else if (registerString.equals("$ra"))
+			return MipsInterpreter.REGISTER_RA;
+
+		if (Character.isDigit(registerString.charAt(1))) {
+			if (registerString.length() > 3) return -1;
+			int registerIndex = 0;
+			for (int i = 1; i < registerString.length(); i++) {
+				if (!Character.isDigit(registerString.charAt(i))) return -1;
+				registerIndex = registerIndex * 10 + registerString.charAt(i) - '0';
+			}
+			return registerIndex > 31 ? -1 : registerIndex;
+		}
+		if (registerString.equals("$zero")) return 0;
+		if (registerString.equals("$fp")) return 30;
+		if (registerString.length() != 3 || !Character.isDigit(registerString.charAt(2))) return -1;
+		int registerIndex = registerString.charAt(2) - '0';
+		switch (registerString.charAt(1)) {
+		case 'v':
+			return registerIndex < 2 ? registerIndex + 2 : -1;
+		case 'a':
+			return registerIndex < 4 ? registerIndex + 4 : -1;
+		case 't':
+			return registerIndex < 8 ? registerIndex + 8 : registerIndex + 16;
+		case 's':
+			return registerIndex < 8 ? registerIndex + 16 : -1;
+		case 'k':
+			return registerIndex < 2 ? registerIndex + 26 : -1;
+		}
+		return -1;
+	}
+}
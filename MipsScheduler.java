@@ -0,0 +1,202 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Multiplexes many interpreters over a small pool of worker threads. Each
+ * submitted interpreter becomes a Task that a worker advances with step(slice)
+ * and puts back on the run queue, so thousands of programs share the pool
+ * without a thread each. The run queue is ordered by virtual run time: a task
+ * is charged for the instructions it executed divided by its priority, so
+ * every runnable task gets slices and higher priorities get proportionally
+ * more. A task blocked on fed input leaves the queue until feed or
+ * closeInput wakes it. An interpreter is only ever stepped by one worker at
+ * a time, but must not be touched by other threads while its task is live.
+ */
+public class MipsScheduler {
+
+	public static final int MIN_PRIORITY = 1;
+	public static final int NORM_PRIORITY = 5;
+	public static final int MAX_PRIORITY = 10;
+	public static final long DEFAULT_SLICE = 100000;
+
+	private final long slice;
+	private final PriorityBlockingQueue<Task> runQueue = new PriorityBlockingQueue<Task>(64,
+			(a, b) -> a.virtualTime != b.virtualTime ? Long.compare(a.virtualTime, b.virtualTime) : Long.compare(a.sequence, b.sequence));
+	private final AtomicLong sequence = new AtomicLong();
+	/* The smallest virtual time still in play; new and woken tasks start here so they can't starve the rest. */
+	private final AtomicLong minVirtualTime = new AtomicLong();
+	private final Thread[] workers;
+
+	public MipsScheduler(int threads, long slice) {
+		this.slice = slice;
+		workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(this::work, "mips-scheduler-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	public long getSlice() {
+		return slice;
+	}
+
+	public Task submit(MipsInterpreter interpreter) {
+		return submit(interpreter, NORM_PRIORITY);
+	}
+
+	/* Queues a loaded interpreter; it runs from its current pc. */
+	public Task submit(MipsInterpreter interpreter, int priority) {
+		if (priority < MIN_PRIORITY || priority > MAX_PRIORITY) throw new IllegalArgumentException("Invalid priority: " + priority);
+		Task task = new Task(interpreter, priority);
+		task.virtualTime = minVirtualTime.get();
+		enqueue(task);
+		return task;
+	}
+
+	/* Stops the workers after their current slices; queued tasks are left unfinished. */
+	public void shutdown() {
+		for (Thread worker : workers)
+			worker.interrupt();
+	}
+
+	private void enqueue(Task task) {
+		task.sequence = sequence.getAndIncrement();
+		runQueue.add(task);
+	}
+
+	private void work() {
+		try {
+			while (true) {
+				Task task = runQueue.take();
+				minVirtualTime.accumulateAndGet(task.virtualTime, Math::max);
+				task.runSlice();
+			}
+		} catch (InterruptedException e) {
+			return;
+		}
+	}
+
+	public class Task {
+		private final MipsInterpreter interpreter;
+		private final int priority;
+		private final CompletableFuture<MipsInterpreter> done = new CompletableFuture<MipsInterpreter>();
+		private final ConcurrentLinkedQueue<byte[]> input = new ConcurrentLinkedQueue<byte[]>();
+		private volatile boolean closeInput;
+		private volatile boolean cancelled;
+		private volatile MipsInterpreter.Status status = MipsInterpreter.Status.RUNNING;
+		private volatile long slices;
+		private volatile long runNanos;
+		private boolean inputClosed;
+		private boolean waiting;
+		private long virtualTime;
+		private long sequence;
+
+		Task(MipsInterpreter interpreter, int priority) {
+			this.interpreter = interpreter;
+			this.priority = priority;
+		}
+
+		public MipsInterpreter getInterpreter() {
+			return interpreter;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		/* The status after the task's last slice. */
+		public MipsInterpreter.Status getStatus() {
+			return status;
+		}
+
+		public long getSlices() {
+			return slices;
+		}
+
+		/* Time spent stepping the interpreter, excluding time queued or blocked. */
+		public long getRunNanos() {
+			return runNanos;
+		}
+
+		/* Completes with the interpreter when the program stops, and is cancelled by cancel. */
+		public CompletableFuture<MipsInterpreter> getFuture() {
+			return done;
+		}
+
+		public MipsInterpreter join() {
+			return done.join();
+		}
+
+		/* Passes input to an interpreter whose console was switched to fed input, waking it if it's blocked. */
+		public void feed(byte[] bytes) {
+			input.add(bytes.clone());
+			wake();
+		}
+
+		public void closeInput() {
+			closeInput = true;
+			wake();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			synchronized (this) {
+				if (!waiting) return;
+				waiting = false;
+			}
+			done.cancel(false);
+		}
+
+		private void wake() {
+			synchronized (this) {
+				if (!waiting) return;
+				waiting = false;
+				virtualTime = Math.max(virtualTime, minVirtualTime.get());
+			}
+			enqueue(this);
+		}
+
+		private void runSlice() {
+			if (cancelled) {
+				done.cancel(false);
+				return;
+			}
+			long start = System.nanoTime();
+			long instructions = interpreter.getInstructionsExecuted();
+			try {
+				MipsConsole console = interpreter.getConsole();
+				for (byte[] bytes; (bytes = input.poll()) != null;)
+					console.feedInput(bytes, 0, bytes.length);
+				if (closeInput && !inputClosed) {
+					console.closeInput();
+					inputClosed = true;
+				}
+				status = interpreter.step(slice);
+			} catch (RuntimeException e) {
+				done.completeExceptionally(e);
+				return;
+			} finally {
+				runNanos += System.nanoTime() - start;
+				slices++;
+			}
+			virtualTime += (interpreter.getInstructionsExecuted() - instructions) * NORM_PRIORITY / priority;
+			if (status == MipsInterpreter.Status.TERMINATED) {
+				done.complete(interpreter);
+				return;
+			}
+			if (status == MipsInterpreter.Status.BLOCKED) {
+				synchronized (this) {
+					/* Input that arrived during the slice has to be tried before sleeping. */
+					if (input.isEmpty() && closeInput == inputClosed && !cancelled) {
+						waiting = true;
+						return;
+					}
+				}
+			}
+			enqueue(this);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * The results of a program's input syscalls, recorded from a real run and
+ * replayed into later ones. A recording log passes read_int and read_string
+ * through to the console and notes what each returned, or the error it
+ * raised; a replaying log answers them from memory without touching the
+ * console, so an interactive program reruns deterministically and at full
+ * speed. A replay that asks for a different service than was recorded, or
+ * for more input, is a runtime error, and so is a log cut off mid-entry.
+ *
+ * The file is a magic number and version followed by one entry per syscall:
+ * 'i' and the int read, 's' and the length and bytes of the string stored,
+ * or 'e' and the error message as modified UTF-8. All numbers are big-endian.
+ */
+public class MipsSyscallLog {
+
+	private static final int MAGIC = 0x4d535953;
+	private static final int VERSION = 1;
+
+	private static final byte INT = 'i';
+	private static final byte STRING = 's';
+	private static final byte ERROR = 'e';
+
+	private final ByteArrayOutputStream recorded;
+	private final DataOutputStream out;
+	private final ByteBuffer replay;
+
+	private MipsSyscallLog(ByteArrayOutputStream recorded, ByteBuffer replay) {
+		this.recorded = recorded;
+		out = recorded == null ? null : new DataOutputStream(recorded);
+		this.replay = replay;
+	}
+
+	public static MipsSyscallLog recording() {
+		MipsSyscallLog log = new MipsSyscallLog(new ByteArrayOutputStream(), null);
+		try {
+			log.out.writeInt(MAGIC);
+			log.out.writeInt(VERSION);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return log;
+	}
+
+	/* Replays a log written by save; each replaying log starts from the first entry. */
+	public static MipsSyscallLog replaying(byte[] log) throws IOException {
+		ByteBuffer replay = ByteBuffer.wrap(log);
+		if (replay.remaining() < 8 || replay.getInt() != MAGIC) throw new IOException("Not a syscall log");
+		if (replay.getInt() != VERSION) throw new IOException("Unsupported syscall log version");
+		return new MipsSyscallLog(null, replay);
+	}
+
+	public static MipsSyscallLog replaying(Path path) throws IOException {
+		return replaying(Files.readAllBytes(path));
+	}
+
+	public boolean isReplaying() {
+		return replay != null;
+	}
+
+	/* The offset of the next entry, which is the same in a recording log and in a replay of it. */
+	long getPosition() {
+		return recorded != null ? recorded.size() : replay.position();
+	}
+
+	/* Makes a replaying log continue from position, as noted by a checkpoint of an earlier run. */
+	void seek(long position) throws IOException {
+		if (replay == null) throw new IllegalStateException("Not replaying");
+		if (position < 8 || position > replay.limit()) throw new IOException("Syscall log doesn't reach the checkpoint");
+		replay.position((int) position);
+	}
+
+	public void save(Path path) throws IOException {
+		if (recorded == null) throw new IllegalStateException("Not recording");
+		Files.write(path, recorded.toByteArray());
+	}
+
+	/* read_int through console, noting the result. */
+	int recordInt(MipsConsole console) {
+		int value;
+		try {
+			value = console.readInt();
+		} catch (MipsException e) {
+			recordError(e);
+			throw e;
+		}
+		try {
+			out.writeByte(INT);
+			out.writeInt(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return value;
+	}
+
+	/* read_string through console, noting the bytes it stored. */
+	void recordLine(MipsConsole console, MipsMemory memory, int address, int maxLength) {
+		int length;
+		try {
+			length = console.readLine(memory, address, maxLength);
+		} catch (MipsException e) {
+			recordError(e);
+			throw e;
+		}
+		try {
+			out.writeByte(STRING);
+			out.writeInt(length);
+			for (int i = 0; i < length; i++)
+				out.writeByte(memory.loadByte(address + i));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void recordError(MipsException e) {
+		try {
+			out.writeByte(ERROR);
+			out.writeUTF(String.valueOf(e.getMessage()));
+		} catch (IOException f) {
+			throw new IllegalStateException(f);
+		}
+	}
+
+	int replayInt() {
+		next(INT, 5);
+		need(4);
+		return replay.getInt();
+	}
+
+	void replayLine(MipsMemory memory, int address, int maxLength) {
+		next(STRING, 8);
+		need(4);
+		int length = replay.getInt();
+		if (length < 0) throw new MipsException("Syscall log is corrupt: negative string length");
+		need(length);
+		int stored = Math.min(length, maxLength - 1);
+		for (int i = 0; i < length; i++) {
+			byte b = replay.get();
+			if (i < stored) memory.storeByte(address + i, b);
+		}
+		if (maxLength > 0) memory.storeByte(address + Math.max(stored, 0), 0);
+	}
+
+	/* Checks that the next entry answers service, throwing a recorded error as it was raised. */
+	private void next(byte kind, int service) {
+		if (!replay.hasRemaining()) throw new MipsException("End of input");
+		byte next = replay.get();
+		if (next == ERROR) {
+			need(2);
+			int length = 2 + (replay.getShort(replay.position()) & 0xffff);
+			need(length);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(replay.array(), replay.arrayOffset() + replay.position(), length));
+			replay.position(replay.position() + length);
+			String message;
+			try {
+				message = in.readUTF();
+			} catch (IOException e) {
+				throw new MipsException("Syscall log is corrupt: " + e.getMessage());
+			}
+			throw new MipsException(message);
+		}
+		if (next != kind) throw new MipsException("Syscall log out of step: service " + service + " wasn't recorded here");
+	}
+
+	private void need(int bytes) {
+		if (replay.remaining() < bytes) throw new MipsException("Syscall log is truncated");
+	}
+}
@@ -0,0 +1,167 @@
+import java.io.PrintStream;
+
+/*
+ * A cycle-accounting model of a classic five-stage MIPS pipeline (IF, ID, EX,
+ * MEM, WB) with full forwarding, fed by the executed instruction stream. Every
+ * instruction issues one cycle after the previous one plus its stalls: a load
+ * followed by an instruction that reads the loaded register in EX, mfhi and
+ * mflo waiting for a multiply or divide to finish, taken branches (predicted
+ * not taken and resolved in EX) and jumps (resolved in ID) flushing the
+ * instructions behind them, and misses in the L1 instruction and data caches.
+ * Either cache may be null, which models memory that always hits.
+ */
+public class MipsTimingModel implements MipsObserver {
+
+	public static final int DEFAULT_MISS_PENALTY = 10;
+	public static final String DEFAULT_CACHE = "8192:2:32";
+
+	private static final int PIPELINE_DEPTH = 5;
+
+	private static final int LOAD_USE = 0;
+	private static final int MULTIPLY_DIVIDE = 1;
+	private static final int BRANCH = 2;
+	private static final int JUMP = 3;
+	private static final int INSTRUCTION_MISS = 4;
+	private static final int DATA_MISS = 5;
+	private static final String[] STALL_NAMES = {
+		"load-use", "mult/div", "taken branch", "jump", "I-cache miss", "D-cache miss"
+	};
+
+	private MipsCache instructionCache;
+	private MipsCache dataCache;
+	private int missPenalty = DEFAULT_MISS_PENALTY;
+	private int branchPenalty = 2;
+	private int jumpPenalty = 1;
+	private int multiplyLatency = 4;
+	private int divideLatency = 32;
+
+	private long instructions;
+	private long cycle;
+	private long[] stalls = new long[STALL_NAMES.length];
+	private long branches;
+	private long branchesTaken;
+	private int loadDestination = -1;
+	private long hiLoReady;
+
+	public MipsTimingModel(MipsCache instructionCache, MipsCache dataCache) {
+		this.instructionCache = instructionCache;
+		this.dataCache = dataCache;
+	}
+
+	/* Cycles added by a cache miss. */
+	public void setMissPenalty(int missPenalty) {
+		this.missPenalty = missPenalty;
+	}
+
+	/* Cycles lost to a taken branch and to a jump. */
+	public void setBranchPenalties(int branchPenalty, int jumpPenalty) {
+		this.branchPenalty = branchPenalty;
+		this.jumpPenalty = jumpPenalty;
+	}
+
+	/* Cycles before mfhi or mflo can read the result of a multiply and of a divide. */
+	public void setMultiplyDivideLatencies(int multiplyLatency, int divideLatency) {
+		this.multiplyLatency = multiplyLatency;
+		this.divideLatency = divideLatency;
+	}
+
+	public void record(DecodedInstruction d, int line, int next, int address) {
+		int opcode = d.opcode;
+		instructions++;
+		if (instructionCache != null && !instructionCache.access(MipsInterpreter.TEXT_BASE + 4 * line, false))
+			stall(INSTRUCTION_MISS, missPenalty);
+		if (loadDestination > 0 && reads(d, loadDestination)) stall(LOAD_USE, 1);
+		if ((opcode == MipsOpcode.MFHI || opcode == MipsOpcode.MFLO) && cycle < hiLoReady)
+			stall(MULTIPLY_DIVIDE, hiLoReady - cycle);
+		cycle++;
+
+		if (MipsOpcode.isMultiplyOrDivide(opcode)) {
+			hiLoReady = cycle + (opcode == MipsOpcode.MULT || opcode == MipsOpcode.MULTU ? multiplyLatency : divideLatency);
+		} else if (MipsOpcode.isLoad(opcode) || MipsOpcode.isStore(opcode)) {
+			if (dataCache != null && !dataCache.access(address, MipsOpcode.isStore(opcode))) stall(DATA_MISS, missPenalty);
+		} else if (MipsOpcode.isBranch(opcode)) {
+			branches++;
+			if (next != line + 1) {
+				branchesTaken++;
+				stall(BRANCH, branchPenalty);
+			}
+		} else if (opcode == MipsOpcode.J || opcode == MipsOpcode.JAL || opcode == MipsOpcode.JR) {
+			stall(JUMP, jumpPenalty);
+		}
+		loadDestination = MipsOpcode.isLoad(opcode) ? d.rs : -1;
+	}
+
+	private void stall(int kind, long cycles) {
+		stalls[kind] += cycles;
+		cycle += cycles;
+	}
+
+	/* Whether d reads register in EX; a store's data is forwarded to MEM, so only its base counts. */
+	private static boolean reads(DecodedInstruction d, int register) {
+		int opcode = d.opcode;
+		switch (opcode) {
+		case MipsOpcode.MOVE:
+			return d.rt == register;
+		case MipsOpcode.LI:
+		case MipsOpcode.LA:
+		case MipsOpcode.LUI:
+		case MipsOpcode.MFHI:
+		case MipsOpcode.MFLO:
+		case MipsOpcode.J:
+		case MipsOpcode.JAL:
+		case MipsOpcode.NOOP:
+		case MipsOpcode.HALT:
+			return false;
+		case MipsOpcode.SYSCALL:
+			return register == 2 || register == 4 || register == 5;
+		case MipsOpcode.JR:
+			return d.rs == register;
+		case MipsOpcode.BEQ:
+		case MipsOpcode.BNE:
+			return d.rd == register || d.rs == register;
+		}
+		if (MipsOpcode.isBranch(opcode)) return d.rd == register;
+		if (MipsOpcode.isLoad(opcode) || MipsOpcode.isStore(opcode)) return d.rt == register;
+		if (opcode == MipsOpcode.SLL || opcode == MipsOpcode.SRL || opcode == MipsOpcode.SRA || opcode >= MipsOpcode.ADDI)
+			return d.rs == register;
+		return d.rs == register || d.rt == register;
+	}
+
+	public long getInstructions() {
+		return instructions;
+	}
+
+	/* Cycles from the first fetch until the last instruction leaves WB. */
+	public long getCycles() {
+		return instructions == 0 ? 0 : cycle + PIPELINE_DEPTH - 1;
+	}
+
+	public void report(PrintStream out) {
+		long cycles = getCycles();
+		long stalled = 0;
+		for (long s : stalls)
+			stalled += s;
+		out.printf("Timing: %d instructions, %d cycles, CPI %.3f%n", instructions, cycles,
+				instructions == 0 ? 0.0 : (double) cycles / instructions);
+		out.printf("%nStalls%n%-14s %14s %7s %7s%n", "cause", "cycles", "%", "CPI");
+		for (int i = 0; i < stalls.length; i++)
+			out.printf("%-14s %14d %6.2f%% %7.3f%n", STALL_NAMES[i], stalls[i], 100.0 * stalls[i] / Math.max(cycles, 1),
+					(double) stalls[i] / Math.max(instructions, 1));
+		out.printf("%-14s %14d %6.2f%%%n", "total", stalled, 100.0 * stalled / Math.max(cycles, 1));
+		out.printf("Branches: %d, %d taken (%.2f%%)%n", branches, branchesTaken, 100.0 * branchesTaken / Math.max(branches, 1));
+		out.println();
+		report(out, "L1 I-cache", instructionCache);
+		report(out, "L1 D-cache", dataCache);
+	}
+
+	private static void report(PrintStream out, String name, MipsCache cache) {
+		if (cache == null) {
+			out.printf("%s: none (always hits)%n", name);
+			return;
+		}
+		out.printf("%s: %s%n", name, cache);
+		out.printf("  %d reads, %d writes, %d misses, hit rate %.2f%%, %d write-backs%n", cache.getReads(), cache.getWrites(),
+				cache.getMisses(), 100.0 * (cache.getAccesses() - cache.getMisses()) / Math.max(cache.getAccesses(), 1),
+				cache.getWriteBacks());
+	}
+}
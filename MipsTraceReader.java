@@ -0,0 +1,162 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Decodes a trace written by MipsTracer, one instruction per line, or with
+ * --summary counts the matching instructions per opcode. Filters combine:
+ * a record is shown only if it matches all of them. Addresses take decimal
+ * or 0x hex, and a range is written LOW-HIGH, both ends inclusive.
+ */
+public class MipsTraceReader {
+
+	private static final int CHUNK_RECORDS = 1 << 16;
+
+	public static void main(String[] args) {
+		MipsTraceReader reader = new MipsTraceReader();
+		String fileName = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].startsWith("--from=")) {
+					reader.from = Long.parseLong(args[i].substring("--from=".length()));
+				} else if (args[i].startsWith("--count=")) {
+					reader.limit = Long.parseLong(args[i].substring("--count=".length()));
+				} else if (args[i].startsWith("--pc=")) {
+					long[] range = parseRange(args[i].substring("--pc=".length()));
+					reader.pcLow = range[0];
+					reader.pcHigh = range[1];
+				} else if (args[i].startsWith("--addr=")) {
+					long[] range = parseRange(args[i].substring("--addr=".length()));
+					reader.addressLow = range[0];
+					reader.addressHigh = range[1];
+				} else if (args[i].startsWith("--op=")) {
+					reader.opcodes = new boolean[MipsOpcode.COUNT];
+					for (String name : args[i].substring("--op=".length()).split(",")) {
+						int opcode = MipsOpcode.forName(name);
+						if (opcode < 0) throw new IllegalArgumentException("Unknown opcode: " + name);
+						reader.opcodes[opcode] = true;
+					}
+				} else if (args[i].startsWith("--reg=")) {
+					reader.register = Integer.parseInt(args[i].substring("--reg=".length()));
+				} else if (args[i].equals("--summary")) {
+					reader.summary = true;
+				} else {
+					fileName = args[i];
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		if (fileName == null) {
+			System.err.println("Usage: java MipsTraceReader [--from=N] [--count=N] [--pc=ADDR[-ADDR]] [--addr=ADDR[-ADDR]] [--op=NAME,...] [--reg=N] [--summary] trace");
+			return;
+		}
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+		try {
+			reader.read(fileName, out);
+		} catch (IOException e) {
+			System.err.println("Couldn't read " + fileName + ": " + e.getMessage());
+		}
+		out.flush();
+	}
+
+	private long from;
+	private long limit = Long.MAX_VALUE;
+	private long pcLow = 0;
+	private long pcHigh = 0xffffffffL;
+	private long addressLow = -1;
+	private long addressHigh = -1;
+	private boolean[] opcodes;
+	private int register = -1;
+	private boolean summary;
+
+	public void read(String fileName, PrintWriter out) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(MipsTracer.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0) throw new IOException("Truncated header");
+			header.flip();
+			if (header.getInt() != MipsTracer.MAGIC) throw new IOException("Not a trace");
+			if (header.getShort() != MipsTracer.VERSION || header.getShort() != MipsTracer.RECORD_SIZE)
+				throw new IOException("Unsupported trace version");
+			long index = header.getLong();
+			long[] counts = new long[MipsOpcode.COUNT];
+			long shown = 0;
+			ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_RECORDS * MipsTracer.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (shown < limit && channel.read(chunk) >= 0) {
+				chunk.flip();
+				while (chunk.remaining() >= MipsTracer.RECORD_SIZE && shown < limit) {
+					long pc = chunk.getInt() & 0xffffffffL;
+					int opcode = chunk.get() & 0xff;
+					int destination = chunk.get();
+					chunk.getShort();
+					int value = chunk.getInt();
+					long address = chunk.getInt() & 0xffffffffL;
+					if (matches(index, pc, opcode, destination, address)) {
+						shown++;
+						if (summary) {
+							if (opcode < counts.length) counts[opcode]++;
+						} else {
+							print(out, index, pc, opcode, destination, value, address);
+						}
+					}
+					index++;
+				}
+				chunk.compact();
+			}
+			if (summary) {
+				out.printf("%-10s %14s%n", "opcode", "count");
+				for (int opcode = 0; opcode < counts.length; opcode++)
+					if (counts[opcode] != 0) out.printf("%-10s %14d%n", MipsOpcode.NAMES[opcode], counts[opcode]);
+				out.printf("%-10s %14d%n", "total", shown);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private boolean matches(long index, long pc, int opcode, int destination, long address) {
+		if (index < from || pc < pcLow || pc > pcHigh) return false;
+		if (opcodes != null && (opcode >= opcodes.length || !opcodes[opcode])) return false;
+		if (register >= 0 && destination != register) return false;
+		if (addressLow >= 0) {
+			if (!MipsOpcode.isLoad(opcode) && !MipsOpcode.isStore(opcode)) return false;
+			if (address < addressLow || address > addressHigh) return false;
+		}
+		return true;
+	}
+
+	private static void print(PrintWriter out, long index, long pc, int opcode, int destination, int value, long address) {
+		String name = opcode < MipsOpcode.COUNT ? MipsOpcode.NAMES[opcode] : "?" + opcode;
+		if (MipsOpcode.isStore(opcode) && opcode != MipsOpcode.SC) {
+			out.printf("%12d  0x%08x  %-8s  [0x%08x] = %d%n", index, pc, name, address, value);
+		} else if (MipsOpcode.isLoad(opcode) || opcode == MipsOpcode.SC) {
+			out.printf("%12d  0x%08x  %-8s  %s = %d  [0x%08x]%n", index, pc, name, registerName(destination), value, address);
+		} else if (destination >= 0) {
+			out.printf("%12d  0x%08x  %-8s  %s = %d%n", index, pc, name, registerName(destination), value);
+		} else {
+			out.printf("%12d  0x%08x  %s%n", index, pc, name);
+		}
+	}
+
+	private static String registerName(int register) {
+		if (register == MipsInterpreter.REGISTER_HI) return "$hi";
+		if (register == MipsInterpreter.REGISTER_LO) return "$lo";
+		return "$" + register;
+	}
+
+	private static long[] parseRange(String spec) {
+		int dash = spec.indexOf('-', 1);
+		long low = Long.decode(dash < 0 ? spec : spec.substring(0, dash));
+		long high = dash < 0 ? low : Long.decode(spec.substring(dash + 1));
+		return new long[] {low, high};
+	}
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Records every executed instruction as a fixed 16-byte record in a direct
+ * (off-heap) ring buffer: its address, opcode, the register it wrote and the
+ * value written, and the effective address of a load or store. In the
+ * default mode a full ring is spilled to the trace file with one channel
+ * write, so the file holds the whole run; with keepLast only the most recent
+ * records survive and are written at close, like a flight recorder. Nothing
+ * is allocated per instruction. MipsTraceReader decodes and filters traces.
+ *
+ * File layout, little-endian: a 16-byte header (magic, version, record size,
+ * index of the first record) and then the records, each holding the address
+ * as an int, opcode and register as bytes, two zero bytes, the value and the
+ * memory address as ints. Instructions that write no register record -1 as
+ * the register; stores record the value stored, except sc, which records
+ * the 1 or 0 it leaves in its register, like a load.
+ */
+public class MipsTracer implements MipsObserver {
+
+	public static final int MAGIC = 0x4d545243;
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 16;
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private final MipsInterpreter interpreter;
+	private final FileChannel channel;
+	private final ByteBuffer ring;
+	private final int capacity;
+	private final boolean keepLast;
+	private int count;
+	private long recorded;
+	private IOException failure;
+
+	public MipsTracer(MipsInterpreter interpreter, Path path, int capacity, boolean keepLast) throws IOException {
+		if (capacity <= 0) throw new IllegalArgumentException("Invalid trace buffer size: " + capacity);
+		this.interpreter = interpreter;
+		this.capacity = capacity;
+		this.keepLast = keepLast;
+		ring = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		writeHeader(0);
+		channel.position(HEADER_SIZE);
+	}
+
+	public void record(DecodedInstruction d, int line, int next, int address) {
+		if (count == capacity) {
+			if (keepLast) {
+				count = 0;
+			} else {
+				spill();
+			}
+		}
+		int opcode = d.opcode;
+		int register = -1;
+		int value;
+		if (MipsOpcode.isStore(opcode) && opcode != MipsOpcode.SC) {
+			value = interpreter.getRegister(d.rs);
+		} else {
+			register = destination(d);
+			value = register > 0 ? interpreter.getRegister(register) : 0;
+		}
+		int offset = count++ * RECORD_SIZE;
+		ring.putInt(offset, MipsInterpreter.TEXT_BASE + 4 * line);
+		ring.put(offset + 4, (byte) opcode);
+		ring.put(offset + 5, (byte) register);
+		ring.putShort(offset + 6, (short) 0);
+		ring.putInt(offset + 8, value);
+		ring.putInt(offset + 12, address);
+		recorded++;
+	}
+
+	/* The register d writes, or -1; multiplies and divides record LO. */
+	static int destination(DecodedInstruction d) {
+		int opcode = d.opcode;
+		if (opcode == MipsOpcode.MOVE || MipsOpcode.isLoad(opcode) || opcode == MipsOpcode.SC) return d.rs;
+		if (opcode >= MipsOpcode.ADD && opcode <= MipsOpcode.MFLO || opcode >= MipsOpcode.ADDI && opcode <= MipsOpcode.LUI)
+			return d.rd;
+		if (MipsOpcode.isMultiplyOrDivide(opcode)) return MipsInterpreter.REGISTER_LO;
+		if (opcode == MipsOpcode.JAL) return 31;
+		if (opcode == MipsOpcode.SYSCALL) return 2;
+		return -1;
+	}
+
+	/* Instructions recorded so far, including any a keepLast ring has since overwritten. */
+	public long getRecorded() {
+		return recorded;
+	}
+
+	/* Writes out what the ring holds and closes the file; a write that failed during the run is thrown here. */
+	public void close() throws IOException {
+		try {
+			if (failure != null) throw failure;
+			if (keepLast && recorded > capacity) {
+				/* The ring wrapped: its oldest record is the one after the last written. */
+				writeRing(count * RECORD_SIZE, capacity * RECORD_SIZE);
+				writeRing(0, count * RECORD_SIZE);
+				writeHeader(recorded - capacity);
+			} else {
+				writeRing(0, count * RECORD_SIZE);
+			}
+		} finally {
+			count = 0;
+			channel.close();
+		}
+	}
+
+	private void spill() {
+		count = 0;
+		if (failure != null) return;
+		try {
+			writeRing(0, capacity * RECORD_SIZE);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	private void writeRing(int from, int to) throws IOException {
+		ByteBuffer slice = ring.duplicate();
+		slice.limit(to).position(from);
+		while (slice.hasRemaining())
+			channel.write(slice);
+	}
+
+	private void writeHeader(long firstIndex) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).putLong(firstIndex).flip();
+		while (header.hasRemaining())
+			channel.write(header, HEADER_SIZE - header.remaining());
+	}
+}
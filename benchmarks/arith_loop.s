@@ -0,0 +1,30 @@
+# Tight arithmetic loop: mixes add, mult, shifts and logic ops.
+.data
+result: .asciiz "checksum: "
+.text
+main:
+	li $t0, 0		# i
+	li $t1, 1000000		# n
+	li $t2, 0		# checksum
+loop:
+	mult $t0, $t0
+	mflo $t3
+	sll $t4, $t0, 3
+	xor $t3, $t3, $t4
+	srl $t4, $t3, 7
+	add $t2, $t2, $t4
+	andi $t5, $t0, 255
+	sub $t2, $t2, $t5
+	addi $t0, $t0, 1
+	bne $t0, $t1, loop
+	li $v0, 4
+	la $a0, result
+	syscall
+	li $v0, 1
+	move $a0, $t2
+	syscall
+	li $v0, 11
+	li $a0, 10
+	syscall
+	li $v0, 10
+	syscall
@@ -0,0 +1,63 @@
+# Fills a .space array with pseudo-random words, bubble sorts it and prints a checksum.
+.data
+array: .space 2400
+result: .asciiz "sorted checksum: "
+.text
+main:
+	la $s0, array
+	li $s1, 600		# element count
+	li $t0, 0
+	li $t1, 12345		# LCG state
+fill:
+	li $t2, 1103515245
+	mult $t1, $t2
+	mflo $t1
+	addi $t1, $t1, 12345
+	srl $t3, $t1, 8
+	sll $t4, $t0, 2
+	add $t4, $t4, $s0
+	sw $t3, 0($t4)
+	addi $t0, $t0, 1
+	bne $t0, $s1, fill
+
+	addi $s2, $s1, -1	# outer bound
+outer:
+	blez $s2, done
+	li $t0, 0
+	move $t5, $s0
+inner:
+	lw $t1, 0($t5)
+	lw $t2, 4($t5)
+	slt $t3, $t2, $t1
+	beqz $t3, no_swap
+	sw $t2, 0($t5)
+	sw $t1, 4($t5)
+no_swap:
+	addi $t5, $t5, 4
+	addi $t0, $t0, 1
+	bne $t0, $s2, inner
+	addi $s2, $s2, -1
+	j outer
+
+done:
+	li $t0, 0
+	li $t6, 0
+	move $t5, $s0
+sum:
+	lw $t1, 0($t5)
+	xor $t6, $t6, $t1
+	sll $t6, $t6, 1
+	addi $t5, $t5, 4
+	addi $t0, $t0, 1
+	bne $t0, $s1, sum
+	li $v0, 4
+	la $a0, result
+	syscall
+	li $v0, 1
+	move $a0, $t6
+	syscall
+	li $v0, 11
+	li $a0, 10
+	syscall
+	li $v0, 10
+	syscall
@@ -0,0 +1,40 @@
+# Naive recursive Fibonacci: exercises jal/jr and the stack.
+.data
+result: .asciiz "fib(24) = "
+.text
+main:
+	li $a0, 24
+	jal fib
+	move $s0, $v0
+	li $v0, 4
+	la $a0, result
+	syscall
+	li $v0, 1
+	move $a0, $s0
+	syscall
+	li $v0, 11
+	li $a0, 10
+	syscall
+	li $v0, 10
+	syscall
+
+fib:
+	slti $t0, $a0, 2
+	beq $t0, $zero, fib_recurse
+	move $v0, $a0
+	jr $ra
+fib_recurse:
+	addi $sp, $sp, -12
+	sw $ra, 8($sp)
+	sw $a0, 4($sp)
+	addi $a0, $a0, -1
+	jal fib
+	sw $v0, 0($sp)
+	lw $a0, 4($sp)
+	addi $a0, $a0, -2
+	jal fib
+	lw $t0, 0($sp)
+	add $v0, $v0, $t0
+	lw $ra, 8($sp)
+	addi $sp, $sp, 12
+	jr $ra
@@ -0,0 +1,85 @@
+# Sums a .space array 40 times over on 4 harts, each taking a quarter and adding its share to a total with ll/sc.
+.data
+array: .space 1048576
+total: .word 0
+result: .asciiz "total: "
+joined: .asciiz "\njoined: "
+.text
+main:
+	la $s0, array
+	li $s1, 262144		# element count
+	li $t0, 0
+	move $t1, $s0
+fill:
+	sw $t0, 0($t1)
+	addi $t1, $t1, 4
+	addi $t0, $t0, 1
+	bne $t0, $s1, fill
+	sync
+
+	li $s2, 4		# hart count
+	li $s3, 0
+spawn:
+	la $a0, worker
+	move $a1, $s3
+	li $v0, 60		# spawn: entry in $a0, argument in $a1
+	syscall
+	addi $s3, $s3, 1
+	bne $s3, $s2, spawn
+
+	li $s3, 1
+	li $s4, 0
+	addi $s5, $s2, 1
+join:
+	move $a0, $s3
+	li $v0, 61		# join: hart id in $a0, its $v0 returned
+	syscall
+	addu $s4, $s4, $v0
+	addi $s3, $s3, 1
+	bne $s3, $s5, join
+	sync
+
+	la $a0, result
+	li $v0, 4
+	syscall
+	la $t0, total
+	lw $a0, 0($t0)
+	li $v0, 1
+	syscall
+	la $a0, joined
+	li $v0, 4
+	syscall
+	move $a0, $s4
+	li $v0, 1
+	syscall
+	li $v0, 10
+	syscall
+
+# $a0 is the hart's quarter; returns its sum in $v0.
+worker:
+	la $t0, array
+	li $t1, 262144		# bytes per quarter
+	mult $a0, $t1
+	mflo $t2
+	add $t0, $t0, $t2
+	add $t3, $t0, $t1
+	li $v0, 0
+	li $t7, 40		# passes
+pass:
+	move $t4, $t0
+sum:
+	lw $t5, 0($t4)
+	addu $v0, $v0, $t5
+	addi $t4, $t4, 4
+	bne $t4, $t3, sum
+	addi $t7, $t7, -1
+	bgtz $t7, pass
+
+	la $t6, total
+add_total:
+	ll $t5, 0($t6)
+	addu $t5, $t5, $v0
+	sc $t5, 0($t6)
+	beqz $t5, add_total
+	sync
+	jr $ra
@@ -0,0 +1,25 @@
+# Output-bound program: prints a line of text and a number for each iteration.
+.data
+prefix: .asciiz "line "
+suffix: .asciiz " of output\n"
+.text
+main:
+	li $t0, 0
+	li $t1, 20000
+loop:
+	addi $t0, $t0, 1
+	li $v0, 4
+	la $a0, prefix
+	syscall
+	li $v0, 1
+	move $a0, $t0
+	syscall
+	li $v0, 11
+	li $a0, 58
+	syscall
+	li $v0, 4
+	la $a0, suffix
+	syscall
+	bne $t0, $t1, loop
+	li $v0, 10
+	syscall
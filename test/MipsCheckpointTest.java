@@ -0,0 +1,132 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * Checkpoints taken partway through a run: restoring one in a fresh
+ * interpreter must finish with the output, instruction count and syscall
+ * counts of an uninterrupted run, on every engine, whether input comes from
+ * the console or from a replayed syscall log.
+ */
+class MipsCheckpointTest extends MipsTestSupport {
+
+	/* Reads five ints, printing the running total after each, with a spin loop between reads. */
+	private static final String RUNNING_TOTAL = String.join("\n",
+			".text",
+			"main:",
+			"	li $s0, 0",
+			"	li $s1, 5",
+			"read:",
+			"	li $v0, 5",
+			"	syscall",
+			"	add $s0, $s0, $v0",
+			"	li $t0, 0",
+			"spin:",
+			"	addi $t0, $t0, 1",
+			"	bne $t0, 200, spin",
+			"	move $a0, $s0",
+			"	li $v0, 1",
+			"	syscall",
+			"	li $a0, 10",
+			"	li $v0, 11",
+			"	syscall",
+			"	addi $s1, $s1, -1",
+			"	bgtz $s1, read",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	private static final String INPUT = "1\n2\n3\n4\n5\n";
+
+	/* Instructions run before the checkpoint: partway through the third spin loop. */
+	private static final long CHECKPOINT_AT = 1000;
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsCheckpointTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testRestoredRunMatchesUninterruptedRun() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			Run full = run(load(RUNNING_TOTAL, engine), INPUT);
+			checkEquals("1\n3\n6\n10\n15\n", full.output, engine + " output");
+			checkResumed(full, engine, null, null, INPUT);
+		}
+	}
+
+	static void testRestoredReplayContinuesFromTheCheckpoint() throws Exception {
+		Path log = Files.createTempFile("mips-test", ".log");
+		try {
+			MipsInterpreter recorder = load(RUNNING_TOTAL, MipsInterpreter.Engine.SWITCH);
+			MipsSyscallLog recording = MipsSyscallLog.recording();
+			recorder.setSyscallLog(recording);
+			run(recorder, INPUT);
+			recording.save(log);
+			byte[] logged = Files.readAllBytes(log);
+			for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+				MipsInterpreter replayer = load(RUNNING_TOTAL, engine);
+				replayer.setSyscallLog(MipsSyscallLog.replaying(logged));
+				Run full = run(replayer, "");
+				checkEquals("1\n3\n6\n10\n15\n", full.output, engine + " replayed output");
+				checkResumed(full, engine, MipsSyscallLog.replaying(logged), MipsSyscallLog.replaying(logged), "");
+			}
+		} finally {
+			Files.delete(log);
+		}
+	}
+
+	static void testRestoreRefusesToRecord() throws Exception {
+		Path checkpoint = checkpoint(load(RUNNING_TOTAL, MipsInterpreter.Engine.SWITCH), null, INPUT, new ByteArrayOutputStream());
+		try {
+			MipsInterpreter restored = new MipsInterpreter();
+			restored.setSyscallLog(MipsSyscallLog.recording());
+			try {
+				restored.restoreCheckpoint(checkpoint);
+				throw new AssertionError("Restoring while recording should fail");
+			} catch (IOException e) {
+				check(e.getMessage().startsWith("Can't record"), "unexpected message: " + e.getMessage());
+			}
+		} finally {
+			Files.delete(checkpoint);
+		}
+	}
+
+	/* Runs to CHECKPOINT_AT, restores the checkpoint in a new interpreter and checks it ends like full. */
+	private static void checkResumed(Run full, MipsInterpreter.Engine engine, MipsSyscallLog before, MipsSyscallLog after,
+			String input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Path checkpoint = checkpoint(load(RUNNING_TOTAL, engine), before, input, output);
+		try {
+			check(output.size() > 0 && output.size() < full.output.length(), engine + " should checkpoint partway through the output");
+			MipsInterpreter restored = new MipsInterpreter();
+			restored.setEngine(engine);
+			restored.setSyscallLog(after);
+			restored.setInput(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+			restored.setOutput(output);
+			restored.setErrorOutput(new PrintStream(new ByteArrayOutputStream(), true));
+			restored.restoreCheckpoint(checkpoint);
+			restored.run();
+			checkEquals(full.output, output.toString(StandardCharsets.UTF_8), engine + " output across the checkpoint");
+			checkEquals(full.interpreter.getInstructionsExecuted(), restored.getInstructionsExecuted(), engine + " instructions executed");
+			checkEquals(Arrays.toString(full.interpreter.getSyscallCounts()), Arrays.toString(restored.getSyscallCounts()), engine + " syscall counts");
+			checkEquals(null, restored.getError(), engine + " error");
+		} finally {
+			Files.delete(checkpoint);
+		}
+	}
+
+	private static Path checkpoint(MipsInterpreter interpreter, MipsSyscallLog log, String input, ByteArrayOutputStream output)
+			throws IOException {
+		interpreter.setSyscallLog(log);
+		interpreter.setInput(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+		interpreter.setOutput(output);
+		check(interpreter.runFor(CHECKPOINT_AT), "the program should still be running at the checkpoint");
+		Path checkpoint = Files.createTempFile("mips-test", ".checkpoint");
+		interpreter.saveCheckpoint(checkpoint);
+		return checkpoint;
+	}
+}
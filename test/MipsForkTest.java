@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+
+/*
+ * fork: the child continues from the parent's state, the two share pages
+ * until one of them writes, and neither sees the other's stores, even when
+ * run on separate threads.
+ */
+class MipsForkTest extends MipsTestSupport {
+
+	/* Fills 8 KB with 0..2047, reads n into the first word, and prints the sum of the words. */
+	private static final String SUM_WITH_INPUT = String.join("\n",
+			".data",
+			"buffer: .space 8192",
+			".text",
+			"main:",
+			"	la $t0, buffer",
+			"	li $t1, 0",
+			"	li $t2, 2048",
+			"fill:",
+			"	sw $t1, 0($t0)",
+			"	addi $t0, $t0, 4",
+			"	addi $t1, $t1, 1",
+			"	bne $t1, $t2, fill",
+			"	li $v0, 5",
+			"	syscall",
+			"	la $t0, buffer",
+			"	sw $v0, 0($t0)",
+			"	li $t1, 0",
+			"	li $t3, 0",
+			"sum:",
+			"	lw $t4, 0($t0)",
+			"	add $t3, $t3, $t4",
+			"	addi $t0, $t0, 4",
+			"	addi $t1, $t1, 1",
+			"	bne $t1, $t2, sum",
+			"	move $a0, $t3",
+			"	li $v0, 1",
+			"	syscall",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	private static final int FILLED_SUM = 2047 * 2048 / 2;
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsForkTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testChildContinuesFromTheForkPoint() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter parent = atRead(engine);
+			long executed = parent.getInstructionsExecuted();
+			MipsInterpreter child = parent.fork();
+			checkEquals(executed, child.getInstructionsExecuted(), engine + " instructions executed by the child");
+			checkEquals(parent.getRegister(8), child.getRegister(8), engine + " $t0 in the child");
+			Run childRun = run(child, "5\n");
+			Run parentRun = run(parent, "7\n");
+			checkEquals(String.valueOf(FILLED_SUM + 5), childRun.output, engine + " child output");
+			checkEquals(String.valueOf(FILLED_SUM + 7), parentRun.output, engine + " parent output");
+			checkEquals(parentRun.interpreter.getInstructionsExecuted(), childRun.interpreter.getInstructionsExecuted(), engine + " instructions executed");
+		}
+	}
+
+	static void testOnlyWrittenPagesAreCopied() throws Exception {
+		MipsInterpreter parent = atRead(MipsInterpreter.Engine.SWITCH);
+		MipsInterpreter child = parent.fork();
+		int shared = child.getMemory().getSharedPages();
+		check(shared >= 2, "the data pages should be shared, but only " + shared + " are");
+		run(child, "1\n");
+		long copied = child.getMemory().getPagesCopied();
+		check(copied >= 1 && copied <= 2, "the child copied " + copied + " pages");
+		checkEquals(0, parent.getMemory().loadWord(MipsMemory.DATA_BASE), "parent's first word after the child wrote its own");
+		checkEquals(1, child.getMemory().loadWord(MipsMemory.DATA_BASE), "child's first word");
+	}
+
+	static void testChildrenRunOnSeparateThreads() throws Exception {
+		MipsInterpreter parent = atRead(MipsInterpreter.Engine.JIT);
+		ArrayList<MipsInterpreter> children = new ArrayList<MipsInterpreter>();
+		for (int i = 0; i < 8; i++)
+			children.add(parent.fork());
+		Run[] runs = new Run[children.size()];
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < children.size(); i++) {
+			int child = i;
+			Thread thread = new Thread(() -> runs[child] = run(children.get(child), child + "\n"));
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads)
+			thread.join();
+		for (int i = 0; i < runs.length; i++)
+			checkEquals(String.valueOf(FILLED_SUM + i), runs[i].output, "output of child " + i);
+		checkEquals(String.valueOf(FILLED_SUM + 3), run(parent, "3\n").output, "parent output");
+	}
+
+	static void testForkAfterSpawningHartsIsRefused() throws Exception {
+		MipsInterpreter interpreter = load(String.join("\n",
+				".text",
+				"main:",
+				"	la $a0, hart",
+				"	li $v0, 60",
+				"	syscall",
+				"	move $a0, $v0",
+				"	li $v0, 61",
+				"	syscall",
+				"	li $v0, 10",
+				"	syscall",
+				"hart:",
+				"	jr $ra",
+				""), MipsInterpreter.Engine.SWITCH);
+		run(interpreter, "");
+		try {
+			interpreter.fork();
+			throw new AssertionError("fork of a program that spawned harts succeeded");
+		} catch (IllegalStateException e) {
+			checkEquals("Can't fork a program that has spawned harts", e.getMessage(), "message");
+		}
+		interpreter.reset();
+		interpreter.fork();
+	}
+
+	/* An interpreter on fed input, stopped at the read_int after the fill. */
+	private static MipsInterpreter atRead(MipsInterpreter.Engine engine) throws Exception {
+		MipsInterpreter interpreter = load(SUM_WITH_INPUT, engine);
+		interpreter.getConsole().setFedInput();
+		check(interpreter.runFor(Long.MAX_VALUE), engine + " should block on read_int");
+		checkEquals(MipsInterpreter.Status.BLOCKED, interpreter.getStatus(), engine + " status");
+		return interpreter;
+	}
+}
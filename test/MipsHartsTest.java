@@ -0,0 +1,279 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Harts and ll/sc: increments made with ll/sc from several harts are never
+ * lost, join returns a hart's $v0, sc fails once its word has changed, an
+ * error in any hart stops the program, a join on a hart waiting for fed
+ * input blocks instead of hanging the host, and each hart's stack has
+ * addresses of its own.
+ */
+class MipsHartsTest extends MipsTestSupport {
+
+	/* Four harts each add 1 to counter 20000 times with ll/sc, then main prints it. */
+	private static final String COUNTER = String.join("\n",
+			".data",
+			"counter: .word 0",
+			".text",
+			"main:",
+			"	li $s0, 0",
+			"spawn:",
+			"	la $a0, work",
+			"	li $v0, 60",
+			"	syscall",
+			"	addi $s0, $s0, 1",
+			"	bne $s0, 4, spawn",
+			"	li $s0, 1",
+			"join:",
+			"	move $a0, $s0",
+			"	li $v0, 61",
+			"	syscall",
+			"	addi $s0, $s0, 1",
+			"	bne $s0, 5, join",
+			"	la $t0, counter",
+			"	lw $a0, 0($t0)",
+			"	li $v0, 1",
+			"	syscall",
+			"	li $v0, 10",
+			"	syscall",
+			"work:",
+			"	la $t6, counter",
+			"	li $t7, 20000",
+			"again:",
+			"	ll $t5, 0($t6)",
+			"	addi $t5, $t5, 1",
+			"	sc $t5, 0($t6)",
+			"	beqz $t5, again",
+			"	addi $t7, $t7, -1",
+			"	bgtz $t7, again",
+			"	jr $ra",
+			"");
+
+	/* Spawns a hart that reads an int and returns it doubled, and prints what join returns. */
+	private static final String READ_IN_HART = String.join("\n",
+			".text",
+			"main:",
+			"	la $a0, reader",
+			"	li $v0, 60",
+			"	syscall",
+			"	move $a0, $v0",
+			"	li $v0, 61",
+			"	syscall",
+			"	move $a0, $v0",
+			"	li $v0, 1",
+			"	syscall",
+			"	li $v0, 10",
+			"	syscall",
+			"reader:",
+			"	li $v0, 5",
+			"	syscall",
+			"	add $v0, $v0, $v0",
+			"	jr $ra",
+			"");
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsHartsTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testLlScIncrementsAreNeverLost() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			Run run = run(COUNTER, engine);
+			checkEquals("80000", run.output, engine + " counter");
+			checkEquals("", run.errors, engine + " errors");
+			check(run.interpreter.getInstructionsExecuted() > 4 * 20000 * 6, engine + " count should include the harts");
+		}
+	}
+
+	static void testJoinReturnsTheHartsV0() throws Exception {
+		String source = String.join("\n",
+				".text",
+				"main:",
+				"	la $a0, triple",
+				"	li $a1, 14",
+				"	li $v0, 60",
+				"	syscall",
+				"	move $a0, $v0",
+				"	li $v0, 61",
+				"	syscall",
+				"	move $a0, $v0",
+				"	li $v0, 1",
+				"	syscall",
+				"	li $v0, 10",
+				"	syscall",
+				"triple:",
+				"	add $v0, $a0, $a0",
+				"	add $v0, $v0, $a0",
+				"	jr $ra",
+				"");
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values())
+			checkEquals("42", run(source, engine).output, engine + " output");
+	}
+
+	static void testScFailsOnceTheWordHasChanged() throws Exception {
+		String source = String.join("\n",
+				".data",
+				"word: .word 5",
+				".text",
+				"main:",
+				"	la $t0, word",
+				"	ll $t1, 0($t0)",
+				"	li $t2, 6",
+				"	sw $t2, 0($t0)",
+				"	li $s0, 9",
+				"	sc $s0, 0($t0)",
+				"	li $s1, 9",
+				"	sc $s1, 0($t0)",
+				"	ll $t1, 0($t0)",
+				"	li $s2, 9",
+				"	sc $s2, 0($t0)",
+				"	sync",
+				"	li $v0, 10",
+				"	syscall",
+				"");
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter interpreter = run(source, engine).interpreter;
+			checkEquals(0, interpreter.getRegister(16), engine + " sc after the word changed");
+			checkEquals(0, interpreter.getRegister(17), engine + " sc without an ll");
+			checkEquals(1, interpreter.getRegister(18), engine + " sc right after ll");
+			checkEquals(9, interpreter.getMemory().loadWord(MipsMemory.DATA_BASE), engine + " word");
+		}
+	}
+
+	static void testErrorInAHartStopsTheProgram() throws Exception {
+		String source = String.join("\n",
+				".text",
+				"main:",
+				"	la $a0, fault",
+				"	li $v0, 60",
+				"	syscall",
+				"	move $a0, $v0",
+				"	li $v0, 61",
+				"	syscall",
+				"	li $a0, 7",
+				"	li $v0, 1",
+				"	syscall",
+				"	li $v0, 10",
+				"	syscall",
+				"fault:",
+				"	lw $t0, 1($zero)",
+				"	jr $ra",
+				"");
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			Run run = run(source, engine);
+			checkEquals("", run.output, engine + " output");
+			checkEquals("Runtime error on line 15: Unaligned word access: 0x00000001", run.errors, engine + " error");
+			checkEquals(MipsInterpreter.Termination.ERROR, run.interpreter.getTermination(), engine + " termination");
+		}
+	}
+
+	static void testHartStacksHaveDistinctAddresses() throws Exception {
+		String source = String.join("\n",
+				".text",
+				"main:",
+				"	la $a0, top",
+				"	li $v0, 60",
+				"	syscall",
+				"	move $a0, $v0",
+				"	li $v0, 61",
+				"	syscall",
+				"	move $s0, $v0",
+				"	la $a0, top",
+				"	li $v0, 60",
+				"	syscall",
+				"	move $a0, $v0",
+				"	li $v0, 61",
+				"	syscall",
+				"	move $s1, $v0",
+				"	li $v0, 10",
+				"	syscall",
+				"top:",
+				"	addi $sp, $sp, -4",
+				"	sw $ra, 0($sp)",
+				"	move $v0, $sp",
+				"	jr $ra",
+				"");
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter interpreter = run(source, engine).interpreter;
+			checkEquals(MipsMemory.STACK_POINTER, interpreter.getRegister(29), engine + " main $sp");
+			checkEquals(MipsMemory.STACK_POINTER - MipsMemory.DEFAULT_STACK_SIZE - 4, interpreter.getRegister(16), engine + " first hart's $sp");
+			checkEquals(MipsMemory.STACK_POINTER - 2 * MipsMemory.DEFAULT_STACK_SIZE - 4, interpreter.getRegister(17), engine + " second hart's $sp");
+		}
+	}
+
+	static void testLoadFromAnotherHartsStackFaults() throws Exception {
+		String source = String.join("\n",
+				".text",
+				"main:",
+				"	li $t0, 7",
+				"	sw $t0, 0($sp)",
+				"	la $a0, peek",
+				"	move $a1, $sp",
+				"	li $v0, 60",
+				"	syscall",
+				"	move $a0, $v0",
+				"	li $v0, 61",
+				"	syscall",
+				"	li $v0, 10",
+				"	syscall",
+				"peek:",
+				"	lw $v0, 0($a0)",
+				"	jr $ra",
+				"");
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			Run run = run(source, engine);
+			checkEquals("Runtime error on line 15: Address in another hart's stack: 0x7fffeffc", run.errors, engine + " error");
+		}
+	}
+
+	static void testJoinOnAHartWaitingForInputBlocks() throws Exception {
+		MipsInterpreter interpreter = load(READ_IN_HART, MipsInterpreter.Engine.SWITCH);
+		java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+		interpreter.setOutput(out);
+		interpreter.getConsole().setFedInput();
+		for (int i = 0; i < 3; i++) {
+			check(interpreter.runFor(Long.MAX_VALUE), "the program should block until input is fed");
+			checkEquals(MipsInterpreter.Status.BLOCKED, interpreter.getStatus(), "status");
+		}
+		interpreter.getConsole().feedInput("21\n".getBytes(), 0, 3);
+		while (interpreter.runFor(Long.MAX_VALUE))
+			Thread.sleep(1);
+		interpreter.getConsole().flush();
+		checkEquals("42", out.toString(), "output");
+	}
+
+	static void testTracerRecordsTheScFlag() throws Exception {
+		String source = String.join("\n",
+				".data",
+				"word: .word 5",
+				".text",
+				"main:",
+				"	la $t0, word",
+				"	ll $t1, 0($t0)",
+				"	addi $t1, $t1, 7",
+				"	sc $t1, 0($t0)",
+				"	li $v0, 10",
+				"	syscall",
+				"");
+		Path trace = Files.createTempFile("mips-test", ".trace");
+		try {
+			MipsInterpreter interpreter = load(source, MipsInterpreter.Engine.SWITCH);
+			MipsTracer tracer = new MipsTracer(interpreter, trace, 16, false);
+			interpreter.addObserver(tracer);
+			run(interpreter, "");
+			tracer.close();
+			ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(trace)).order(ByteOrder.LITTLE_ENDIAN);
+			for (int offset = MipsTracer.HEADER_SIZE; offset < records.limit(); offset += MipsTracer.RECORD_SIZE) {
+				if (records.get(offset + 4) != MipsOpcode.SC) continue;
+				checkEquals(9, (int) records.get(offset + 5), "register sc wrote");
+				checkEquals(1, records.getInt(offset + 8), "value sc left in it");
+				checkEquals(MipsMemory.DATA_BASE, records.getInt(offset + 12), "address");
+				return;
+			}
+			throw new AssertionError("No sc in the trace");
+		} finally {
+			Files.delete(trace);
+		}
+	}
+}
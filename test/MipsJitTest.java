@@ -0,0 +1,192 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * The jit engine against the switch engine: compiled blocks must leave the
+ * same output, registers, instruction count and error line, including when
+ * an instruction inside a compiled block faults, and for ELF code that
+ * comes before the entry point. A jr to an address off an instruction
+ * boundary must fault the same way on every engine.
+ */
+class MipsJitTest extends MipsTestSupport {
+
+	/* Sums 1..1000 in a loop that is compiled after ten passes. */
+	private static final String SUM = String.join("\n",
+			".text",
+			"main:",
+			"	li $t0, 0",
+			"	li $t1, 1000",
+			"	li $t2, 0",
+			"loop:",
+			"	addi $t0, $t0, 1",
+			"	add $t2, $t2, $t0",
+			"	sll $t3, $t0, 2",
+			"	bne $t0, $t1, loop",
+			"	move $a0, $t2",
+			"	li $v0, 1",
+			"	syscall",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	/* On the 80th pass $t7 turns unaligned, so the lw in the middle of a compiled block faults. */
+	private static final String LOAD_FAULT = String.join("\n",
+			".data",
+			"word: .word 7",
+			".text",
+			"main:",
+			"	li $t0, 0",
+			"	li $t1, 100",
+			"	la $t7, word",
+			"loop:",
+			"	bne $t0, 80, skip",
+			"	addi $t7, $t7, 1",
+			"skip:",
+			"	addi $t0, $t0, 1",
+			"	addi $t2, $t2, 3",
+			"	lw $t5, 0($t7)",
+			"	addi $t3, $t3, 1",
+			"	bne $t0, $t1, loop",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	/* The same, but the fault is a division by a $t4 that drops to zero. */
+	private static final String DIVIDE_FAULT = String.join("\n",
+			".text",
+			"main:",
+			"	li $t0, 0",
+			"	li $t1, 100",
+			"	li $t4, 1",
+			"loop:",
+			"	bne $t0, 80, skip",
+			"	li $t4, 0",
+			"skip:",
+			"	addi $t0, $t0, 1",
+			"	addi $t2, $t2, 3",
+			"	div $t0, $t4",
+			"	addi $t3, $t3, 1",
+			"	bne $t0, $t1, loop",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	/* On the 80th pass the jr target is moved off its word boundary, which must fault rather than round down. */
+	private static final String JUMP_FAULT = String.join("\n",
+			".text",
+			"main:",
+			"	li $t0, 0",
+			"	li $t1, 100",
+			"loop:",
+			"	la $t3, next",
+			"	bne $t0, 80, skip",
+			"	addi $t3, $t3, 2",
+			"skip:",
+			"	addi $t0, $t0, 1",
+			"	jr $t3",
+			"next:",
+			"	bne $t0, $t1, loop",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	/*
+	 * An ELF text segment whose entry point is line 2, after the function it
+	 * calls 100 times: f adds 1 to $v0, and _start prints the total.
+	 */
+	private static final int[] CALLEE_BEFORE_ENTRY = {
+			0x24420001, /* f: addiu $v0, $v0, 1 */
+			0x03e00008, /* jr $ra */
+			0x24100064, /* _start: addiu $s0, $zero, 100 */
+			0x24020000, /* addiu $v0, $zero, 0 */
+			0x0c100000, /* loop: jal f */
+			0x2610ffff, /* addiu $s0, $s0, -1 */
+			0x1600fffd, /* bne $s0, $zero, loop */
+			0x00402021, /* addu $a0, $v0, $zero */
+			0x24020001, /* addiu $v0, $zero, 1 */
+			0x0000000c, /* syscall */
+			0x2402000a, /* addiu $v0, $zero, 10 */
+			0x0000000c, /* syscall */
+	};
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsJitTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testCompiledLoopMatchesSwitch() throws Exception {
+		Run jit = runJit(SUM);
+		Run reference = run(SUM, MipsInterpreter.Engine.SWITCH);
+		checkEquals("500500", jit.output, "output");
+		checkEquals(reference.interpreter.getInstructionsExecuted(), jit.interpreter.getInstructionsExecuted(), "instructions executed");
+		checkSameRegisters(reference.interpreter, jit.interpreter);
+	}
+
+	static void testLoadFaultInCompiledBlockSpillsRegisters() throws Exception {
+		checkSameFault(LOAD_FAULT, "Runtime error on line 14: Unaligned word access: 0x10010001");
+	}
+
+	static void testDivisionByZeroInCompiledBlockSpillsRegisters() throws Exception {
+		checkSameFault(DIVIDE_FAULT, "Runtime error on line 12: Division by zero");
+	}
+
+	static void testUnalignedJumpFaultsOnEveryEngine() throws Exception {
+		checkSameFault(JUMP_FAULT, "Runtime error on line 11: Jump out of .text: 0x0040002e");
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values())
+			checkEquals("Runtime error on line 11: Jump out of .text: 0x0040002e", run(JUMP_FAULT, engine).errors, engine + " error");
+	}
+
+	static void testCompilesCodeBeforeTheElfEntryPoint() throws Exception {
+		Path elf = Files.createTempFile("mips-test", ".elf");
+		try {
+			Files.write(elf, elf(2, CALLEE_BEFORE_ENTRY));
+			for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+				MipsInterpreter interpreter = new MipsInterpreter();
+				interpreter.setEngine(engine);
+				interpreter.setJitThreshold(10);
+				check(interpreter.load(elf.toString()), engine + " should load the ELF file");
+				Run run = run(interpreter, "");
+				checkEquals("100", run.output, engine + " output");
+				checkEquals("", run.errors, engine + " errors");
+			}
+		} finally {
+			Files.delete(elf);
+		}
+	}
+
+	private static void checkSameFault(String source, String error) throws Exception {
+		Run jit = runJit(source);
+		Run reference = run(source, MipsInterpreter.Engine.SWITCH);
+		checkEquals(error, reference.errors, "switch error");
+		checkEquals(error, jit.errors, "jit error");
+		checkEquals(81, jit.interpreter.getRegister(8), "$t0 written before the fault");
+		checkEquals(reference.interpreter.getInstructionsExecuted(), jit.interpreter.getInstructionsExecuted(), "instructions executed");
+		checkSameRegisters(reference.interpreter, jit.interpreter);
+	}
+
+	private static Run runJit(String source) throws Exception {
+		MipsInterpreter interpreter = load(source, MipsInterpreter.Engine.JIT);
+		interpreter.setJitThreshold(10);
+		return run(interpreter, "");
+	}
+
+	private static void checkSameRegisters(MipsInterpreter expected, MipsInterpreter actual) {
+		for (int i = 0; i < 34; i++)
+			checkEquals(expected.getRegister(i), actual.getRegister(i), "register " + i);
+	}
+
+	/* A little-endian MIPS32 executable with words as its one text segment at TEXT_BASE, entered at entryLine. */
+	private static byte[] elf(int entryLine, int[] words) {
+		ByteBuffer elf = ByteBuffer.allocate(84 + 4 * words.length).order(ByteOrder.LITTLE_ENDIAN);
+		elf.putInt(0, 0x464c457f).put(4, (byte) 1).put(5, (byte) 1).put(6, (byte) 1);
+		elf.putShort(16, (short) 2).putShort(18, (short) 8).putInt(20, 1);
+		elf.putInt(24, MipsInterpreter.TEXT_BASE + 4 * entryLine).putInt(28, 52);
+		elf.putShort(40, (short) 52).putShort(42, (short) 32).putShort(44, (short) 1).putShort(46, (short) 40);
+		elf.putInt(52, 1).putInt(56, 84).putInt(60, MipsInterpreter.TEXT_BASE).putInt(64, MipsInterpreter.TEXT_BASE);
+		elf.putInt(68, 4 * words.length).putInt(72, 4 * words.length).putInt(76, 5).putInt(80, 4);
+		for (int i = 0; i < words.length; i++)
+			elf.putInt(84 + 4 * i, words[i]);
+		return elf.array();
+	}
+}
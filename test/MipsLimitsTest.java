@@ -0,0 +1,108 @@
+/*
+ * Instruction, time, data and output limits: each stops the program with a
+ * runtime error and its own Termination, the same way on every engine, and
+ * applies afresh after reset.
+ */
+class MipsLimitsTest extends MipsTestSupport {
+
+	private static final String FOREVER = String.join("\n",
+			".text",
+			"main:",
+			"	li $t0, 0",
+			"loop:",
+			"	addi $t0, $t0, 1",
+			"	sll $t1, $t0, 1",
+			"	j loop",
+			"");
+
+	/* Takes 4 KB from sbrk at a time, forever. */
+	private static final String ALLOCATE = String.join("\n",
+			".text",
+			"main:",
+			"	li $a0, 4096",
+			"	li $v0, 9",
+			"	syscall",
+			"	j main",
+			"");
+
+	/* Prints x forever. */
+	private static final String PRINT = String.join("\n",
+			".text",
+			"main:",
+			"	li $a0, 120",
+			"	li $v0, 11",
+			"	syscall",
+			"	j main",
+			"");
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsLimitsTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testInstructionLimitStopsAtTheLimitOnEveryEngine() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter interpreter = load(FOREVER, engine);
+			interpreter.setInstructionLimit(100000);
+			Run run = run(interpreter, "");
+			checkEquals(MipsInterpreter.Termination.INSTRUCTION_LIMIT, interpreter.getTermination(), engine + " termination");
+			checkEquals(100000L, interpreter.getInstructionsExecuted(), engine + " instructions executed");
+			check(run.errors.endsWith("Instruction limit exceeded: 100000"), engine + " error: " + run.errors);
+		}
+	}
+
+	static void testTimeLimit() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter interpreter = load(FOREVER, engine);
+			interpreter.setTimeLimit(50000000);
+			long start = System.nanoTime();
+			Run run = run(interpreter, "");
+			checkEquals(MipsInterpreter.Termination.TIME_LIMIT, interpreter.getTermination(), engine + " termination");
+			check(run.errors.endsWith("Time limit exceeded: 50 ms"), engine + " error: " + run.errors);
+			check(System.nanoTime() - start < 10000000000L, engine + " took over 10 s to stop");
+		}
+	}
+
+	static void testDataLimit() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter interpreter = load(ALLOCATE, engine);
+			interpreter.setDataLimit(65536);
+			Run run = run(interpreter, "");
+			checkEquals(MipsInterpreter.Termination.DATA_LIMIT, interpreter.getTermination(), engine + " termination");
+			check(run.errors.endsWith("Data segment limit exceeded: 65536 bytes"), engine + " error: " + run.errors);
+			check(interpreter.getMemory().getDataSize() <= 65536, engine + " data segment grew past the limit");
+		}
+	}
+
+	static void testOutputLimitCutsOutputOff() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter interpreter = load(PRINT, engine);
+			interpreter.setOutputLimit(100);
+			Run run = run(interpreter, "");
+			checkEquals(MipsInterpreter.Termination.OUTPUT_LIMIT, interpreter.getTermination(), engine + " termination");
+			checkEquals("x".repeat(100), run.output, engine + " output");
+			check(run.errors.endsWith("Output limit exceeded: 100 bytes"), engine + " error: " + run.errors);
+		}
+	}
+
+	static void testLimitsApplyAgainAfterReset() throws Exception {
+		MipsInterpreter interpreter = load(FOREVER, MipsInterpreter.Engine.SWITCH);
+		interpreter.setInstructionLimit(5000);
+		run(interpreter, "");
+		interpreter.reset();
+		checkEquals(null, interpreter.getTermination(), "termination after reset");
+		run(interpreter, "");
+		checkEquals(MipsInterpreter.Termination.INSTRUCTION_LIMIT, interpreter.getTermination(), "termination");
+		checkEquals(5000L, interpreter.getInstructionsExecuted(), "instructions executed");
+	}
+
+	static void testProgramWithinLimitsExits() throws Exception {
+		MipsInterpreter interpreter = load(".text\nmain:\n\tli $v0, 10\n\tsyscall\n", MipsInterpreter.Engine.SWITCH);
+		interpreter.setInstructionLimit(100);
+		interpreter.setTimeLimit(1000000000);
+		interpreter.setDataLimit(65536);
+		interpreter.setOutputLimit(10);
+		Run run = run(interpreter, "");
+		checkEquals(MipsInterpreter.Termination.EXITED, interpreter.getTermination(), "termination");
+		checkEquals("", run.errors, "errors");
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * MipsOptimizer's rewrites, checked on the decoded text it returns, and
+ * optimized runs checked against unoptimized ones on every engine.
+ */
+class MipsOptimizerTest extends MipsTestSupport {
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsOptimizerTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testArithmeticOnConstantsFoldsToLi() throws Exception {
+		MipsControlFlow controlFlow = controlFlow(program(
+				"	li $t0, 3",
+				"	li $t1, 4",
+				"	add $t2, $t0, $t1",
+				"	sll $t3, $t2, 2",
+				"	move $a0, $t3",
+				"	li $v0, 1",
+				"	syscall"));
+		DecodedInstruction[] original = controlFlow.getText();
+		DecodedInstruction[] optimized = new MipsOptimizer().optimize(controlFlow);
+		DecodedInstruction add = optimized[lineOf(original, MipsOpcode.ADD)];
+		checkEquals(MipsOpcode.LI, add.opcode, "add of two constants");
+		checkEquals(7, add.immediate, "folded sum");
+		DecodedInstruction shift = optimized[lineOf(original, MipsOpcode.SLL)];
+		checkEquals(MipsOpcode.LI, shift.opcode, "shift of a constant");
+		checkEquals(28, shift.immediate, "folded shift");
+	}
+
+	static void testOverwrittenWriteIsRemoved() throws Exception {
+		MipsControlFlow controlFlow = controlFlow(program(
+				"	addi $t0, $a0, 1",
+				"	addi $t0, $a1, 2",
+				"	move $a0, $t0",
+				"	li $v0, 1",
+				"	syscall"));
+		DecodedInstruction[] original = controlFlow.getText();
+		DecodedInstruction[] optimized = new MipsOptimizer().optimize(controlFlow);
+		int first = lineOf(original, MipsOpcode.ADDI);
+		checkEquals(MipsOpcode.NOP, optimized[first].opcode, "dead write");
+		checkEquals(MipsOpcode.ADDI, optimized[first + 1].opcode, "live write");
+	}
+
+	static void testBranchOnConstantBecomesJump() throws Exception {
+		MipsControlFlow controlFlow = controlFlow(program(
+				"	li $t0, 5",
+				"	bgtz $t0, positive",
+				"	li $a0, 0",
+				"	li $v0, 1",
+				"	syscall",
+				"positive:",
+				"	li $v0, 10",
+				"	syscall"));
+		DecodedInstruction[] original = controlFlow.getText();
+		DecodedInstruction[] optimized = new MipsOptimizer().optimize(controlFlow);
+		int branch = lineOf(original, MipsOpcode.BGTZ);
+		checkEquals(MipsOpcode.J, optimized[branch].opcode, "branch always taken");
+		checkEquals(skipLabels(original, original[branch].target), optimized[branch].target, "jump target");
+	}
+
+	static void testJumpToJumpIsThreaded() throws Exception {
+		MipsControlFlow controlFlow = controlFlow(program(
+				"	j first",
+				"	li $a0, 1",
+				"first:",
+				"	j second",
+				"	li $a0, 2",
+				"second:",
+				"	li $v0, 10",
+				"	syscall"));
+		DecodedInstruction[] original = controlFlow.getText();
+		DecodedInstruction[] optimized = new MipsOptimizer().optimize(controlFlow);
+		int jump = lineOf(original, MipsOpcode.J);
+		DecodedInstruction first = original[skipLabels(original, original[jump].target)];
+		checkEquals(MipsOpcode.J, first.opcode, "instruction at first");
+		checkEquals(skipLabels(original, first.target), optimized[jump].target, "threaded target");
+	}
+
+	static void testOptimizedRunsMatchUnoptimized() throws Exception {
+		String source = program(
+				"	li $v0, 5",
+				"	syscall",
+				"	move $s0, $v0",
+				"	li $t0, 0",
+				"	li $t1, 0",
+				"	li $t3, 4",
+				"loop:",
+				"	add $t1, $t1, $t0",
+				"	mult $t3, $t3",
+				"	mflo $t2",
+				"	add $t1, $t1, $t2",
+				"	addi $t0, $t0, 1",
+				"	bne $t0, $s0, loop",
+				"	move $a0, $t1",
+				"	li $v0, 1",
+				"	syscall",
+				"	li $t4, 6",
+				"	lw $t5, 0($t4)");
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			Run plain = run(load(source, engine, false), "50\n");
+			Run optimized = run(load(source, engine, true), "50\n");
+			checkEquals(plain.output, optimized.output, engine + " output");
+			checkEquals(plain.errors, optimized.errors, engine + " error");
+			check(plain.errors.startsWith("Runtime error"), engine + " run ends in an error: " + plain.errors);
+		}
+	}
+
+	/* A program whose .text starts at main with lines. */
+	private static String program(String... lines) {
+		return ".text\nmain:\n" + String.join("\n", lines) + "\n";
+	}
+
+	private static MipsControlFlow controlFlow(String source) throws Exception {
+		return load(source, MipsInterpreter.Engine.SWITCH).getControlFlow();
+	}
+
+	/* Labels decode to nops; jumps are threaded past them to the first instruction. */
+	private static int skipLabels(DecodedInstruction[] text, int line) {
+		while (text[line].opcode == MipsOpcode.NOP)
+			line++;
+		return line;
+	}
+
+	private static int lineOf(DecodedInstruction[] text, int opcode) {
+		for (int line = 0; line < text.length; line++)
+			if (text[line].opcode == opcode) return line;
+		throw new AssertionError("No " + MipsOpcode.NAMES[opcode] + " in the program");
+	}
+}
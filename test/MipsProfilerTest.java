@@ -0,0 +1,59 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * The profiler's counts on a small fixed loop, which are the same whatever
+ * the engine: instructions per line and opcode, branch outcomes, calls and
+ * the call graph.
+ */
+class MipsProfilerTest extends MipsTestSupport {
+
+	/* Calls twice ten times from a loop. */
+	private static final String CALL_LOOP = String.join("\n",
+			".text",
+			"main:",
+			"	li $s0, 10",
+			"	li $s1, 0",
+			"loop:",
+			"	jal twice",
+			"	addi $s0, $s0, -1",
+			"	bgtz $s0, loop",
+			"	li $v0, 10",
+			"	syscall",
+			"twice:",
+			"	add $s1, $s1, $s1",
+			"	addi $s1, $s1, 1",
+			"	jr $ra",
+			"");
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsProfilerTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testCountsOfAFixedLoop() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter interpreter = load(CALL_LOOP, engine);
+			interpreter.setProfiling(true);
+			run(interpreter, "");
+			MipsProfiler profiler = interpreter.getProfiler();
+			checkEquals(1023, interpreter.getRegister(17), engine + " $s1");
+			checkEquals(64L, profiler.getInstructions(), engine + " instructions");
+			checkEquals(interpreter.getInstructionsExecuted(), profiler.getInstructions(), engine + " instructions executed");
+			checkEquals(1L, profiler.getLineCount(2), engine + " count of li $s0");
+			checkEquals(10L, profiler.getLineCount(5), engine + " count of jal");
+			checkEquals(10L, profiler.getLineCount(13), engine + " count of jr");
+			checkEquals(20L, profiler.getOpcodeCount(MipsOpcode.ADDI), engine + " addi count");
+			checkEquals(10L, profiler.getOpcodeCount(MipsOpcode.JAL), engine + " jal count");
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+			profiler.report(out, null, 5);
+			String report = bytes.toString(StandardCharsets.UTF_8);
+			check(report.startsWith("Profile: 64 instructions"), engine + " report header: " + report);
+			check(report.matches("(?s).*\\n\\s+8\\s+10\\s+9\\s+90\\.00%\\s+bgtz .*"), engine + " branch outcomes: " + report);
+			check(report.matches("(?s).*\\ntwice\\s+30\\s+46\\.88%\\s+30\\s+46\\.88%\\s+10\\n.*"), engine + " calls to twice: " + report);
+			check(report.matches("(?s).*\\nmain\\s+twice\\s+10\\n.*"), engine + " call graph: " + report);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * The program image cache: a program loaded from the cache must decode to
+ * exactly what a fresh parse gives and run the same on every engine, and an
+ * image written by another image version must be ignored and replaced.
+ */
+class MipsProgramCacheTest extends MipsTestSupport {
+
+	/* Calls a function that sums a .word table, then prints the sum and a string. */
+	private static final String TABLE_SUM = String.join("\n",
+			".data",
+			"table: .word 3, 5, 7, 11",
+			"label: .asciiz \"sum \"",
+			".text",
+			"main:",
+			"	la $a0, label",
+			"	li $v0, 4",
+			"	syscall",
+			"	la $a0, table",
+			"	li $a1, 4",
+			"	jal sum",
+			"	move $a0, $v0",
+			"	li $v0, 1",
+			"	syscall",
+			"	li $v0, 10",
+			"	syscall",
+			"sum:",
+			"	li $v0, 0",
+			"next:",
+			"	lw $t0, 0($a0)",
+			"	add $v0, $v0, $t0",
+			"	addi $a0, $a0, 4",
+			"	addi $a1, $a1, -1",
+			"	bgtz $a1, next",
+			"	jr $ra",
+			"");
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsProgramCacheTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testCacheHitMatchesFreshParse() throws Exception {
+		Path directory = Files.createTempDirectory("mips-test-cache");
+		try {
+			MipsProgramCache cache = new MipsProgramCache(directory);
+			MipsInterpreter fresh = load(TABLE_SUM, MipsInterpreter.Engine.SWITCH, null);
+			MipsInterpreter miss = load(TABLE_SUM, MipsInterpreter.Engine.SWITCH, cache);
+			check(!miss.getLoader().isCacheHit(), "the first load should parse the source");
+			checkEquals(1, images(directory).size(), "images stored");
+			for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+				MipsInterpreter hit = load(TABLE_SUM, engine, cache);
+				check(hit.getLoader().isCacheHit(), engine + " load should come from the cache");
+				checkSameProgram(fresh.getProgram(), hit.getProgram());
+				checkEquals("sum 26", run(hit, "").output, engine + " output");
+			}
+		} finally {
+			delete(directory);
+		}
+	}
+
+	static void testImageOfAnotherVersionIsReplaced() throws Exception {
+		Path directory = Files.createTempDirectory("mips-test-cache");
+		try {
+			MipsProgramCache cache = new MipsProgramCache(directory);
+			load(TABLE_SUM, MipsInterpreter.Engine.SWITCH, cache);
+			Path image = images(directory).get(0);
+			ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(image));
+			int version = bytes.getInt(4);
+			bytes.putInt(4, version - 1);
+			Files.write(image, bytes.array(), StandardOpenOption.TRUNCATE_EXISTING);
+
+			MipsInterpreter stale = load(TABLE_SUM, MipsInterpreter.Engine.SWITCH, cache);
+			check(!stale.getLoader().isCacheHit(), "an image of an older version should not be used");
+			checkEquals("sum 26", run(stale, "").output, "output");
+			checkEquals(version, ByteBuffer.wrap(Files.readAllBytes(image)).getInt(4), "version of the replacement image");
+			check(load(TABLE_SUM, MipsInterpreter.Engine.SWITCH, cache).getLoader().isCacheHit(), "the replacement should be used");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private static MipsInterpreter load(String source, MipsInterpreter.Engine engine, MipsProgramCache cache) throws Exception {
+		Path file = Files.createTempFile("mips-test", ".s");
+		try {
+			Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+			MipsInterpreter interpreter = new MipsInterpreter();
+			interpreter.setEngine(engine);
+			interpreter.setProgramCache(cache);
+			check(interpreter.load(file.toString()), "the test program should load");
+			return interpreter;
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static void checkSameProgram(MipsProgram expected, MipsProgram actual) {
+		checkEquals(expected.getLineCount(), actual.getLineCount(), "lines");
+		checkEquals(expected.getFirstLineOfText(), actual.getFirstLineOfText(), "first line of .text");
+		checkEquals(expected.getLabels(), actual.getLabels(), "text labels");
+		checkEquals(expected.getDataAddresses(), actual.getDataAddresses(), "data labels");
+		check(Arrays.equals(expected.data, actual.data), "data segments should match");
+		for (int line = 0; line < expected.text.length; line++) {
+			DecodedInstruction e = expected.text[line], a = actual.text[line];
+			String what = "line " + (line + 1);
+			checkEquals(e.opcode, a.opcode, what + " opcode");
+			checkEquals(e.rd, a.rd, what + " rd");
+			checkEquals(e.rs, a.rs, what + " rs");
+			checkEquals(e.rt, a.rt, what + " rt");
+			checkEquals(e.immediate, a.immediate, what + " immediate");
+			checkEquals(e.target, a.target, what + " target");
+		}
+	}
+
+	private static ArrayList<Path> images(Path directory) throws Exception {
+		ArrayList<Path> images = new ArrayList<Path>();
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.mipc");
+		try {
+			for (Path file : files)
+				images.add(file);
+		} finally {
+			files.close();
+		}
+		return images;
+	}
+
+	private static void delete(Path directory) throws Exception {
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try {
+			for (Path file : files)
+				Files.delete(file);
+		} finally {
+			files.close();
+		}
+		Files.delete(directory);
+	}
+}
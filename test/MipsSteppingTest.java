@@ -0,0 +1,139 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/*
+ * step(n) and MipsScheduler: a program stepped a few instructions at a time,
+ * interleaved with others or on a scheduler's workers, must finish with the
+ * output, instruction count and registers of a straight run, and a read on
+ * fed input must block until the host feeds it.
+ */
+class MipsSteppingTest extends MipsTestSupport {
+
+	/* Reads five ints, printing the running total after each, with a spin loop between reads. */
+	private static final String RUNNING_TOTAL = String.join("\n",
+			".text",
+			"main:",
+			"	li $s0, 0",
+			"	li $s1, 5",
+			"read:",
+			"	li $v0, 5",
+			"	syscall",
+			"	add $s0, $s0, $v0",
+			"	li $t0, 0",
+			"spin:",
+			"	addi $t0, $t0, 1",
+			"	bne $t0, 200, spin",
+			"	move $a0, $s0",
+			"	li $v0, 1",
+			"	syscall",
+			"	li $a0, 10",
+			"	li $v0, 11",
+			"	syscall",
+			"	addi $s1, $s1, -1",
+			"	bgtz $s1, read",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	private static final String[] INPUTS = {"1\n2\n3\n4\n5\n", "10\n20\n30\n40\n50\n", "-1\n-1\n-1\n-1\n-1\n"};
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsSteppingTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testInterleavedStepsMatchStraightRuns() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter[] stepped = new MipsInterpreter[INPUTS.length];
+			ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[INPUTS.length];
+			for (int i = 0; i < stepped.length; i++) {
+				outputs[i] = new ByteArrayOutputStream();
+				stepped[i] = load(RUNNING_TOTAL, engine);
+				attach(stepped[i], outputs[i], INPUTS[i]);
+			}
+			boolean running = true;
+			while (running) {
+				running = false;
+				for (MipsInterpreter interpreter : stepped)
+					if (interpreter.step(7) == MipsInterpreter.Status.RUNNING) running = true;
+			}
+			for (int i = 0; i < stepped.length; i++)
+				checkSameRun(run(load(RUNNING_TOTAL, engine), INPUTS[i]), stepped[i], outputs[i], engine + " input " + i);
+		}
+	}
+
+	static void testStepRunsExactlyTheQuota() throws Exception {
+		MipsInterpreter interpreter = load(RUNNING_TOTAL, MipsInterpreter.Engine.SWITCH);
+		attach(interpreter, new ByteArrayOutputStream(), INPUTS[0]);
+		long steps = 0;
+		while (interpreter.step(7) == MipsInterpreter.Status.RUNNING) {
+			steps++;
+			checkEquals(7 * steps, interpreter.getInstructionsExecuted(), "instructions after step " + steps);
+		}
+		check(interpreter.getInstructionsExecuted() - 7 * steps <= 7, "the last step should run at most the quota");
+	}
+
+	static void testReadOnFedInputBlocksUntilFed() throws Exception {
+		MipsInterpreter interpreter = load(RUNNING_TOTAL, MipsInterpreter.Engine.SWITCH);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		attach(interpreter, output, null);
+		interpreter.getConsole().setFedInput();
+		checkEquals(MipsInterpreter.Status.BLOCKED, interpreter.step(1000), "status before any input");
+		long blockedAt = interpreter.getInstructionsExecuted();
+		checkEquals(MipsInterpreter.Status.BLOCKED, interpreter.step(1000), "status when stepped again");
+		checkEquals(blockedAt, interpreter.getInstructionsExecuted(), "instructions while blocked");
+		byte[] input = INPUTS[1].getBytes(StandardCharsets.UTF_8);
+		interpreter.getConsole().feedInput(input, 0, 3);
+		checkEquals(MipsInterpreter.Status.BLOCKED, interpreter.step(1000), "status after the first line");
+		checkEquals("10\n", output.toString(StandardCharsets.UTF_8), "output after the first line");
+		interpreter.getConsole().feedInput(input, 3, input.length - 3);
+		interpreter.getConsole().closeInput();
+		while (interpreter.step(1000) != MipsInterpreter.Status.TERMINATED) {}
+		checkSameRun(run(load(RUNNING_TOTAL, MipsInterpreter.Engine.SWITCH), INPUTS[1]), interpreter, output, "fed input");
+	}
+
+	static void testSchedulerMatchesStraightRuns() throws Exception {
+		MipsScheduler scheduler = new MipsScheduler(2, 50);
+		try {
+			for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+				ArrayList<MipsScheduler.Task> tasks = new ArrayList<MipsScheduler.Task>();
+				ArrayList<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>();
+				for (int i = 0; i < 3 * INPUTS.length; i++) {
+					MipsInterpreter interpreter = load(RUNNING_TOTAL, engine);
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					attach(interpreter, output, null);
+					interpreter.getConsole().setFedInput();
+					MipsScheduler.Task task = scheduler.submit(interpreter, MipsScheduler.MIN_PRIORITY + i % MipsScheduler.MAX_PRIORITY);
+					task.feed(INPUTS[i % INPUTS.length].getBytes(StandardCharsets.UTF_8));
+					task.closeInput();
+					tasks.add(task);
+					outputs.add(output);
+				}
+				for (int i = 0; i < tasks.size(); i++) {
+					MipsInterpreter interpreter = tasks.get(i).join();
+					check(tasks.get(i).getSlices() > 1, engine + " task " + i + " should run in several slices");
+					checkSameRun(run(load(RUNNING_TOTAL, engine), INPUTS[i % INPUTS.length]), interpreter, outputs.get(i), engine + " task " + i);
+				}
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	/* Gives interpreter its streams; input null leaves the console's input to be fed. */
+	private static void attach(MipsInterpreter interpreter, ByteArrayOutputStream output, String input) {
+		if (input != null) interpreter.setInput(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+		interpreter.setOutput(output);
+		interpreter.setErrorOutput(new PrintStream(new ByteArrayOutputStream(), true));
+	}
+
+	private static void checkSameRun(Run expected, MipsInterpreter actual, ByteArrayOutputStream output, String what) {
+		checkEquals(expected.output, output.toString(StandardCharsets.UTF_8), what + " output");
+		checkEquals(expected.interpreter.getInstructionsExecuted(), actual.getInstructionsExecuted(), what + " instructions executed");
+		checkEquals(MipsInterpreter.Status.TERMINATED, actual.getStatus(), what + " status");
+		for (int i = 0; i < 34; i++)
+			checkEquals(expected.interpreter.getRegister(i), actual.getRegister(i), what + " register " + i);
+	}
+}
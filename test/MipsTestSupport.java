@@ -0,0 +1,94 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * What the tests share: loading a program from source, running it with its
+ * console captured, and a runner that calls every static test* method of a
+ * class, reports each one and counts the failures.
+ */
+class MipsTestSupport {
+
+	/* The outcome of running a program to the end. */
+	static class Run {
+		MipsInterpreter interpreter;
+		String output;
+		String errors;
+	}
+
+	static MipsInterpreter load(String source, MipsInterpreter.Engine engine) throws IOException {
+		return load(source, engine, false);
+	}
+
+	static MipsInterpreter load(String source, MipsInterpreter.Engine engine, boolean optimizing) throws IOException {
+		Path file = Files.createTempFile("mips-test", ".s");
+		try {
+			Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+			MipsInterpreter interpreter = new MipsInterpreter();
+			interpreter.setEngine(engine);
+			interpreter.setOptimizing(optimizing);
+			if (!interpreter.load(file.toString())) throw new AssertionError("Couldn't load the test program");
+			return interpreter;
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	static Run run(String source, MipsInterpreter.Engine engine) throws IOException {
+		return run(load(source, engine), "");
+	}
+
+	/* Runs interpreter to the end on input, capturing what it prints and the errors it reports. */
+	static Run run(MipsInterpreter interpreter, String input) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		interpreter.setInput(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+		interpreter.setOutput(out);
+		interpreter.setErrorOutput(new PrintStream(err, true));
+		interpreter.run();
+		Run run = new Run();
+		run.interpreter = interpreter;
+		run.output = out.toString(StandardCharsets.UTF_8);
+		run.errors = err.toString(StandardCharsets.UTF_8).trim();
+		return run;
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition) throw new AssertionError(message);
+	}
+
+	static void checkEquals(Object expected, Object actual, String what) {
+		if (expected == null ? actual != null : !expected.equals(actual))
+			throw new AssertionError(what + ": expected <" + expected + "> but was <" + actual + ">");
+	}
+
+	/* Runs the static test* methods of testClass in name order and returns how many failed. */
+	static int runTests(Class<?> testClass) {
+		Method[] methods = testClass.getDeclaredMethods();
+		Arrays.sort(methods, (a, b) -> a.getName().compareTo(b.getName()));
+		int failures = 0;
+		for (Method method : methods) {
+			if (!method.getName().startsWith("test") || !Modifier.isStatic(method.getModifiers())) continue;
+			String name = testClass.getName() + "." + method.getName();
+			try {
+				method.invoke(null);
+				System.out.println("ok      " + name);
+			} catch (InvocationTargetException e) {
+				failures++;
+				System.out.println("FAILED  " + name + ": " + e.getCause());
+			} catch (IllegalAccessException e) {
+				failures++;
+				System.out.println("FAILED  " + name + ": " + e);
+			}
+		}
+		return failures;
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Runs every test class and exits with status 1 if any test failed:
+ *
+ *     javac -d build *.java test/*.java && java -cp build MipsTests
+ */
+public class MipsTests {
+
+	public static void main(String[] args) {
+		Class<?>[] testClasses = {
+			MipsJitTest.class,
+			MipsOptimizerTest.class,
+			MipsLimitsTest.class,
+			MipsForkTest.class,
+			MipsHartsTest.class,
+			MipsCheckpointTest.class,
+			MipsTraceTest.class,
+			MipsProgramCacheTest.class,
+			MipsSteppingTest.class,
+			MipsProfilerTest.class,
+			MipsTimingModelTest.class,
+		};
+		int failures = 0;
+		for (Class<?> testClass : testClasses)
+			failures += MipsTestSupport.runTests(testClass);
+		if (failures > 0) {
+			System.out.println(failures + " failed");
+			System.exit(1);
+		}
+		System.out.println("All tests passed");
+	}
+}
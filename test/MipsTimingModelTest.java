@@ -0,0 +1,87 @@
+/*
+ * The timing model's cycle counts on small fixed loops, worked out by hand
+ * from the default penalties: a 10-cycle miss, 2 cycles for a taken branch,
+ * 1 for a jump, 1 for a load-use hazard and 4 cycles to drain the pipeline.
+ */
+class MipsTimingModelTest extends MipsTestSupport {
+
+	/* Calls twice ten times from a loop: 64 instructions in 56 bytes of text. */
+	private static final String CALL_LOOP = String.join("\n",
+			".text",
+			"main:",
+			"	li $s0, 10",
+			"	li $s1, 0",
+			"loop:",
+			"	jal twice",
+			"	addi $s0, $s0, -1",
+			"	bgtz $s0, loop",
+			"	li $v0, 10",
+			"	syscall",
+			"twice:",
+			"	add $s1, $s1, $s1",
+			"	addi $s1, $s1, 1",
+			"	jr $ra",
+			"");
+
+	/* Sums 16 words, using each load straight away: 84 instructions over 64 bytes of data. */
+	private static final String LOAD_LOOP = String.join("\n",
+			".data",
+			"buf: .space 64",
+			".text",
+			"main:",
+			"	la $t0, buf",
+			"	li $t1, 16",
+			"loop:",
+			"	lw $t2, 0($t0)",
+			"	add $t3, $t3, $t2",
+			"	addi $t0, $t0, 4",
+			"	addi $t1, $t1, -1",
+			"	bgtz $t1, loop",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsTimingModelTest.class) == 0 ? 0 : 1);
+	}
+
+	private static MipsTimingModel time(String source, MipsInterpreter.Engine engine, MipsCache instructionCache,
+			MipsCache dataCache) throws Exception {
+		MipsInterpreter interpreter = load(source, engine);
+		MipsTimingModel timing = new MipsTimingModel(instructionCache, dataCache);
+		interpreter.addObserver(timing);
+		run(interpreter, "");
+		return timing;
+	}
+
+	static void testBranchAndJumpStalls() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsTimingModel timing = time(CALL_LOOP, engine, null, null);
+			/* 64 issue cycles, 9 taken branches, 20 jumps (jal and jr) and the drain. */
+			checkEquals(64L, timing.getInstructions(), engine + " instructions");
+			checkEquals(64L + 9 * 2 + 20 * 1 + 4, timing.getCycles(), engine + " cycles");
+		}
+	}
+
+	static void testInstructionCacheMisses() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsCache instructionCache = MipsCache.parse("64:1:16");
+			MipsTimingModel timing = time(CALL_LOOP, engine, instructionCache, null);
+			/* The text fits in four 16-byte lines, so only the first fetch from each misses. */
+			checkEquals(4L, instructionCache.getMisses(), engine + " I-cache misses");
+			checkEquals(64L + 9 * 2 + 20 * 1 + 4 * 10 + 4, timing.getCycles(), engine + " cycles");
+		}
+	}
+
+	static void testLoadUseAndDataCacheMisses() throws Exception {
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsCache dataCache = MipsCache.parse("64:1:16");
+			MipsTimingModel timing = time(LOAD_LOOP, engine, null, dataCache);
+			/* 16 load-use stalls, 15 taken branches and one miss per 16-byte line of buf. */
+			checkEquals(84L, timing.getInstructions(), engine + " instructions");
+			checkEquals(16L, dataCache.getReads(), engine + " D-cache reads");
+			checkEquals(4L, dataCache.getMisses(), engine + " D-cache misses");
+			checkEquals(84L + 16 * 1 + 15 * 2 + 4 * 10 + 4, timing.getCycles(), engine + " cycles");
+		}
+	}
+}
@@ -0,0 +1,78 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Traces written by MipsTracer and decoded by MipsTraceReader: every
+ * executed instruction comes back once, in order, with what it wrote, even
+ * when the ring buffer spills many times, and a keepLast trace holds
+ * exactly the newest records.
+ */
+class MipsTraceTest extends MipsTestSupport {
+
+	/* Stores 0..9 into consecutive words of buf. */
+	private static final String STORE_LOOP = String.join("\n",
+			".data",
+			"buf: .space 40",
+			".text",
+			"main:",
+			"	la $t0, buf",
+			"	li $t1, 0",
+			"loop:",
+			"	sw $t1, 0($t0)",
+			"	addi $t0, $t0, 4",
+			"	addi $t1, $t1, 1",
+			"	bne $t1, 10, loop",
+			"	li $v0, 10",
+			"	syscall",
+			"");
+
+	public static void main(String[] args) {
+		System.exit(runTests(MipsTraceTest.class) == 0 ? 0 : 1);
+	}
+
+	static void testTraceReadsBackEveryInstruction() throws Exception {
+		String reference = null;
+		for (MipsInterpreter.Engine engine : MipsInterpreter.Engine.values()) {
+			MipsInterpreter interpreter = load(STORE_LOOP, engine);
+			String[] lines = trace(interpreter, 4, false);
+			checkEquals(44L, interpreter.getInstructionsExecuted(), engine + " instructions executed");
+			checkEquals(44, lines.length, engine + " records");
+			for (int i = 0; i < lines.length; i++)
+				checkEquals(String.valueOf(i), lines[i].trim().split("\\s+")[0], engine + " index of record " + i);
+			checkEquals("0  0x00400010  la        $8 = 268500992", lines[0].trim(), engine + " first record");
+			checkEquals("38  0x0040001c  sw        [0x10010024] = 9", lines[38].trim(), engine + " last store");
+			checkEquals("43  0x00400030  syscall   $2 = 10", lines[43].trim(), engine + " last record");
+			String all = String.join("\n", lines);
+			if (reference == null) reference = all;
+			checkEquals(reference, all, engine + " trace");
+		}
+	}
+
+	static void testKeepLastTraceHoldsTheNewestRecords() throws Exception {
+		String[] lines = trace(load(STORE_LOOP, MipsInterpreter.Engine.SWITCH), 4, true);
+		checkEquals(4, lines.length, "records kept");
+		checkEquals("40", lines[0].trim().split("\\s+")[0], "index of the oldest record kept");
+		checkEquals("43  0x00400030  syscall   $2 = 10", lines[3].trim(), "newest record");
+	}
+
+	/* Runs interpreter under a tracer with a ring of capacity records and returns the decoded lines. */
+	private static String[] trace(MipsInterpreter interpreter, int capacity, boolean keepLast) throws Exception {
+		Path file = Files.createTempFile("mips-test", ".trace");
+		try {
+			MipsTracer tracer = new MipsTracer(interpreter, file, capacity, keepLast);
+			interpreter.addObserver(tracer);
+			run(interpreter, "");
+			tracer.close();
+			checkEquals(interpreter.getInstructionsExecuted(), tracer.getRecorded(), "instructions recorded");
+			StringWriter text = new StringWriter();
+			PrintWriter out = new PrintWriter(text);
+			new MipsTraceReader().read(file.toString(), out);
+			out.flush();
+			return text.toString().split("\n");
+		} finally {
+			Files.delete(file);
+		}
+	}
+}